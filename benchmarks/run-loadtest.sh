@@ -0,0 +1,37 @@
+#!/usr/bin/env bash
+# Runs the load generator against every engine/executor variant, each in a fresh JVM, and collects the
+# results in one CSV for side-by-side comparison.
+#
+#   benchmarks/run-loadtest.sh [results.csv]
+#
+# Tunables (environment): SCENARIOS, MODE (closed|open), RATE, CONNECTIONS, DURATION, WARMUP, KEEP_ALIVE,
+# THREADS, JAVA (e.g. a Java 21 binary so the virtual variant really uses virtual threads).
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+RESULTS=${1:-loadtest-$(date +%Y%m%d-%H%M%S).csv}
+SCENARIOS=${SCENARIOS:-health,static-mix,echo,slow-mix}
+MODE=${MODE:-closed}
+RATE=${RATE:-5000}
+CONNECTIONS=${CONNECTIONS:-64}
+DURATION=${DURATION:-20}
+WARMUP=${WARMUP:-5}
+KEEP_ALIVE=${KEEP_ALIVE:-true}
+THREADS=${THREADS:-32}
+JAVA=${JAVA:-java}
+PORT=18080
+
+mvn -B -q -f benchmarks/pom.xml package -DskipTests
+JAR=benchmarks/target/benchmarks.jar
+
+for variant in "blocking platform" "blocking virtual" "nio platform" "nio virtual"; do
+    read -r engine executor <<< "$variant"
+    echo "=== engine=$engine executor=$executor"
+    "$JAVA" -cp "$JAR" edu.fiu.cop6727.webserver.LoadGenerator \
+        --inProcess true --port "$PORT" --engine "$engine" --executor "$executor" --threads "$THREADS" \
+        --scenario "$SCENARIOS" --mode "$MODE" --rate "$RATE" --connections "$CONNECTIONS" \
+        --duration "$DURATION" --warmup "$WARMUP" --keepAlive "$KEEP_ALIVE" --csv "$RESULTS"
+    PORT=$((PORT + 1))
+done
+
+echo "Results written to $RESULTS"
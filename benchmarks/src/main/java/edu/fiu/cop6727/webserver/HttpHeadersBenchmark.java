@@ -0,0 +1,70 @@
+package edu.fiu.cop6727.webserver;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Typical {@link HttpHeaders} traffic: filling a request's headers, and the lookups routing and response
+ * serialization perform on them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpHeadersBenchmark {
+    private HttpHeaders populated;
+
+    @Setup
+    public void setUp() {
+        populated = fill(new HttpHeaders());
+    }
+
+    @Benchmark
+    public HttpHeaders set() {
+        return fill(new HttpHeaders());
+    }
+
+    @Benchmark
+    public void getLowerCase(Blackhole blackhole) {
+        blackhole.consume(populated.get("accept-encoding"));
+        blackhole.consume(populated.get("range"));
+        blackhole.consume(populated.get("if-none-match"));
+        blackhole.consume(populated.get("connection"));
+    }
+
+    @Benchmark
+    public void getMixedCase(Blackhole blackhole) {
+        blackhole.consume(populated.get("Accept-Encoding"));
+        blackhole.consume(populated.get("Range"));
+        blackhole.consume(populated.get("If-None-Match"));
+        blackhole.consume(populated.get("Connection"));
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return populated.contains("content-length") | populated.contains("date");
+    }
+
+    private static HttpHeaders fill(HttpHeaders headers) {
+        headers.set("Host", "localhost:8080");
+        headers.set("User-Agent", "Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0");
+        headers.set("Accept", "text/html,application/xhtml+xml");
+        headers.set("Accept-Encoding", "gzip, deflate");
+        headers.set("Accept-Language", "en-US,en;q=0.5");
+        headers.set("Connection", "keep-alive");
+        headers.set("If-None-Match", "\"4a1-18f0c2a11b0\"");
+        return headers;
+    }
+}
@@ -0,0 +1,114 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Request parsing as {@link ClientHandler} does it: bytes arrive in a read buffer and are fed to a reused
+ * {@link HttpRequestParser}, whole or split across reads. Bodies are decoded with a {@link RequestBodyDecoder}
+ * as for a route that buffers them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpRequestParserBenchmark {
+    private static final byte[] BROWSER_GET = ascii("GET /css/style.css HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+            + "Accept: text/css,*/*;q=0.1\r\n"
+            + "Accept-Language: en-US,en;q=0.5\r\n"
+            + "Accept-Encoding: gzip, deflate\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Referer: http://localhost:8080/\r\n"
+            + "If-None-Match: \"4a1-18f0c2a11b0\"\r\n"
+            + "\r\n");
+    private static final byte[] HEALTH_GET = ascii("GET /health HTTP/1.1\r\nHost: localhost\r\n\r\n");
+    private static final byte[] ECHO_POST = ascii("POST /echo HTTP/1.1\r\nHost: localhost\r\n"
+            + "Content-Type: text/plain\r\nContent-Length: 32\r\n\r\n0123456789abcdef0123456789abcdef");
+    private static final byte[] ECHO_POST_CHUNKED = ascii("POST /echo HTTP/1.1\r\nHost: localhost\r\n"
+            + "Content-Type: text/plain\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "10\r\n0123456789abcdef\r\n10\r\n0123456789abcdef\r\n0\r\n\r\n");
+
+    private final HttpRequestParser parser = new HttpRequestParser();
+
+    @Benchmark
+    public HttpRequest browserGet() throws BadRequestException {
+        return parseWhole(BROWSER_GET);
+    }
+
+    @Benchmark
+    public HttpRequest healthGet() throws BadRequestException {
+        return parseWhole(HEALTH_GET);
+    }
+
+    @Benchmark
+    public HttpRequest echoPost() throws BadRequestException {
+        return parseWithBody(ECHO_POST);
+    }
+
+    @Benchmark
+    public HttpRequest echoPostChunked() throws BadRequestException {
+        return parseWithBody(ECHO_POST_CHUNKED);
+    }
+
+    /**
+     * The same browser request delivered in two reads that split a header line.
+     */
+    @Benchmark
+    public HttpRequest browserGetSplit() throws BadRequestException {
+        int split = BROWSER_GET.length / 2;
+        parser.parse(BROWSER_GET, 0, split);
+        parser.parse(BROWSER_GET, split, BROWSER_GET.length);
+        return parser.takeRequest();
+    }
+
+    /**
+     * Eight pipelined health checks parsed out of one buffer.
+     */
+    @Benchmark
+    public void pipelined(Blackhole blackhole) throws BadRequestException {
+        byte[] data = PipelinedHolder.DATA;
+        int position = 0;
+        while (position < data.length) {
+            position = parser.parse(data, position, data.length);
+            blackhole.consume(parser.takeRequest());
+        }
+    }
+
+    private HttpRequest parseWhole(byte[] data) throws BadRequestException {
+        parser.parse(data, 0, data.length);
+        return parser.takeRequest();
+    }
+
+    private HttpRequest parseWithBody(byte[] data) throws BadRequestException {
+        int position = parser.parse(data, 0, data.length);
+        HttpRequest request = parser.takeRequest();
+        RequestBodyDecoder decoder = RequestBodyDecoder.forRequest(request, Long.MAX_VALUE);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        decoder.decodeInto(data, position, data.length, body);
+        request.attachBody(body.toByteArray());
+        return request;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final class PipelinedHolder {
+        private static final byte[] DATA = ascii(new String(HEALTH_GET, StandardCharsets.US_ASCII).repeat(8));
+    }
+}
@@ -0,0 +1,97 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and serializing responses with {@link HttpResponse#write} into a null stream, so only header
+ * encoding and buffer handling are measured. The generated-body pair compares building a large body in memory
+ * with streaming it chunked; run it with {@code -prof gc} to see the allocation per response.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpResponseBenchmark {
+    private final OutputStream sink = OutputStream.nullOutputStream();
+    private final KeepAlivePolicy keepAlivePolicy = new KeepAlivePolicy(5000, 100);
+    private static final int GENERATED_BYTES = 4 * 1024 * 1024;
+    private static final byte[] GENERATED_LINE = "The quick brown fox jumps over the lazy dog.\n".getBytes();
+
+    private final HttpRequest http11Request = new HttpRequest("GET", "/report", "HTTP/1.1", new HttpHeaders(),
+            new byte[0]);
+    private byte[] cachedFile;
+
+    @Setup
+    public void setUp() {
+        cachedFile = new byte[16 * 1024];
+    }
+
+    /**
+     * The /health response, including the keep-alive headers every persistent connection adds.
+     */
+    @Benchmark
+    public long health() throws IOException {
+        HttpResponse response = HttpResponse.text(HttpStatus.OK, "OK");
+        keepAlivePolicy.apply(response, true, 1);
+        return response.write(sink);
+    }
+
+    /**
+     * A cached static file with validators, as served from {@link StaticFileCache}.
+     */
+    @Benchmark
+    public long staticFile() throws IOException {
+        HttpResponse response = new HttpResponse(HttpStatus.OK);
+        response.setHeader("content-type", "text/html");
+        response.setHeader("etag", "\"4000-18f0c2a11b0\"");
+        response.setHeader("last-modified", "Sun, 06 Nov 1994 08:49:37 GMT");
+        response.setHeader("accept-ranges", "bytes");
+        response.setBody(cachedFile, "16384");
+        keepAlivePolicy.apply(response, true, 1);
+        return response.write(sink);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long generatedBuffered() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        generate(body);
+        HttpResponse response = new HttpResponse(HttpStatus.OK);
+        response.setBody(body.toByteArray());
+        keepAlivePolicy.apply(response, true, 1);
+        return response.write(sink);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long generatedStreamed() throws IOException {
+        HttpResponse response = new HttpResponse(HttpStatus.OK);
+        response.setStreamingBody(HttpResponseBenchmark::generate);
+        response.applyFraming(http11Request);
+        keepAlivePolicy.apply(response, true, 1);
+        return response.write(sink);
+    }
+
+    private static void generate(OutputStream out) throws IOException {
+        for (int written = 0; written < GENERATED_BYTES; written += GENERATED_LINE.length) {
+            out.write(GENERATED_LINE);
+        }
+    }
+}
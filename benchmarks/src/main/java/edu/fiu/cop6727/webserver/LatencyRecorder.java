@@ -0,0 +1,118 @@
+package edu.fiu.cop6727.webserver;
+
+/**
+ * Single-threaded latency histogram in microseconds for the load generator, with 1% precision: each
+ * power-of-two octave is split into 128 linear sub-buckets. Each worker records into its own instance and
+ * the results are merged once the run is over.
+ */
+final class LatencyRecorder {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int OCTAVES = 36;
+    private static final int BUCKETS = SUB_BUCKETS + OCTAVES * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    void record(long micros) {
+        recordCount(Math.max(0, micros), 1);
+    }
+
+    /**
+     * Adds {@code other} to this recorder.
+     */
+    void add(LatencyRecorder other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns a copy corrected for coordinated omission, as HdrHistogram does: a closed-loop client that was
+     * stuck for {@code v} did not send the requests it would have sent every {@code expectedIntervalMicros},
+     * so those missing samples are added back with latencies {@code v - interval}, {@code v - 2 * interval},
+     * and so on.
+     */
+    LatencyRecorder correctedFor(long expectedIntervalMicros) {
+        LatencyRecorder corrected = new LatencyRecorder();
+        corrected.add(this);
+        if (expectedIntervalMicros <= 0) {
+            return corrected;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucketCount = counts[i];
+            if (bucketCount == 0) {
+                continue;
+            }
+            long value = representative(i);
+            for (long missing = value - expectedIntervalMicros; missing >= expectedIntervalMicros;
+                 missing -= expectedIntervalMicros) {
+                corrected.recordCount(missing, bucketCount);
+            }
+        }
+        return corrected;
+    }
+
+    long count() {
+        return count;
+    }
+
+    double meanMicros() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    long maxMicros() {
+        return max;
+    }
+
+    /**
+     * Value at {@code percentile} (0..100), accurate to the bucket width (about 1%).
+     */
+    long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(representative(i), max);
+            }
+        }
+        return max;
+    }
+
+    private void recordCount(long micros, long times) {
+        counts[bucketIndex(micros)] += times;
+        count += times;
+        sum += micros * times;
+        max = Math.max(max, micros);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket, BUCKETS - 1);
+    }
+
+    /**
+     * Highest value that falls into bucket {@code index}.
+     */
+    private static long representative(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
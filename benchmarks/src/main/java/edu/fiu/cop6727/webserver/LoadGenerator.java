@@ -0,0 +1,581 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end HTTP load generator. It drives a server on a port, or an {@link HttpServer} it starts in-process,
+ * with one of the built-in scenarios and prints throughput and latency percentiles.
+ * <p>
+ * In {@code closed} mode each connection sends its next request as soon as the previous response arrives.
+ * In {@code open} mode requests are scheduled at a constant total {@code --rate}, independent of how fast the
+ * server answers. Latency is measured from the scheduled send time, so a stalled server is charged for the
+ * requests it delayed (no coordinated omission). Closed-loop results are additionally reported corrected for
+ * coordinated omission, using {@code --expectedInterval} microseconds (default: the mean latency) as the time
+ * each connection should have taken between requests.
+ * <p>
+ * Usage (options use the server's {@code --key value} style):
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar edu.fiu.cop6727.webserver.LoadGenerator \
+ *     --inProcess true --engine nio --scenario static-mix --mode open --rate 20000 --connections 64
+ * </pre>
+ */
+public final class LoadGenerator {
+    private static final Map<String, Integer> FILE_SIZES = Map.of(
+            "/bench/1k.bin", 1024,
+            "/bench/64k.bin", 64 * 1024,
+            "/bench/1m.bin", 1024 * 1024);
+    private static final byte[] ECHO_BODY = "x".repeat(512).getBytes(StandardCharsets.US_ASCII);
+
+    private final Options options;
+
+    private LoadGenerator(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        HttpServer server = null;
+        if (options.inProcess) {
+            server = startServer(options);
+        } else if (options.documentRoot != null) {
+            writeBenchFiles(options.documentRoot);
+        }
+        try {
+            LoadGenerator generator = new LoadGenerator(options);
+            for (String scenario : options.scenarios) {
+                generator.run(Scenario.named(scenario));
+            }
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private void run(Scenario scenario) throws InterruptedException, IOException {
+        long warmupEnd = System.nanoTime() + options.warmupNanos;
+        long end = warmupEnd + options.durationNanos;
+        Worker[] workers = new Worker[options.connections];
+        Thread[] threads = new Thread[options.connections];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(scenario, warmupEnd, end);
+            threads[i] = new Thread(workers[i], "load-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        LatencyRecorder latency = new LatencyRecorder();
+        long requests = 0;
+        long errors = 0;
+        long bytes = 0;
+        for (int i = 0; i < workers.length; i++) {
+            threads[i].join();
+            latency.add(workers[i].latency);
+            requests += workers[i].completed;
+            errors += workers[i].errors;
+            bytes += workers[i].bytes;
+        }
+        double seconds = options.durationNanos / 1e9;
+        long expectedInterval = options.expectedIntervalMicros > 0
+                ? options.expectedIntervalMicros
+                : (long) latency.meanMicros();
+        LatencyRecorder corrected = options.open ? latency : latency.correctedFor(expectedInterval);
+        Result result = new Result(scenario.name, requests / seconds, errors, bytes / seconds, latency, corrected);
+        print(result);
+        if (options.csv != null) {
+            appendCsv(result);
+        }
+    }
+
+    private void print(Result result) {
+        System.out.printf(Locale.ROOT, "%-12s %-6s engine=%s executor=%s conns=%d keepAlive=%s%s%n",
+                result.scenario, options.open ? "open" : "closed", options.label("engine"),
+                options.label("executor"), options.connections, options.keepAlive,
+                options.open ? " rate=" + options.rate : "");
+        System.out.printf(Locale.ROOT, "  throughput %.0f req/s, %.1f MB/s, %d errors%n",
+                result.throughput, result.bytesPerSecond / (1024 * 1024), result.errors);
+        System.out.printf(Locale.ROOT, "  latency ms   p50 %8.3f  p99 %8.3f  p99.9 %8.3f  max %8.3f%n",
+                millis(result.latency.percentile(50)), millis(result.latency.percentile(99)),
+                millis(result.latency.percentile(99.9)), millis(result.latency.maxMicros()));
+        if (!options.open) {
+            System.out.printf(Locale.ROOT, "  corrected ms p50 %8.3f  p99 %8.3f  p99.9 %8.3f%n",
+                    millis(result.corrected.percentile(50)), millis(result.corrected.percentile(99)),
+                    millis(result.corrected.percentile(99.9)));
+        }
+    }
+
+    private void appendCsv(Result result) throws IOException {
+        boolean header = !Files.exists(options.csv);
+        StringBuilder line = new StringBuilder();
+        if (header) {
+            line.append("scenario,mode,engine,executor,threads,connections,keepAlive,rate,durationSeconds,")
+                    .append("throughput,errors,mbPerSecond,p50Ms,p99Ms,p999Ms,maxMs,")
+                    .append("correctedP50Ms,correctedP99Ms,correctedP999Ms\n");
+        }
+        line.append(String.format(Locale.ROOT, "%s,%s,%s,%s,%s,%d,%s,%d,%.0f,%.1f,%d,%.2f,"
+                        + "%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f%n",
+                result.scenario, options.open ? "open" : "closed", options.label("engine"),
+                options.label("executor"), options.label("threads"), options.connections, options.keepAlive,
+                options.open ? options.rate : 0, options.durationNanos / 1e9, result.throughput, result.errors,
+                result.bytesPerSecond / (1024 * 1024), millis(result.latency.percentile(50)),
+                millis(result.latency.percentile(99)), millis(result.latency.percentile(99.9)),
+                millis(result.latency.maxMicros()), millis(result.corrected.percentile(50)),
+                millis(result.corrected.percentile(99)), millis(result.corrected.percentile(99.9))));
+        Files.writeString(options.csv, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static HttpServer startServer(Options options) throws IOException, InterruptedException {
+        Path root = options.documentRoot != null ? options.documentRoot : Files.createTempDirectory("loadgen-www");
+        writeBenchFiles(root);
+        ServerConfig.Builder builder = ServerConfig.builder()
+                .port(options.port)
+                .documentRoot(root)
+                .accessLogTarget(AccessLog.OFF);
+        String engine = options.serverOptions.get("engine");
+        if (engine != null) {
+            builder.engine(ServerConfig.Engine.parse(engine));
+        }
+        String executor = options.serverOptions.get("executor");
+        if (executor != null) {
+            builder.workerMode(ServerConfig.WorkerMode.parse(executor));
+        }
+        String threads = options.serverOptions.get("threads");
+        if (threads != null) {
+            builder.maxThreads(Integer.parseInt(threads));
+        }
+        String eventLoops = options.serverOptions.get("eventLoops");
+        if (eventLoops != null) {
+            builder.eventLoopThreads(Integer.parseInt(eventLoops));
+        }
+        String maxConcurrency = options.serverOptions.get("maxConcurrency");
+        if (maxConcurrency != null) {
+            builder.maxConcurrency(Integer.parseInt(maxConcurrency));
+        }
+        String acceptors = options.serverOptions.get("acceptors");
+        if (acceptors != null) {
+            builder.acceptorThreads(Integer.parseInt(acceptors));
+        }
+        HttpServer server = new HttpServer(builder.build(), new ServerLogger());
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                throw new IllegalStateException("Server failed to start", e);
+            }
+        }, "in-process-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        awaitPort(options.host, options.port, serverThread);
+        return server;
+    }
+
+    private static void awaitPort(String host, int port, Thread serverThread) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline && serverThread.isAlive()) {
+            try {
+                new Socket(host, port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Server did not start listening on port " + port);
+    }
+
+    /**
+     * Writes the files the static scenarios request under {@code bench/} in the document root.
+     */
+    private static void writeBenchFiles(Path documentRoot) throws IOException {
+        Path directory = documentRoot.resolve("bench");
+        Files.createDirectories(directory);
+        for (Map.Entry<String, Integer> file : FILE_SIZES.entrySet()) {
+            Path target = documentRoot.resolve(file.getKey().substring(1));
+            if (Files.exists(target) && Files.size(target) == file.getValue()) {
+                continue;
+            }
+            byte[] content = new byte[file.getValue()];
+            ThreadLocalRandom.current().nextBytes(content);
+            Files.write(target, content);
+        }
+    }
+
+    /**
+     * One connection's request loop; owns its socket and its latency recorder.
+     */
+    private final class Worker implements Runnable {
+        private final Scenario scenario;
+        private final long warmupEnd;
+        private final long end;
+        private final long intervalNanos;
+        private final LatencyRecorder latency = new LatencyRecorder();
+        private final byte[] scratch = new byte[64 * 1024];
+        private long completed;
+        private long errors;
+        private long bytes;
+
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Worker(Scenario scenario, long warmupEnd, long end) {
+            this.scenario = scenario;
+            this.warmupEnd = warmupEnd;
+            this.end = end;
+            this.intervalNanos = options.open
+                    ? Math.max(1, (long) (1e9 * options.connections / options.rate))
+                    : 0;
+        }
+
+        @Override
+        public void run() {
+            // Spread the open-loop schedules of the connections evenly over one interval.
+            long intended = System.nanoTime() + ThreadLocalRandom.current().nextLong(Math.max(1, intervalNanos));
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    if (options.open) {
+                        if (intended >= end) {
+                            break;
+                        }
+                        if (now >= end + options.durationNanos) {
+                            // Hopelessly behind schedule: charge the requests never sent as errors.
+                            errors += (end - Math.max(intended, warmupEnd)) / intervalNanos;
+                            break;
+                        }
+                        if (intended > now) {
+                            LockSupport.parkNanos(intended - now);
+                        }
+                    } else if (now >= end) {
+                        break;
+                    }
+                    long start = options.open ? intended : System.nanoTime();
+                    Request request = scenario.next();
+                    boolean ok = execute(request);
+                    long finished = System.nanoTime();
+                    // Open-loop requests count by their scheduled time, so slow ones at the end are kept.
+                    if (start >= warmupEnd && (options.open || finished <= end)) {
+                        if (ok) {
+                            latency.record((finished - start) / 1000);
+                            completed++;
+                        } else {
+                            errors++;
+                        }
+                    }
+                    intended += intervalNanos;
+                }
+            } finally {
+                closeSocket();
+            }
+        }
+
+        private boolean execute(Request request) {
+            try {
+                if (socket == null) {
+                    socket = new Socket();
+                    socket.setTcpNoDelay(true);
+                    socket.connect(new InetSocketAddress(options.host, options.port), 5000);
+                    socket.setSoTimeout(30_000);
+                    in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                    out = socket.getOutputStream();
+                }
+                out.write(options.keepAlive ? request.keepAliveBytes : request.closeBytes);
+                out.flush();
+                ResponseInfo response = readResponse();
+                if (!options.keepAlive || response.close) {
+                    closeSocket();
+                }
+                return response.status < 500;
+            } catch (IOException e) {
+                closeSocket();
+                return false;
+            }
+        }
+
+        private ResponseInfo readResponse() throws IOException {
+            String statusLine = readLine();
+            if (statusLine.length() < 12) {
+                throw new IOException("Malformed status line: " + statusLine);
+            }
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            long contentLength = -1;
+            boolean chunked = false;
+            boolean close = false;
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                switch (name) {
+                    case "content-length" -> contentLength = Long.parseLong(value);
+                    case "transfer-encoding" -> chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+                    case "connection" -> close = value.equalsIgnoreCase("close");
+                    default -> {
+                    }
+                }
+            }
+            if (chunked) {
+                long chunk;
+                while ((chunk = Long.parseLong(readLine().split(";")[0].trim(), 16)) > 0) {
+                    skip(chunk);
+                    readLine();
+                }
+                while (!readLine().isEmpty()) {
+                    // trailers
+                }
+            } else if (contentLength > 0) {
+                skip(contentLength);
+            } else if (contentLength < 0 && status != 204 && status != 304) {
+                while (in.read(scratch) >= 0) {
+                    // body delimited by close
+                }
+                close = true;
+            }
+            return new ResponseInfo(status, close);
+        }
+
+        private void skip(long length) throws IOException {
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(scratch, 0, (int) Math.min(scratch.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Response body truncated");
+                }
+                remaining -= read;
+                bytes += read;
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder(64);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("Connection closed mid-response");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        private void closeSocket() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                socket = null;
+            }
+        }
+    }
+
+    private static final class ResponseInfo {
+        private final int status;
+        private final boolean close;
+
+        private ResponseInfo(int status, boolean close) {
+            this.status = status;
+            this.close = close;
+        }
+    }
+
+    /**
+     * A pre-encoded request, in keep-alive and {@code Connection: close} form.
+     */
+    private static final class Request {
+        private final byte[] keepAliveBytes;
+        private final byte[] closeBytes;
+
+        private Request(String method, String path, byte[] body) {
+            this.keepAliveBytes = encode(method, path, body, "keep-alive");
+            this.closeBytes = encode(method, path, body, "close");
+        }
+
+        private static byte[] encode(String method, String path, byte[] body, String connection) {
+            String head = method + " " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: " + connection + "\r\n"
+                    + (body.length > 0 ? "Content-Type: text/plain\r\nContent-Length: " + body.length + "\r\n" : "")
+                    + "\r\n";
+            byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+            byte[] encoded = new byte[headBytes.length + body.length];
+            System.arraycopy(headBytes, 0, encoded, 0, headBytes.length);
+            System.arraycopy(body, 0, encoded, headBytes.length, body.length);
+            return encoded;
+        }
+    }
+
+    /**
+     * A weighted mix of requests.
+     */
+    private static final class Scenario {
+        private final String name;
+        private final Request[] requests;
+        private final int[] cumulativeWeights;
+
+        private Scenario(String name, List<Request> requests, List<Integer> weights) {
+            this.name = name;
+            this.requests = requests.toArray(new Request[0]);
+            this.cumulativeWeights = new int[weights.size()];
+            int total = 0;
+            for (int i = 0; i < weights.size(); i++) {
+                total += weights.get(i);
+                cumulativeWeights[i] = total;
+            }
+        }
+
+        Request next() {
+            if (requests.length == 1) {
+                return requests[0];
+            }
+            int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            for (int i = 0; i < cumulativeWeights.length; i++) {
+                if (pick < cumulativeWeights[i]) {
+                    return requests[i];
+                }
+            }
+            return requests[requests.length - 1];
+        }
+
+        static Scenario named(String name) {
+            List<Request> requests = new ArrayList<>();
+            List<Integer> weights = new ArrayList<>();
+            switch (name) {
+                case "health" -> add(requests, weights, "GET", "/health", 1);
+                case "static-1k" -> add(requests, weights, "GET", "/bench/1k.bin", 1);
+                case "static-64k" -> add(requests, weights, "GET", "/bench/64k.bin", 1);
+                case "static-1m" -> add(requests, weights, "GET", "/bench/1m.bin", 1);
+                case "static-mix" -> {
+                    add(requests, weights, "GET", "/bench/1k.bin", 70);
+                    add(requests, weights, "GET", "/bench/64k.bin", 25);
+                    add(requests, weights, "GET", "/bench/1m.bin", 5);
+                }
+                case "echo" -> {
+                    requests.add(new Request("POST", "/echo", ECHO_BODY));
+                    weights.add(1);
+                }
+                case "slow-mix" -> {
+                    add(requests, weights, "GET", "/health", 95);
+                    add(requests, weights, "GET", "/slow", 5);
+                }
+                default -> throw new IllegalArgumentException("Unknown scenario: " + name
+                        + " (health, static-1k, static-64k, static-1m, static-mix, echo, slow-mix)");
+            }
+            return new Scenario(name, requests, weights);
+        }
+
+        private static void add(List<Request> requests, List<Integer> weights, String method, String path,
+                                int weight) {
+            requests.add(new Request(method, path, new byte[0]));
+            weights.add(weight);
+        }
+    }
+
+    private static final class Result {
+        private final String scenario;
+        private final double throughput;
+        private final long errors;
+        private final double bytesPerSecond;
+        private final LatencyRecorder latency;
+        private final LatencyRecorder corrected;
+
+        private Result(String scenario, double throughput, long errors, double bytesPerSecond,
+                       LatencyRecorder latency, LatencyRecorder corrected) {
+            this.scenario = scenario;
+            this.throughput = throughput;
+            this.errors = errors;
+            this.bytesPerSecond = bytesPerSecond;
+            this.latency = latency;
+            this.corrected = corrected;
+        }
+    }
+
+    private static final class Options {
+        private String host = "localhost";
+        private int port = 18080;
+        private boolean inProcess;
+        private Path documentRoot;
+        private List<String> scenarios = List.of("health");
+        private boolean open;
+        private int connections = 16;
+        private int rate = 1000;
+        private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+        private long warmupNanos = TimeUnit.SECONDS.toNanos(2);
+        private boolean keepAlive = true;
+        private long expectedIntervalMicros;
+        private Path csv;
+        private final Map<String, String> serverOptions = new HashMap<>();
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for argument: " + arg);
+                }
+                String value = args[++i];
+                switch (arg.substring(2)) {
+                    case "host" -> options.host = value;
+                    case "port" -> options.port = Integer.parseInt(value);
+                    case "inProcess" -> options.inProcess = Boolean.parseBoolean(value);
+                    case "docRoot" -> options.documentRoot = Paths.get(value);
+                    case "scenario" -> options.scenarios = List.of(value.split(","));
+                    case "mode" -> options.open = parseMode(value);
+                    case "connections" -> options.connections = Math.max(1, Integer.parseInt(value));
+                    case "rate" -> options.rate = Math.max(1, Integer.parseInt(value));
+                    case "duration" -> options.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+                    case "warmup" -> options.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+                    case "keepAlive" -> options.keepAlive = Boolean.parseBoolean(value);
+                    case "expectedInterval" -> options.expectedIntervalMicros = Long.parseLong(value);
+                    case "csv" -> options.csv = Paths.get(value);
+                    case "engine", "executor", "threads", "eventLoops", "maxConcurrency", "acceptors" ->
+                            options.serverOptions.put(arg.substring(2), value);
+                    default -> throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+            return options;
+        }
+
+        /**
+         * Server option as given for an in-process run, or "-" when the server is external or uses defaults.
+         */
+        String label(String serverOption) {
+            return serverOptions.getOrDefault(serverOption, "-");
+        }
+
+        private static boolean parseMode(String value) {
+            return switch (value.toLowerCase(Locale.ROOT)) {
+                case "open" -> true;
+                case "closed" -> false;
+                default -> throw new IllegalArgumentException("Unknown mode: " + value + " (open or closed)");
+            };
+        }
+    }
+}
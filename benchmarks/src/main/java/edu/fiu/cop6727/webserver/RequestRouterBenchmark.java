@@ -0,0 +1,96 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link RequestRouter#route} for the static, echo and health paths against a temporary document root, with
+ * the static file cache enabled as in a default server.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestRouterBenchmark {
+    private Path documentRoot;
+    private RequestRouter router;
+    private HttpRequest staticRequest;
+    private HttpRequest staticGzipRequest;
+    private HttpRequest echoRequest;
+    private HttpRequest healthRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        documentRoot = Files.createTempDirectory("router-bench");
+        Files.writeString(documentRoot.resolve("index.html"),
+                "<!DOCTYPE html><html><body>" + "<p>benchmark content</p>".repeat(200) + "</body></html>");
+        ServerConfig config = ServerConfig.builder().documentRoot(documentRoot).build();
+        router = new RequestRouter(config, new ServerLogger(), new ServerMetrics());
+
+        staticRequest = get("/index.html");
+        HttpHeaders gzipHeaders = new HttpHeaders();
+        gzipHeaders.set("host", "localhost");
+        gzipHeaders.set("accept-encoding", "gzip, deflate");
+        staticGzipRequest = new HttpRequest("GET", "/index.html", "HTTP/1.1", gzipHeaders, new byte[0]);
+        HttpHeaders echoHeaders = new HttpHeaders();
+        echoHeaders.set("host", "localhost");
+        echoHeaders.set("content-length", "32");
+        echoRequest = new HttpRequest("POST", "/echo", "HTTP/1.1", echoHeaders,
+                "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII));
+        healthRequest = get("/health");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(documentRoot)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public HttpResponse staticFile() {
+        return router.route(staticRequest);
+    }
+
+    @Benchmark
+    public HttpResponse staticFileGzip() {
+        return router.route(staticGzipRequest);
+    }
+
+    @Benchmark
+    public HttpResponse echo() {
+        return router.route(echoRequest);
+    }
+
+    @Benchmark
+    public HttpResponse health() {
+        return router.route(healthRequest);
+    }
+
+    private static HttpRequest get(String path) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("host", "localhost");
+        return new HttpRequest("GET", path, "HTTP/1.1", headers, new byte[0]);
+    }
+}
@@ -0,0 +1,84 @@
+package edu.fiu.cop6727.webserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link RouteTable} lookups as the number of registered routes grows. Every variant should stay flat across
+ * {@code routes}; {@code linearScan} is the if-chain dispatch it replaced, for contrast.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouteTableBenchmark {
+    @Param({"10", "100", "1000"})
+    public int routes;
+
+    private RouteTable table;
+    private String[] exactPaths;
+    private String exactPath;
+    private String parameterPath;
+    private String wildcardPath;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Handler handler = (request, parameters) -> CompletableFuture.completedFuture(null);
+        table = new RouteTable();
+        exactPaths = new String[routes];
+        for (int i = 0; i < routes; i++) {
+            exactPaths[i] = "/api/v1/service" + i + "/status";
+            table.add("GET", exactPaths[i], handler);
+            table.add("GET", "/api/v1/service" + i + "/users/{id}", handler);
+            table.add("POST", "/api/v1/service" + i + "/users/{id}/events", handler);
+        }
+        table.add("GET", "/*", "static", handler);
+        exactPath = new String(exactPaths[routes - 1]);
+        parameterPath = "/api/v1/service" + (routes / 2) + "/users/42";
+        wildcardPath = "/assets/css/site.css";
+    }
+
+    @Benchmark
+    public RouteTable.Match exact() {
+        return table.find("GET", exactPath);
+    }
+
+    @Benchmark
+    public RouteTable.Match parameter() {
+        return table.find("GET", parameterPath);
+    }
+
+    @Benchmark
+    public RouteTable.Match wildcard() {
+        return table.find("GET", wildcardPath);
+    }
+
+    @Benchmark
+    public Object parameterWithValues() {
+        return table.find("GET", parameterPath).parameters();
+    }
+
+    @Benchmark
+    public String linearScan() {
+        for (String path : exactPaths) {
+            if (path.equals(exactPath)) {
+                return path;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,44 @@
+package edu.fiu.cop6727.webserver;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link ServerMetrics#recordRequest}, the per-request instrumentation both engines pay, single
+ * threaded and with every core recording into the same histograms. Compare against the router and response
+ * benchmarks to see its share of a request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerMetricsBenchmark {
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    @Benchmark
+    public void recordRequest() {
+        metrics.recordRequest("static", 200, 183_000, 1456);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void recordRequestContended() {
+        metrics.recordRequest("static", 200, 183_000, 1456);
+    }
+
+    @Benchmark
+    public String scrape() {
+        return metrics.scrape();
+    }
+}
@@ -0,0 +1,305 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Per-request access log. Request threads only publish a small record into a bounded lock-free ring buffer;
+ * a single writer thread formats the records in batches and writes each batch to stdout or a file with one
+ * channel write, so logging never takes a lock or performs I/O on the request path. When the ring is full,
+ * records are dropped (and counted) or the request thread waits, depending on
+ * {@link ServerConfig.AccessLogOverflow}.
+ * <p>
+ * Lines use a key=value format:
+ * {@code time=2025-01-01T12:00:00.000Z remote=127.0.0.1 method=GET path=/ version=HTTP/1.1 status=200
+ * bytes=1456 latency_us=183}
+ */
+final class AccessLog {
+    /** Target name that selects standard output. */
+    static final String STDOUT = "stdout";
+    /** Target name that disables the access log. */
+    static final String OFF = "off";
+
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long DROP_REPORT_INTERVAL_MILLIS = 10_000;
+    private static final DateTimeFormatter SECOND_FORMAT =
+            DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    private final ServerLogger logger;
+    private final boolean synchronous;
+    private final ServerConfig.AccessLogOverflow overflow;
+    private final WritableByteChannel output;
+    private final Record[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Writer-thread state.
+    private long head;
+    private long reportedDropped;
+    private long lastDropReportMillis;
+    private long formattedSecond = Long.MIN_VALUE;
+    private String formattedSecondText;
+    private final StringBuilder batch = new StringBuilder(16 * 1024);
+
+    private AccessLog(ServerLogger logger, boolean synchronous, ServerConfig.AccessLogOverflow overflow,
+                      WritableByteChannel output, int capacity) {
+        this.logger = logger;
+        this.synchronous = synchronous;
+        this.overflow = overflow;
+        this.output = output;
+        if (output == null) {
+            this.slots = null;
+            this.sequences = null;
+            this.mask = 0;
+            this.writer = null;
+            return;
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Record[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.writer = new Thread(this::drainLoop, "access-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Opens the log described by the configuration: {@link #STDOUT}, {@link #OFF}, or a file path that is
+     * appended to.
+     */
+    static AccessLog create(ServerConfig config, ServerLogger logger) throws IOException {
+        String target = config.getAccessLogTarget();
+        if (OFF.equalsIgnoreCase(target)) {
+            return disabled(logger);
+        }
+        WritableByteChannel output;
+        if (STDOUT.equalsIgnoreCase(target)) {
+            output = Channels.newChannel(new FileOutputStream(FileDescriptor.out));
+        } else {
+            Path file = Paths.get(target);
+            output = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        return new AccessLog(logger, false, config.getAccessLogOverflow(), output, config.getAccessLogCapacity());
+    }
+
+    /**
+     * A log that records nothing; used when access logging is switched off.
+     */
+    static AccessLog disabled(ServerLogger logger) {
+        return new AccessLog(logger, false, ServerConfig.AccessLogOverflow.DROP, null, 0);
+    }
+
+    /**
+     * A log that writes each record through {@link ServerLogger#info} on the calling thread, for handlers
+     * constructed without a server-wide access log.
+     */
+    static AccessLog synchronous(ServerLogger logger) {
+        return new AccessLog(logger, true, ServerConfig.AccessLogOverflow.DROP, null, 0);
+    }
+
+    /**
+     * Publishes one access record. {@code startNanos} is the {@link System#nanoTime()} at which the request
+     * was read.
+     */
+    void log(String remote, HttpRequest request, int status, long bytes, long startNanos) {
+        if (synchronous) {
+            logger.info(request.getMethod() + " " + request.getPath() + " -> " + status);
+            return;
+        }
+        if (output == null || closed) {
+            return;
+        }
+        Record record = new Record(System.currentTimeMillis(), remote, request.getMethod(), request.getPath(),
+                request.getHttpVersion(), status, bytes, (System.nanoTime() - startNanos) / 1000);
+        while (!offer(record)) {
+            if (overflow == ServerConfig.AccessLogOverflow.DROP || closed) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Number of records discarded because the ring was full.
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops accepting records, writes out what is buffered and closes the output (standard output is left
+     * open).
+     */
+    void close() {
+        if (output == null || closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Multi-producer enqueue on a sequence-numbered ring: a slot is free for position {@code p} when its
+     * sequence equals {@code p}, and published to the writer by setting it to {@code p + 1}.
+     */
+    private boolean offer(Record record) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = record;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false; // the writer has not freed this slot yet: full
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    private Record poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        Record record = slots[index];
+        slots[index] = null;
+        sequences.set(index, head + slots.length);
+        head++;
+        return record;
+    }
+
+    private void drainLoop() {
+        while (true) {
+            boolean stopping = closed;
+            int count = 0;
+            Record record;
+            while (count < MAX_BATCH && (record = poll()) != null) {
+                append(record);
+                count++;
+            }
+            if (count > 0) {
+                writeBatch();
+            }
+            reportDrops(stopping);
+            if (count == MAX_BATCH) {
+                continue;
+            }
+            if (stopping) {
+                break;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        if (output instanceof FileChannel) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                logger.error("Failed to close access log", e);
+            }
+        }
+    }
+
+    private void append(Record record) {
+        long second = Math.floorDiv(record.timeMillis, 1000);
+        if (second != formattedSecond) {
+            formattedSecond = second;
+            formattedSecondText = SECOND_FORMAT.format(Instant.ofEpochSecond(second));
+        }
+        int millis = Math.floorMod(record.timeMillis, 1000);
+        batch.append("time=").append(formattedSecondText).append('.')
+                .append((char) ('0' + millis / 100)).append((char) ('0' + millis / 10 % 10))
+                .append((char) ('0' + millis % 10)).append('Z')
+                .append(" remote=").append(record.remote)
+                .append(" method=").append(record.method)
+                .append(" path=").append(record.path)
+                .append(" version=").append(record.version)
+                .append(" status=").append(record.status)
+                .append(" bytes=").append(record.bytes)
+                .append(" latency_us=").append(record.latencyMicros)
+                .append('\n');
+    }
+
+    private void writeBatch() {
+        ByteBuffer bytes = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.ISO_8859_1));
+        batch.setLength(0);
+        try {
+            while (bytes.hasRemaining()) {
+                output.write(bytes);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to write access log", e);
+        }
+    }
+
+    private void reportDrops(boolean force) {
+        long total = dropped.get();
+        long now = System.currentTimeMillis();
+        if (total == reportedDropped || (!force && now - lastDropReportMillis < DROP_REPORT_INTERVAL_MILLIS)) {
+            return;
+        }
+        logger.warn("Access log buffer full; dropped " + (total - reportedDropped) + " records");
+        reportedDropped = total;
+        lastDropReportMillis = now;
+    }
+
+    private static final class Record {
+        private final long timeMillis;
+        private final String remote;
+        private final String method;
+        private final String path;
+        private final String version;
+        private final int status;
+        private final long bytes;
+        private final long latencyMicros;
+
+        private Record(long timeMillis, String remote, String method, String path, String version, int status,
+                       long bytes, long latencyMicros) {
+            this.timeMillis = timeMillis;
+            this.remote = remote;
+            this.method = method;
+            this.path = path;
+            this.version = version;
+            this.status = status;
+            this.bytes = bytes;
+            this.latencyMicros = latencyMicros;
+        }
+    }
+}
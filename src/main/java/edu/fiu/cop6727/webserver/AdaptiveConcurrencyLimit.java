@@ -0,0 +1,94 @@
+package edu.fiu.cop6727.webserver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit that follows observed latency, after the gradient algorithm of Netflix's
+ * concurrency-limits library. A slow moving average of request latency is the baseline; when recent latency
+ * rises above it, queueing is building up somewhere and the limit shrinks in proportion, otherwise it grows
+ * by roughly its square root so the server keeps probing for headroom. Requests over the limit are shed
+ * instead of queued, which keeps latency flat when the server is saturated.
+ */
+final class AdaptiveConcurrencyLimit {
+    private static final double LONG_WINDOW = 600;
+    private static final double SHORT_WINDOW = 10;
+    private static final double SMOOTHING = 0.2;
+    /** Long-term latency may drift up to this much above the short-term one before the limit grows. */
+    private static final double TOLERANCE = 1.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private volatile int limit;
+
+    // Guarded by updateLock.
+    private double estimatedLimit;
+    private double longLatencyNanos;
+    private double shortLatencyNanos;
+
+    AdaptiveConcurrencyLimit(int minLimit, int maxLimit, int initialLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.estimatedLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * Claims a slot for one request, or returns false when the limit is reached and the request should be
+     * shed. A successful call must be paired with {@link #release(long)}.
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Frees the slot and feeds the request's latency into the limit.
+     */
+    void release(long latencyNanos) {
+        int inFlightAtCompletion = inFlight.getAndDecrement();
+        if (latencyNanos <= 0 || !updateLock.tryLock()) {
+            return; // another thread is updating; one dropped sample does not matter
+        }
+        try {
+            if (longLatencyNanos == 0) {
+                longLatencyNanos = latencyNanos;
+                shortLatencyNanos = latencyNanos;
+                return;
+            }
+            shortLatencyNanos += (latencyNanos - shortLatencyNanos) / SHORT_WINDOW;
+            longLatencyNanos += (latencyNanos - longLatencyNanos) / LONG_WINDOW;
+            if (longLatencyNanos / shortLatencyNanos > TOLERANCE) {
+                // Latency dropped sharply (e.g. after a spike); pull the baseline down faster.
+                longLatencyNanos *= 0.95;
+            }
+            if (inFlightAtCompletion < estimatedLimit / 2) {
+                return; // not using the limit, so latency says nothing about it
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatencyNanos / shortLatencyNanos));
+            double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            estimatedLimit = Math.max(minLimit, Math.min(maxLimit,
+                    estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+            limit = (int) estimatedLimit;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+}
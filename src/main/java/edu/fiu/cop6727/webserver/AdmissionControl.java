@@ -0,0 +1,180 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load shedding in front of the handlers: what happens to a connection the worker queue cannot take, to work
+ * that waited in the queue past its deadline, and to requests over the adaptive concurrency limit. All three
+ * fail fast with {@code 503 Service Unavailable} and {@code Retry-After} rather than letting queues and
+ * latency grow without bound.
+ * <p>
+ * Per client address, the {@link ClientLimiter} caps open connections when they are accepted and the request
+ * rate before a request is routed; both answer {@code 429 Too Many Requests}, with a {@code Retry-After} for
+ * when the client's next request would be let through.
+ */
+final class AdmissionControl {
+    private final ServerConfig.OverloadPolicy policy;
+    private final String retryAfterSeconds;
+    private final long queueTimeoutNanos;
+    private final AdaptiveConcurrencyLimit limit;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+    /** Null when neither per-client limit is configured. */
+    private final ClientLimiter clients;
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder connectionsCapped = new LongAdder();
+
+    AdmissionControl(ServerConfig config) {
+        this.policy = config.getOverloadPolicy();
+        this.retryAfterSeconds = String.valueOf(Math.max(0, config.getRetryAfterSeconds()));
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.getQueueTimeoutMillis()));
+        this.limit = config.isAdaptiveLimitEnabled()
+                ? new AdaptiveConcurrencyLimit(config.getAdaptiveLimitMin(), config.getAdaptiveLimitMax(),
+                config.getAdaptiveLimitMin() * 4)
+                : null;
+        this.clients = ClientLimiter.create(config);
+    }
+
+    /**
+     * Admission control with every mechanism off, for handlers created outside {@link HttpServer}.
+     */
+    static AdmissionControl disabled() {
+        return new AdmissionControl(ServerConfig.builder().build());
+    }
+
+    void registerMetrics(ServerMetrics metrics) {
+        metrics.register("http_server_shed_queue_full_total", "counter",
+                "Connections or tasks turned away because the worker queue was full.", rejected::sum);
+        metrics.register("http_server_shed_queue_timeout_total", "counter",
+                "Connections or requests dropped after waiting in the queue past the deadline.", expired::sum);
+        metrics.register("http_server_shed_concurrency_limit_total", "counter",
+                "Requests shed by the adaptive concurrency limit.", limited::sum);
+        if (limit != null) {
+            metrics.register("http_server_concurrency_limit", "gauge",
+                    "Current adaptive concurrency limit.", limit::getLimit);
+            metrics.register("http_server_requests_in_flight", "gauge",
+                    "Requests counted against the adaptive concurrency limit.", limit::getInFlight);
+        }
+        if (clients != null) {
+            metrics.register("http_server_rate_limited_total", "counter",
+                    "Requests refused with 429 because the client exceeded its rate limit.", rateLimited::sum);
+            metrics.register("http_server_client_connections_capped_total", "counter",
+                    "Connections refused with 429 because the client had too many open.", connectionsCapped::sum);
+            metrics.register("http_server_rate_limit_clients", "gauge",
+                    "Client addresses tracked by the per-client limits.", clients::size);
+        }
+    }
+
+    /**
+     * Turns away a connection the worker pool refused, from the accept thread. The tiny response fits in the
+     * socket's send buffer, so this does not block the accept loop.
+     */
+    void rejectConnection(Socket socket, ServerLogger logger) {
+        rejected.increment();
+        try (socket) {
+            if (policy == ServerConfig.OverloadPolicy.RESPOND) {
+                overloadedResponse().write(socket.getOutputStream());
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to reject overloaded connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Counts a connection from {@code address} against its cap. Returns the client whose rate the
+     * connection's requests are charged to, to be {@link ClientLimiter.Client#release() released} when it
+     * closes, or null if the connection must be refused with {@link #rejectClient}.
+     */
+    ClientLimiter.Client admitConnection(InetAddress address) {
+        if (clients == null) {
+            return ClientLimiter.UNLIMITED;
+        }
+        ClientLimiter.Client client = clients.open(address);
+        if (client == null) {
+            connectionsCapped.increment();
+        }
+        return client;
+    }
+
+    /**
+     * Turns away a connection over its client's cap from the accept thread, like
+     * {@link #rejectConnection}.
+     */
+    void rejectClient(Socket socket, ServerLogger logger) {
+        try (socket) {
+            tooManyConnectionsResponse().write(socket.getOutputStream());
+        } catch (IOException e) {
+            logger.warn("Failed to reject connection over the per-client cap: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Charges one request to {@code client}. Returns null if it may be routed, otherwise the
+     * {@code 429} to send instead.
+     */
+    HttpResponse checkRate(ClientLimiter.Client client) {
+        long waitNanos = client.tryAcquire();
+        if (waitNanos == 0) {
+            return null;
+        }
+        rateLimited.increment();
+        HttpResponse response = HttpResponse.text(HttpStatus.TOO_MANY_REQUESTS, "Rate limit exceeded, retry later");
+        response.setHeader("retry-after", String.valueOf(Math.max(1, (waitNanos + 999_999_999) / 1_000_000_000)));
+        return response;
+    }
+
+    /**
+     * Counts a task the worker pool refused whose response the caller sends itself (NIO offload).
+     */
+    void taskRejected() {
+        rejected.increment();
+    }
+
+    /**
+     * True if work queued at {@code enqueuedNanos} waited longer than the queue deadline and should be
+     * answered with {@link #overloadedResponse()} instead of being processed.
+     */
+    boolean hasExpired(long enqueuedNanos) {
+        if (queueTimeoutNanos == 0 || System.nanoTime() - enqueuedNanos <= queueTimeoutNanos) {
+            return false;
+        }
+        expired.increment();
+        return true;
+    }
+
+    /**
+     * Claims a slot under the adaptive concurrency limit; always succeeds when the limit is off. Callers that
+     * get true must call {@link #release(long)} when the response is written.
+     */
+    boolean tryAcquire() {
+        if (limit == null || limit.tryAcquire()) {
+            return true;
+        }
+        limited.increment();
+        return false;
+    }
+
+    void release(long latencyNanos) {
+        if (limit != null) {
+            limit.release(latencyNanos);
+        }
+    }
+
+    HttpResponse tooManyConnectionsResponse() {
+        HttpResponse response = HttpResponse.text(HttpStatus.TOO_MANY_REQUESTS, "Too many open connections");
+        response.setHeader("retry-after", retryAfterSeconds);
+        response.setHeader("connection", "close");
+        return response;
+    }
+
+    HttpResponse overloadedResponse() {
+        HttpResponse response = HttpResponse.text(HttpStatus.SERVICE_UNAVAILABLE, "Server overloaded, retry later");
+        response.setHeader("retry-after", retryAfterSeconds);
+        return response;
+    }
+}
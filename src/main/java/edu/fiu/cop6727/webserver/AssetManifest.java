@@ -0,0 +1,158 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Immutable snapshot of the regular files under the document root, taken at startup to warm the caches.
+ * Directories are listed in parallel on a small fork/join pool, since the walk is bound by filesystem
+ * latency rather than CPU; MIME type and entity tag are derived on the same threads.
+ */
+final class AssetManifest {
+    private final List<Asset> assets;
+    private final long totalBytes;
+    private final long scanMillis;
+
+    private AssetManifest(List<Asset> assets, long scanMillis) {
+        this.assets = List.copyOf(assets);
+        this.totalBytes = assets.stream().mapToLong(Asset::size).sum();
+        this.scanMillis = scanMillis;
+    }
+
+    /**
+     * Walks {@code root} with up to {@code parallelism} threads. Symbolic links are not followed.
+     */
+    static AssetManifest scan(Path root, int parallelism) throws IOException {
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            List<Asset> assets = pool.invoke(new DirectoryScan(root, root));
+            assets.sort(Comparator.comparing(Asset::path));
+            return new AssetManifest(assets, (System.nanoTime() - start) / 1_000_000);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Assets ordered by request path.
+     */
+    List<Asset> assets() {
+        return assets;
+    }
+
+    long totalBytes() {
+        return totalBytes;
+    }
+
+    long scanMillis() {
+        return scanMillis;
+    }
+
+    /**
+     * One regular file: its request path relative to the document root ({@code css/style.css}) and the
+     * metadata a response needs.
+     */
+    static final class Asset {
+        private final String path;
+        private final Path file;
+        private final long size;
+        private final long lastModifiedMillis;
+        private final String mimeType;
+        private final String etag;
+
+        private Asset(String path, Path file, long size, long lastModifiedMillis) {
+            this.path = path;
+            this.file = file;
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.mimeType = MimeTypes.probe(file.toString());
+            this.etag = StaticFileCache.etag(size, lastModifiedMillis);
+        }
+
+        String path() {
+            return path;
+        }
+
+        Path file() {
+            return file;
+        }
+
+        long size() {
+            return size;
+        }
+
+        long lastModifiedMillis() {
+            return lastModifiedMillis;
+        }
+
+        String mimeType() {
+            return mimeType;
+        }
+
+        String etag() {
+            return etag;
+        }
+    }
+
+    /**
+     * Lists one directory, forking a subtask per subdirectory.
+     */
+    private static final class DirectoryScan extends RecursiveTask<List<Asset>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path root;
+        private final transient Path directory;
+
+        DirectoryScan(Path root, Path directory) {
+            this.root = root;
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<Asset> compute() {
+            List<Asset> assets = new ArrayList<>();
+            List<DirectoryScan> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                String separator = directory.getFileSystem().getSeparator();
+                for (Path child : children) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(child, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                    } catch (NoSuchFileException e) {
+                        continue; // removed while we were listing
+                    }
+                    if (attributes.isDirectory()) {
+                        DirectoryScan scan = new DirectoryScan(root, child);
+                        scan.fork();
+                        subdirectories.add(scan);
+                    } else if (attributes.isRegularFile()) {
+                        String path = root.relativize(child).toString().replace(separator, "/");
+                        assets.add(new Asset(path, child, attributes.size(),
+                                attributes.lastModifiedTime().toMillis()));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (DirectoryScan scan : subdirectories) {
+                assets.addAll(scan.join());
+            }
+            return assets;
+        }
+    }
+}
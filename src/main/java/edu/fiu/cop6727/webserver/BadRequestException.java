@@ -1,10 +1,22 @@
 package edu.fiu.cop6727.webserver;
 
 /**
- * Signals an HTTP 400 Bad Request condition while parsing input.
+ * Signals an HTTP 400 Bad Request condition while parsing input, or another 4xx status that rejects the
+ * request before it reaches a handler (e.g. 413 for an oversized body).
  */
 public class BadRequestException extends Exception {
+    private final HttpStatus status;
+
     public BadRequestException(String message) {
+        this(message, HttpStatus.BAD_REQUEST);
+    }
+
+    public BadRequestException(String message, HttpStatus status) {
         super(message);
+        this.status = status;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
     }
 }
@@ -0,0 +1,132 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * One slice of a response body: a range of an in-memory array, a region of a file, or bytes read from a
+ * stream while the response is written. Responses made of several slices (file downloads, byte ranges,
+ * multipart bodies, echoed uploads) are written segment by segment without first being copied into one
+ * buffer.
+ */
+final class BodySegment {
+    static final int STREAM_BUFFER_BYTES = 64 * 1024;
+
+    private final byte[] bytes;
+    private final Path file;
+    private final InputStream stream;
+    private final long offset;
+    private final long length;
+
+    private BodySegment(byte[] bytes, Path file, InputStream stream, long offset, long length) {
+        this.bytes = bytes;
+        this.file = file;
+        this.stream = stream;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    static BodySegment bytes(byte[] data) {
+        return new BodySegment(Objects.requireNonNull(data, "data"), null, null, 0, data.length);
+    }
+
+    static BodySegment bytes(byte[] data, int offset, int length) {
+        return new BodySegment(Objects.requireNonNull(data, "data"), null, null, offset, length);
+    }
+
+    static BodySegment file(Path file, long offset, long length) {
+        return new BodySegment(null, Objects.requireNonNull(file, "file"), null, offset, length);
+    }
+
+    /**
+     * Bytes read from {@code stream}, which is closed once written.
+     *
+     * @param length number of bytes the stream yields, or -1 to read it to the end; a response with a
+     *               segment of unknown length is delimited by closing the connection
+     */
+    static BodySegment stream(InputStream stream, long length) {
+        return new BodySegment(null, null, Objects.requireNonNull(stream, "stream"), 0, length);
+    }
+
+    boolean isFile() {
+        return file != null;
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    boolean isStream() {
+        return stream != null;
+    }
+
+    InputStream getStream() {
+        return stream;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Length in bytes, or -1 for a stream of unknown length.
+     */
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Copies a stream segment to {@code target} and closes the stream.
+     *
+     * @return number of bytes copied
+     */
+    long copyStreamTo(OutputStream target) throws IOException {
+        try (InputStream source = stream) {
+            byte[] buffer = new byte[STREAM_BUFFER_BYTES];
+            long copied = 0;
+            while (length < 0 || copied < length) {
+                int wanted = length < 0 ? buffer.length : (int) Math.min(buffer.length, length - copied);
+                int read = source.read(buffer, 0, wanted);
+                if (read < 0) {
+                    if (length >= 0) {
+                        throw new EOFException("Body stream ended " + (length - copied) + " bytes early");
+                    }
+                    break;
+                }
+                target.write(buffer, 0, read);
+                copied += read;
+            }
+            return copied;
+        }
+    }
+
+    /**
+     * Copies a file segment to {@code target} with {@link FileChannel#transferTo}, looping until done.
+     * Only valid for blocking targets.
+     */
+    void transferFileTo(WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = offset;
+            long remaining = length;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, target);
+                if (sent <= 0 && position >= channel.size()) {
+                    throw new IOException("File truncated while sending: " + file);
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+}
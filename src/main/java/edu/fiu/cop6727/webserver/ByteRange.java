@@ -0,0 +1,86 @@
+package edu.fiu.cop6727.webserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An inclusive byte range of a representation, parsed from a {@code Range: bytes=...} header.
+ */
+final class ByteRange {
+    /** Requests asking for more ranges than this are served in full rather than as multipart. */
+    static final int MAX_RANGES = 16;
+
+    private final long first;
+    private final long last;
+
+    ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    long first() {
+        return first;
+    }
+
+    long last() {
+        return last;
+    }
+
+    long length() {
+        return last - first + 1;
+    }
+
+    String toContentRange(long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+
+    /**
+     * Parses a Range header against a representation of {@code size} bytes.
+     *
+     * @return the satisfiable ranges in request order, an empty list if none is satisfiable (416), or null
+     *         if the header is malformed, uses another unit or asks for too many ranges and must be ignored
+     */
+    static List<ByteRange> parse(String header, long size) {
+        String value = header.trim();
+        if (!value.toLowerCase(Locale.ROOT).startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = value.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String rawSpec : specs) {
+            String spec = rawSpec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                if (dash == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && size > 0) {
+                        ranges.add(new ByteRange(Math.max(0, size - suffix), size - 1));
+                    }
+                    continue;
+                }
+                long first = Long.parseLong(spec.substring(0, dash));
+                String lastText = spec.substring(dash + 1);
+                long last = lastText.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastText);
+                if (first < 0 || last < first) {
+                    return null;
+                }
+                if (first < size) {
+                    ranges.add(new ByteRange(first, Math.min(last, size - 1)));
+                }
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+}
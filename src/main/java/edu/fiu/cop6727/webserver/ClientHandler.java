@@ -1,158 +1,457 @@
 package edu.fiu.cop6727.webserver;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * Runnable that manages a single client connection lifecycle.
+ * Runnable that manages a single client connection lifecycle, serving requests until the client
+ * closes the connection, asks for it to be closed, idles out, or reaches the per-connection limit.
+ * While an asynchronous response is pending the connection holds no thread; it runs again on the worker
+ * pool when the response completes. Request bodies are buffered or streamed to the handler as the route's
+ * {@link RequestBodyPolicy} asks. A client that opens with the HTTP/2 preface or upgrades with
+ * {@code Upgrade: h2c} is served by an {@link Http2Connection} on this thread from then on.
  */
 public final class ClientHandler implements Runnable {
-    private static final int MAX_HEADER_BYTES = 16 * 1024; // 16KB
-    private static final int MAX_BODY_BYTES = 1 * 1024 * 1024; // 1MB
+    private static final int READ_BUFFER_BYTES = 8 * 1024;
+    /** Most of a streamed body the handler left unread that is read and dropped to keep the connection. */
+    private static final long MAX_DISCARD_BYTES = 16L * 1024 * 1024;
 
     private final Socket socket;
     private final RequestRouter router;
     private final ServerLogger logger;
+    private final AccessLog accessLog;
+    private final ServerMetrics metrics;
+    private final AdmissionControl admission;
+    /** Address whose request rate and connection count this connection is charged to. */
+    private final ClientLimiter.Client client;
+    private final long enqueuedNanos = System.nanoTime();
     private final int socketTimeoutMillis;
+    private final KeepAlivePolicy keepAlivePolicy;
+    private final ExecutorService resumeExecutor;
+    /** Settings for connections that switch to HTTP/2, or null when h2c is disabled. */
+    private final ServerConfig http2Config;
+    private final HttpRequestParser parser = new HttpRequestParser();
+    private byte[] readBuffer = new byte[READ_BUFFER_BYTES];
+    private int readPosition;
+    private int readLimit;
+
+    // Connection state carried across suspensions; each run is handed over through the executor.
+    private boolean started;
+    private InputStream inputStream;
+    private OutputStream outputStream;
+    private String remote;
+    private int served;
+    private HttpRequest adoptedRequest;
+    /** Decoder of the streamed body of the current request, or null when its body was buffered. */
+    private RequestBodyDecoder streamedBody;
+    private HttpRequest suspendedRequest;
+    private HttpResponse completedResponse;
+    private long suspendedStartNanos;
+    private boolean suspendedAdmitted;
 
     public ClientHandler(Socket socket, RequestRouter router, ServerLogger logger, int socketTimeoutMillis) {
+        this(socket, router, logger, AccessLog.synchronous(logger), new ServerMetrics(), AdmissionControl.disabled(),
+                ClientLimiter.UNLIMITED, null, socketTimeoutMillis, new KeepAlivePolicy(0, 1), null);
+    }
+
+    /**
+     * Handler that waits for asynchronous responses on its own thread, for callers without a worker pool.
+     */
+    public ClientHandler(Socket socket, RequestRouter router, ServerLogger logger, ServerConfig config) {
+        this(socket, router, logger, AccessLog.synchronous(logger), new ServerMetrics(), new AdmissionControl(config),
+                ClientLimiter.UNLIMITED, null, config);
+    }
+
+    /**
+     * @param client taken over by the handler, which releases it when the connection closes
+     */
+    ClientHandler(Socket socket, RequestRouter router, ServerLogger logger, AccessLog accessLog,
+                  ServerMetrics metrics, AdmissionControl admission, ClientLimiter.Client client,
+                  ExecutorService resumeExecutor, ServerConfig config) {
+        this(socket, router, logger, accessLog, metrics, admission, client, resumeExecutor,
+                config.getSocketTimeoutMillis(), new KeepAlivePolicy(config), config.isH2cEnabled() ? config : null);
+    }
+
+    private ClientHandler(Socket socket, RequestRouter router, ServerLogger logger, AccessLog accessLog,
+                          ServerMetrics metrics, AdmissionControl admission, ClientLimiter.Client client,
+                          ExecutorService resumeExecutor, int socketTimeoutMillis, KeepAlivePolicy keepAlivePolicy,
+                          ServerConfig http2Config) {
         this.socket = socket;
         this.router = router;
         this.logger = logger;
+        this.accessLog = accessLog;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.client = client;
         this.socketTimeoutMillis = socketTimeoutMillis;
+        this.keepAlivePolicy = keepAlivePolicy;
+        this.resumeExecutor = resumeExecutor;
+        this.http2Config = http2Config;
+        metrics.connectionOpened();
+    }
+
+    /**
+     * Takes over a connection whose request head another engine has already parsed, e.g. one whose route
+     * streams the body, which the event loop cannot do without blocking. That engine has already charged
+     * {@code request} to the client's rate.
+     *
+     * @param buffered bytes received after the head
+     * @param served   requests already served on the connection, not counting {@code request}
+     */
+    ClientHandler adopt(HttpRequest request, byte[] buffered, int served) {
+        adoptedRequest = request;
+        if (buffered.length > readBuffer.length) {
+            readBuffer = new byte[buffered.length];
+        }
+        System.arraycopy(buffered, 0, readBuffer, 0, buffered.length);
+        readPosition = 0;
+        readLimit = buffered.length;
+        this.served = served;
+        return this;
     }
 
     @Override
     public void run() {
-        InputStream inputStream = null;
-        OutputStream outputStream = null;
+        boolean suspended = false;
         try {
-            socket.setSoTimeout(socketTimeoutMillis);
-            inputStream = new BufferedInputStream(socket.getInputStream());
-            outputStream = socket.getOutputStream();
-
-            HttpRequest request = parseRequest(inputStream);
-            HttpResponse response = router.route(request);
-            response.write(outputStream);
-            logger.info(request.getMethod() + " " + request.getPath() + " -> " + response.getStatus());
+            if (!started) {
+                started = true;
+                inputStream = socket.getInputStream();
+                outputStream = socket.getOutputStream();
+                if (admission.hasExpired(enqueuedNanos)) {
+                    // The client has probably given up already; answering now beats serving a stale request.
+                    HttpResponse response = admission.overloadedResponse();
+                    response.setHeader("connection", "close");
+                    response.write(outputStream);
+                    return;
+                }
+                remote = socket.getInetAddress().getHostAddress();
+                socket.setSoTimeout(socketTimeoutMillis);
+            }
+            suspended = serveRequests();
         } catch (BadRequestException e) {
             logger.warn("Bad request: " + e.getMessage());
-            respondWithError(HttpStatus.BAD_REQUEST, e.getMessage(), outputStream);
+            respondWithError(e.getStatus(), e.getMessage(), outputStream);
         } catch (IOException e) {
             logger.error("I/O error handling client", e);
         } finally {
-            closeQuietly(inputStream);
-            closeQuietly(outputStream);
-            closeQuietly(socket);
+            if (!suspended) {
+                close();
+            }
         }
     }
 
-    private void respondWithError(HttpStatus status, String message, OutputStream outputStream) {
-        if (outputStream == null) {
-            return;
+    /**
+     * Serves requests until the connection should close, returning false, or until a response is still
+     * pending, returning true. In that case this handler gives up its thread and is resubmitted to the worker
+     * pool once the response completes, so a waiting handler does not hold a worker.
+     */
+    private boolean serveRequests() throws IOException, BadRequestException {
+        boolean keepAlive = true;
+        if (suspendedRequest != null) {
+            HttpRequest request = suspendedRequest;
+            HttpResponse response = completedResponse;
+            suspendedRequest = null;
+            completedResponse = null;
+            keepAlive = finish(request, response, suspendedStartNanos, suspendedAdmitted);
         }
-        try {
-            HttpResponse response = HttpResponse.text(status, message == null ? status.reason() : message);
-            response.write(outputStream);
-        } catch (IOException ioException) {
-            logger.error("Failed to send error response", ioException);
+        while (keepAlive) {
+            HttpRequest request = adoptedRequest;
+            boolean charged = request != null;
+            adoptedRequest = null;
+            if (request == null) {
+                if (!awaitRequest(inputStream,
+                        served == 0 ? socketTimeoutMillis : keepAlivePolicy.getKeepAliveTimeoutMillis())) {
+                    break;
+                }
+                request = readRequest(inputStream);
+            }
+            if (switchesToHttp2(request)) {
+                serveHttp2(request);
+                return false;
+            }
+            long startNanos = System.nanoTime();
+            served++;
+            HttpResponse limited = charged ? null : admission.checkRate(client);
+            if (limited != null) {
+                if (request.hasBody()) {
+                    limited.setHeader("connection", "close"); // refused without reading the body
+                }
+                keepAlive = finish(request, limited, startNanos, false);
+                continue;
+            }
+            readBody(request);
+            boolean admitted = false;
+            CompletableFuture<HttpResponse> response;
+            if (router.isDelayed(request)) {
+                response = router.routeAsync(request);
+            } else if (admission.tryAcquire()) {
+                admitted = true;
+                response = router.routeAsync(request);
+            } else {
+                response = CompletableFuture.completedFuture(admission.overloadedResponse());
+            }
+            if (!response.isDone() && resumeExecutor != null) {
+                suspend(request, response, startNanos, admitted);
+                return true;
+            }
+            keepAlive = finish(request, response.join(), startNanos, admitted);
         }
+        return false;
     }
 
-    private HttpRequest parseRequest(InputStream inputStream) throws IOException, BadRequestException {
-        byte[] headerBytes = readHeaders(inputStream);
-        String headerText = new String(headerBytes, StandardCharsets.US_ASCII);
-        String[] lines = headerText.split("\r\n");
-        if (lines.length == 0 || lines[0].isBlank()) {
-            throw new BadRequestException("Empty request");
-        }
-        String[] parts = lines[0].split(" ");
-        if (parts.length < 3) {
-            throw new BadRequestException("Malformed request line");
-        }
-        String method = parts[0].trim();
-        String path = parts[1].trim();
-        String version = parts[2].trim();
+    private void suspend(HttpRequest request, CompletableFuture<HttpResponse> response, long startNanos,
+                         boolean admitted) {
+        suspendedRequest = request;
+        suspendedStartNanos = startNanos;
+        suspendedAdmitted = admitted;
+        response.thenAccept(completed -> {
+            completedResponse = completed;
+            try {
+                WorkerExecutors.resume(resumeExecutor, this);
+            } catch (RejectedExecutionException e) {
+                // Shutting down.
+                if (suspendedAdmitted) {
+                    admission.release(0);
+                }
+                close();
+            }
+        });
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        for (int i = 1; i < lines.length; i++) {
-            String line = lines[i];
-            if (line == null || line.isEmpty()) {
-                break;
+    /**
+     * Writes one response, records it and frees its concurrency slot; returns whether the connection stays
+     * open.
+     */
+    private boolean finish(HttpRequest request, HttpResponse response, long startNanos, boolean admitted)
+            throws IOException {
+        try {
+            response.applyFraming(request);
+            boolean keepAlive = keepAlivePolicy.shouldKeepAlive(request, response, served);
+            if (streamedBody != null && !(keepAlive && discardStreamedBody(request))) {
+                keepAlive = false; // the handler left more of the body unread than is worth reading
             }
-            int colonIndex = line.indexOf(':');
-            if (colonIndex <= 0) {
-                throw new BadRequestException("Malformed header line");
+            streamedBody = null;
+            keepAlivePolicy.apply(response, keepAlive, served);
+            long written = response.write(outputStream, socket.getChannel());
+            accessLog.log(remote, request, response.getStatusCode(), written, startNanos);
+            metrics.recordRequest(router.routeLabel(request), response.getStatusCode(),
+                    System.nanoTime() - startNanos, written);
+            return keepAlive;
+        } finally {
+            if (admitted) {
+                admission.release(System.nanoTime() - startNanos);
             }
-            String name = line.substring(0, colonIndex).trim();
-            String value = line.substring(colonIndex + 1).trim();
-            headers.set(name, value);
         }
+    }
 
-        int contentLength = 0;
-        String contentLengthHeader = headers.get("content-length");
-        if (contentLengthHeader != null) {
-            try {
-                contentLength = Integer.parseInt(contentLengthHeader);
-            } catch (NumberFormatException ex) {
-                throw new BadRequestException("Invalid Content-Length header");
+    /**
+     * Reads and drops whatever the handler left of the streamed body, so that the connection is positioned
+     * at the next request before the response announces keep-alive. Returns false, leaving the connection to
+     * be closed, when more than {@link #MAX_DISCARD_BYTES} remain or the body cannot be read to its end.
+     */
+    private boolean discardStreamedBody(HttpRequest request) {
+        RequestBodyDecoder decoder = streamedBody;
+        if (!request.isChunked() && request.getContentLength() - decoder.received() > MAX_DISCARD_BYTES) {
+            return false;
+        }
+        long limit = decoder.received() + MAX_DISCARD_BYTES;
+        InputStream body = new RequestBodyStream(decoder);
+        byte[] scratch = new byte[READ_BUFFER_BYTES];
+        try {
+            while (!decoder.isComplete() && decoder.received() < limit) {
+                if (body.read(scratch, 0, scratch.length) < 0) {
+                    break;
+                }
             }
+        } catch (IOException e) {
+            return false;
         }
-        if (contentLength < 0 || contentLength > MAX_BODY_BYTES) {
-            throw new BadRequestException("Payload too large");
+        return decoder.isComplete();
+    }
+
+    private boolean switchesToHttp2(HttpRequest request) {
+        return http2Config != null && (Http2Connection.isPreface(request) || Http2Connection.isUpgrade(request));
+    }
+
+    /**
+     * Serves the rest of the connection as HTTP/2, answering an upgrade request on stream 1.
+     */
+    private void serveHttp2(HttpRequest request) throws IOException {
+        HttpRequest upgraded = null;
+        if (!Http2Connection.isPreface(request)) {
+            outputStream.write(Http2Connection.SWITCHING_PROTOCOLS);
+            upgraded = request;
+        }
+        byte[] buffered = Arrays.copyOfRange(readBuffer, readPosition, readLimit);
+        readPosition = readLimit;
+        new Http2Connection(socket, buffered, inputStream, outputStream, router, logger, accessLog, metrics,
+                admission, client, resumeExecutor, remote, http2Config).serve(upgraded);
+    }
+
+    /**
+     * Blocks until bytes of the next request are available, either left over from a pipelined read or newly
+     * received. Returns false when the client closed the connection or stayed idle past
+     * {@code timeoutMillis}, both of which end the connection quietly.
+     */
+    private boolean awaitRequest(InputStream inputStream, int timeoutMillis) throws IOException {
+        if (readPosition < readLimit) {
+            return true;
+        }
+        socket.setSoTimeout(timeoutMillis);
+        try {
+            if (!fillBuffer(inputStream)) {
+                return false;
+            }
+        } catch (SocketTimeoutException e) {
+            return false;
         }
+        socket.setSoTimeout(socketTimeoutMillis);
+        return true;
+    }
 
-        byte[] body = new byte[contentLength];
-        int totalRead = 0;
-        while (totalRead < contentLength) {
-            int read = inputStream.read(body, totalRead, contentLength - totalRead);
-            if (read == -1) {
-                throw new BadRequestException("Unexpected end of stream while reading body");
+    private HttpRequest readRequest(InputStream inputStream) throws IOException, BadRequestException {
+        while (true) {
+            readPosition = parser.parse(readBuffer, readPosition, readLimit);
+            if (parser.isComplete()) {
+                return parser.takeRequest();
+            }
+            if (!fillBuffer(inputStream)) {
+                throw new BadRequestException("Unexpected end of stream");
             }
-            totalRead += read;
         }
-        return new HttpRequest(method, path, version, headers, body);
     }
 
-    private byte[] readHeaders(InputStream inputStream) throws IOException, BadRequestException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        int matched = 0;
+    /**
+     * Prepares the body of {@code request} under its route's policy: a buffered body is read completely, a
+     * streamed one is attached as a stream over this connection. A client waiting on
+     * {@code Expect: 100-continue} is told to go ahead only once the declared length has passed the limit.
+     */
+    private void readBody(HttpRequest request) throws IOException, BadRequestException {
+        boolean expectsContinue = request.expectsContinue();
+        RequestBodyPolicy policy = router.bodyPolicy(request);
+        RequestBodyDecoder decoder = RequestBodyDecoder.forRequest(request, policy.getMaxBytes());
+        if (decoder == null) {
+            return;
+        }
+        if (expectsContinue) {
+            outputStream.write(HttpResponse.CONTINUE);
+            outputStream.flush();
+        }
+        if (policy.isStreaming()) {
+            streamedBody = decoder;
+            request.attachBodyStream(new RequestBodyStream(decoder));
+            return;
+        }
+        long declared = request.getContentLength();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(
+                declared > 0 ? (int) Math.min(declared, READ_BUFFER_BYTES) : 256);
         while (true) {
-            int value = inputStream.read();
-            if (value == -1) {
+            readPosition = decoder.decodeInto(readBuffer, readPosition, readLimit, body);
+            if (decoder.isComplete()) {
+                break;
+            }
+            if (!fillBuffer(inputStream)) {
                 throw new BadRequestException("Unexpected end of stream");
             }
-            buffer.write(value);
-            if (buffer.size() > MAX_HEADER_BYTES) {
-                throw new BadRequestException("Headers too large");
-            }
-            switch (matched) {
-                case 0 -> matched = value == '\r' ? 1 : 0;
-                case 1 -> matched = value == '\n' ? 2 : (value == '\r' ? 1 : 0);
-                case 2 -> matched = value == '\r' ? 3 : 0;
-                case 3 -> {
-                    if (value == '\n') {
-                        byte[] headerBytes = buffer.toByteArray();
-                        // Remove the trailing CRLFCRLF sequence.
-                        if (headerBytes.length >= 4) {
-                            byte[] trimmed = new byte[headerBytes.length - 4];
-                            System.arraycopy(headerBytes, 0, trimmed, 0, trimmed.length);
-                            return trimmed;
+        }
+        request.attachBody(body.toByteArray());
+    }
+
+    /**
+     * Reads the next chunk into the (fully consumed) buffer; the parser keeps any partial line itself.
+     */
+    private boolean fillBuffer(InputStream inputStream) throws IOException {
+        int read = inputStream.read(readBuffer, 0, readBuffer.length);
+        readPosition = 0;
+        readLimit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    /**
+     * Body of the current request read on demand from the connection. Bytes already buffered after the head
+     * are served first; after that large reads go straight from the socket into the caller's array.
+     */
+    private final class RequestBodyStream extends InputStream {
+        private final RequestBodyDecoder decoder;
+
+        RequestBodyStream(RequestBodyDecoder decoder) {
+            this.decoder = decoder;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            try {
+                while (true) {
+                    readPosition = decoder.skipFraming(readBuffer, readPosition, readLimit);
+                    if (decoder.isComplete()) {
+                        return -1;
+                    }
+                    long available = Math.min(decoder.available(), length);
+                    int count = (int) Math.min(available, readLimit - readPosition);
+                    if (count > 0) {
+                        System.arraycopy(readBuffer, readPosition, target, offset, count);
+                        readPosition += count;
+                        decoder.consume(count);
+                        return count;
+                    }
+                    if (available > 0) {
+                        int read = inputStream.read(target, offset, (int) available);
+                        if (read < 0) {
+                            throw new EOFException("Unexpected end of request body");
                         }
-                        return headerBytes;
+                        decoder.consume(read);
+                        return read;
+                    }
+                    if (!fillBuffer(inputStream)) {
+                        throw new EOFException("Unexpected end of request body");
                     }
-                    matched = value == '\r' ? 1 : 0;
                 }
-                default -> matched = 0;
+            } catch (BadRequestException e) {
+                throw new IOException(e.getMessage(), e);
             }
         }
     }
 
+    private void respondWithError(HttpStatus status, String message, OutputStream outputStream) {
+        if (outputStream == null) {
+            return;
+        }
+        try {
+            HttpResponse response = HttpResponse.text(status, message == null ? status.reason() : message);
+            response.setHeader("connection", "close");
+            response.write(outputStream);
+        } catch (IOException ioException) {
+            logger.error("Failed to send error response", ioException);
+        }
+    }
+
+    private void close() {
+        closeQuietly(inputStream);
+        closeQuietly(outputStream);
+        closeQuietly(socket);
+        metrics.connectionClosed();
+        client.release();
+    }
+
     private void closeQuietly(AutoCloseable closeable) {
         if (closeable == null) {
             return;
@@ -0,0 +1,162 @@
+package edu.fiu.cop6727.webserver;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request rate limit and connection cap per client address. Each address's token bucket is kept as the
+ * theoretical arrival time of the generic cell rate algorithm: one {@link AtomicLong} that a request moves
+ * forward by the emission interval, so a check is a read and a compare-and-set without a lock or a refill
+ * timer. Entries are spread over independent maps so that acceptors and event loops rarely touch the same
+ * one, and a map at a time is swept for addresses idle for a minute with no open connection, which keeps
+ * memory proportional to the clients seen recently rather than to every address ever seen.
+ */
+final class ClientLimiter {
+    private static final int SHARDS = 16;
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** Connection count of an entry removed by the sweeper; it can no longer be claimed. */
+    private static final int RETIRED = Integer.MIN_VALUE;
+
+    /**
+     * Client that is never limited, for connections accepted while limiting is off.
+     */
+    static final Client UNLIMITED = new Client(null, 0);
+
+    /** Time between requests at the sustained rate; 0 when only connections are capped. */
+    private final long intervalNanos;
+    /** How far ahead of now the arrival time may run, i.e. the burst beyond the first request. */
+    private final long toleranceNanos;
+    private final int maxConnections;
+    private final List<Map<InetAddress, Client>> shards = new ArrayList<>(SHARDS);
+    private final AtomicLong nextSweepNanos = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+    private final AtomicInteger sweepCursor = new AtomicInteger();
+
+    ClientLimiter(int requestsPerSecond, int burst, int maxConnections) {
+        this.intervalNanos = requestsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / requestsPerSecond : 0;
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.maxConnections = Math.max(0, maxConnections);
+        for (int i = 0; i < SHARDS; i++) {
+            shards.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Limiter for the configured limits, or null when both are off.
+     */
+    static ClientLimiter create(ServerConfig config) {
+        if (config.getRateLimitPerSecond() <= 0 && config.getMaxConnectionsPerClient() <= 0) {
+            return null;
+        }
+        return new ClientLimiter(config.getRateLimitPerSecond(), config.getRateLimitBurst(),
+                config.getMaxConnectionsPerClient());
+    }
+
+    /**
+     * Counts a new connection from {@code address}, returning the client to charge its requests to and to
+     * {@link Client#release() release} when it closes, or null if the address is at its connection cap.
+     */
+    Client open(InetAddress address) {
+        sweepIfDue();
+        Map<InetAddress, Client> shard = shardFor(address);
+        while (true) {
+            Client client = shard.get(address);
+            if (client == null) {
+                client = shard.computeIfAbsent(address, key -> new Client(this, System.nanoTime()));
+            }
+            int connections = client.connections.get();
+            if (connections == RETIRED) {
+                shard.remove(address, client);
+            } else if (maxConnections > 0 && connections >= maxConnections) {
+                return null;
+            } else if (client.connections.compareAndSet(connections, connections + 1)) {
+                return client;
+            }
+        }
+    }
+
+    /**
+     * Addresses currently tracked.
+     */
+    int size() {
+        int size = 0;
+        for (Map<InetAddress, Client> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private Map<InetAddress, Client> shardFor(InetAddress address) {
+        int hash = address.hashCode();
+        return shards.get((hash ^ (hash >>> 16)) & (SHARDS - 1));
+    }
+
+    /**
+     * Sweeps the next map if a sweep interval has passed, on whichever thread gets there first. An entry is
+     * only removed once retired, so a connection racing with the sweep either claims it or creates a new one.
+     */
+    private void sweepIfDue() {
+        long now = System.nanoTime();
+        long due = nextSweepNanos.get();
+        if (now - due < 0 || !nextSweepNanos.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) {
+            return;
+        }
+        Map<InetAddress, Client> shard = shards.get(sweepCursor.getAndIncrement() & (SHARDS - 1));
+        for (Map.Entry<InetAddress, Client> entry : shard.entrySet()) {
+            Client client = entry.getValue();
+            if (now - client.arrival.get() >= IDLE_NANOS && client.connections.compareAndSet(0, RETIRED)) {
+                shard.remove(entry.getKey(), client);
+            }
+        }
+    }
+
+    /**
+     * One client address: its bucket and its open connections.
+     */
+    static final class Client {
+        private final ClientLimiter limiter;
+        private final AtomicLong arrival;
+        private final AtomicInteger connections = new AtomicInteger();
+
+        private Client(ClientLimiter limiter, long nowNanos) {
+            this.limiter = limiter;
+            this.arrival = new AtomicLong(nowNanos);
+        }
+
+        /**
+         * Takes a token for one request. Returns 0 if the request may proceed, otherwise how many nanoseconds
+         * until the next token; a refused request takes nothing.
+         */
+        long tryAcquire() {
+            if (limiter == null || limiter.intervalNanos == 0) {
+                return 0;
+            }
+            while (true) {
+                long now = System.nanoTime();
+                long current = arrival.get();
+                long ahead = Math.max(0, current - now);
+                if (ahead > limiter.toleranceNanos) {
+                    return ahead - limiter.toleranceNanos;
+                }
+                if (arrival.compareAndSet(current, now + ahead + limiter.intervalNanos)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * Gives back the connection counted by {@link ClientLimiter#open}.
+         */
+        void release() {
+            if (limiter != null) {
+                connections.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Accept-Encoding negotiation and gzip/deflate encoding of response bodies.
+ */
+final class ContentEncoding {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Picks the preferred coding the client accepts, favouring gzip on ties, or null for identity.
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double wildcard = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = parseQuality(parts);
+            switch (coding) {
+                case GZIP, "x-gzip" -> gzip = Math.max(gzip, quality);
+                case DEFLATE -> deflate = Math.max(deflate, quality);
+                case "*" -> wildcard = quality;
+                default -> {
+                }
+            }
+        }
+        if (gzip < 0) {
+            gzip = wildcard;
+        }
+        if (deflate < 0) {
+            deflate = wildcard;
+        }
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    static byte[] encode(byte[] data, String encoding) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, data.length / 3));
+        try (OutputStream out = GZIP.equals(encoding)
+                ? new BestGzipOutputStream(buffer)
+                : new DeflaterOutputStream(buffer, new Deflater(Deflater.BEST_COMPRESSION))) {
+            out.write(data);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static double parseQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Variants are compressed once and served many times, so spend the extra CPU on the best ratio.
+     */
+    private static final class BestGzipOutputStream extends GZIPOutputStream {
+        BestGzipOutputStream(OutputStream out) throws IOException {
+            super(out);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Serves the requests of one route registered in a {@link RouteTable}. Handlers run on an event loop or a
+ * worker thread and must not block; one that has to wait returns an incomplete future and completes it later.
+ */
+@FunctionalInterface
+public interface Handler {
+    /**
+     * @param pathParameters values of the route's {@code {name}} segments, and of a trailing {@code *} under
+     *                       the key {@code "*"}; empty for routes without parameters
+     */
+    CompletableFuture<HttpResponse> handle(HttpRequest request, Map<String, String> pathParameters)
+            throws IOException;
+}
@@ -0,0 +1,419 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HPACK header compression (RFC 7541) for {@link Http2Connection}. Each connection owns one {@link Decoder}
+ * for request headers and one {@link Encoder} for responses, because the dynamic tables on either side of a
+ * connection evolve independently. The decoder understands every representation, including Huffman-coded
+ * strings; the encoder indexes through the static and dynamic tables and writes raw literals, keeping
+ * per-response values such as {@code date} and {@code content-length} out of the dynamic table.
+ */
+final class Hpack {
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /** Per-entry overhead counted against the table size (RFC 7541 section 4.1). */
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+            {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+            {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+            {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""},
+            {"accept", ""}, {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""},
+            {"authorization", ""}, {"cache-control", ""}, {"content-disposition", ""},
+            {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+            {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+            {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""},
+            {"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+            {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""}, {"location", ""},
+            {"max-forwards", ""}, {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""},
+            {"referer", ""}, {"refresh", ""}, {"retry-after", ""}, {"server", ""}, {"set-cookie", ""},
+            {"strict-transport-security", ""}, {"transfer-encoding", ""}, {"user-agent", ""},
+            {"vary", ""}, {"via", ""}, {"www-authenticate", ""}
+    };
+
+    /** First static index for each name, and the index of each exact name/value pair. */
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    /**
+     * Huffman code lengths for symbols 0-255 and EOS (RFC 7541 Appendix B). The code is canonical, so the
+     * codes themselves follow from the lengths.
+     */
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, 26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+    private static final int EOS = 256;
+
+    /** Decoding trie: {@code [node * 2 + bit]} holds a child node, or {@code -(symbol + 1)} for a leaf. */
+    private static final int[] HUFFMAN_TREE = new int[2 * HUFFMAN_LENGTHS.length];
+
+    /** Response fields that change on every response, so indexing them would only churn the table. */
+    private static final Set<String> UNINDEXED = Set.of("date", "content-length", "etag", "last-modified",
+            "content-range", "set-cookie", "age", "expires");
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+        }
+        buildHuffmanTree();
+    }
+
+    private Hpack() {
+    }
+
+    private static void buildHuffmanTree() {
+        Integer[] symbols = new Integer[HUFFMAN_LENGTHS.length];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = i;
+        }
+        Arrays.sort(symbols, (a, b) -> HUFFMAN_LENGTHS[a] != HUFFMAN_LENGTHS[b]
+                ? HUFFMAN_LENGTHS[a] - HUFFMAN_LENGTHS[b] : a - b);
+        int nodes = 1;
+        long code = -1;
+        int previousLength = HUFFMAN_LENGTHS[symbols[0]];
+        for (int symbol : symbols) {
+            int length = HUFFMAN_LENGTHS[symbol];
+            code = (code + 1) << (length - previousLength);
+            previousLength = length;
+            int node = 0;
+            for (int bit = length - 1; bit > 0; bit--) {
+                int slot = node * 2 + (int) ((code >>> bit) & 1);
+                if (HUFFMAN_TREE[slot] == 0) {
+                    HUFFMAN_TREE[slot] = nodes++;
+                }
+                node = HUFFMAN_TREE[slot];
+            }
+            HUFFMAN_TREE[node * 2 + (int) (code & 1)] = -(symbol + 1);
+        }
+    }
+
+    /**
+     * Decodes header blocks from one peer. Not thread-safe; blocks must be decoded in the order they arrive
+     * on the connection.
+     */
+    static final class Decoder {
+        private final DynamicTable table;
+        private final int maxTableSizeLimit;
+
+        Decoder(int maxTableSize) {
+            this.table = new DynamicTable(maxTableSize);
+            this.maxTableSizeLimit = maxTableSize;
+        }
+
+        /**
+         * Decodes a complete header block into name/value pairs in wire order.
+         *
+         * @throws Http2Exception with {@code COMPRESSION_ERROR}; the connection cannot continue after one
+         */
+        List<String[]> decode(byte[] block, int offset, int length) throws Http2Exception {
+            List<String[]> fields = new ArrayList<>();
+            int[] position = {offset};
+            int limit = offset + length;
+            boolean fieldSeen = false;
+            while (position[0] < limit) {
+                int b = block[position[0]] & 0xFF;
+                if ((b & 0x80) != 0) {
+                    fields.add(field(readInteger(block, position, limit, 7)));
+                } else if ((b & 0xC0) == 0x40) {
+                    String[] field = literal(block, position, limit, 6);
+                    table.add(field[0], field[1]);
+                    fields.add(field);
+                } else if ((b & 0xE0) == 0x20) {
+                    if (fieldSeen) {
+                        throw compressionError("Table size update after a header field");
+                    }
+                    int size = readInteger(block, position, limit, 5);
+                    if (size > maxTableSizeLimit) {
+                        throw compressionError("Table size update above the advertised limit");
+                    }
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    fields.add(literal(block, position, limit, 4)); // without indexing or never indexed
+                }
+                fieldSeen = true;
+            }
+            return fields;
+        }
+
+        private String[] literal(byte[] block, int[] position, int limit, int prefixBits) throws Http2Exception {
+            int index = readInteger(block, position, limit, prefixBits);
+            String name = index == 0 ? readString(block, position, limit) : field(index)[0];
+            return new String[] {name, readString(block, position, limit)};
+        }
+
+        private String[] field(int index) throws Http2Exception {
+            if (index <= 0) {
+                throw compressionError("Invalid header index 0");
+            }
+            if (index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            String[] entry = table.get(index - STATIC_TABLE.length);
+            if (entry == null) {
+                throw compressionError("Header index out of range: " + index);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Encodes header blocks for one peer. Not thread-safe; blocks must be written to the connection in the
+     * order they are encoded.
+     */
+    static final class Encoder {
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        private int pendingSizeUpdate = -1;
+
+        /**
+         * Applies the peer's {@code SETTINGS_HEADER_TABLE_SIZE}; the change is signalled at the start of the
+         * next block.
+         */
+        void setMaxTableSize(int size) {
+            int effective = Math.min(size, DEFAULT_TABLE_SIZE);
+            if (effective != table.maxSize) {
+                table.setMaxSize(effective);
+                pendingSizeUpdate = pendingSizeUpdate < 0 ? effective : Math.min(pendingSizeUpdate, effective);
+            }
+        }
+
+        /**
+         * Starts a new header block, emitting any pending table size update.
+         */
+        void beginBlock(ByteArrayOutputStream out) {
+            if (pendingSizeUpdate >= 0) {
+                writeInteger(out, 0x20, 5, pendingSizeUpdate);
+                pendingSizeUpdate = -1;
+            }
+        }
+
+        /**
+         * Appends one field; {@code name} must already be lower case.
+         */
+        void encode(ByteArrayOutputStream out, String name, String value) {
+            Integer exact = STATIC_FIELDS.get(name + '\0' + value);
+            if (exact != null) {
+                writeInteger(out, 0x80, 7, exact);
+                return;
+            }
+            int dynamic = table.indexOf(name, value);
+            if (dynamic > 0) {
+                writeInteger(out, 0x80, 7, STATIC_TABLE.length + dynamic);
+                return;
+            }
+            Integer nameIndex = STATIC_NAMES.get(name);
+            int index = nameIndex != null ? nameIndex : 0;
+            if (index == 0) {
+                int dynamicName = table.indexOfName(name);
+                index = dynamicName > 0 ? STATIC_TABLE.length + dynamicName : 0;
+            }
+            boolean indexed = !UNINDEXED.contains(name);
+            if (indexed) {
+                writeInteger(out, 0x40, 6, index);
+            } else {
+                writeInteger(out, 0x00, 4, index);
+            }
+            if (index == 0) {
+                writeString(out, name);
+            }
+            writeString(out, value);
+            if (indexed) {
+                table.add(name, value);
+            }
+        }
+    }
+
+    /**
+     * Entries newest first, as HPACK numbers them, evicted oldest first when the size limit is reached.
+     */
+    private static final class DynamicTable {
+        private final ArrayDeque<String[]> entries = new ArrayDeque<>();
+        private int size;
+        private int maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Entry at 1-based dynamic {@code index}, or null.
+         */
+        String[] get(int index) {
+            if (index > entries.size()) {
+                return null;
+            }
+            Iterator<String[]> iterator = entries.iterator();
+            String[] entry = null;
+            for (int i = 0; i < index; i++) {
+                entry = iterator.next();
+            }
+            return entry;
+        }
+
+        int indexOf(String name, String value) {
+            int index = 1;
+            for (String[] entry : entries) {
+                if (entry[0].equals(name) && entry[1].equals(value)) {
+                    return index;
+                }
+                index++;
+            }
+            return 0;
+        }
+
+        int indexOfName(String name) {
+            int index = 1;
+            for (String[] entry : entries) {
+                if (entry[0].equals(name)) {
+                    return index;
+                }
+                index++;
+            }
+            return 0;
+        }
+
+        void add(String name, String value) {
+            int entrySize = entrySize(name, value);
+            if (entrySize > maxSize) {
+                entries.clear();
+                size = 0;
+                return;
+            }
+            evict(maxSize - entrySize);
+            entries.addFirst(new String[] {name, value});
+            size += entrySize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(maxSize);
+        }
+
+        private void evict(int target) {
+            while (size > target) {
+                String[] oldest = entries.removeLast();
+                size -= entrySize(oldest[0], oldest[1]);
+            }
+        }
+
+        private static int entrySize(String name, String value) {
+            return name.length() + value.length() + ENTRY_OVERHEAD;
+        }
+    }
+
+    static int readInteger(byte[] data, int[] position, int limit, int prefixBits) throws Http2Exception {
+        int mask = (1 << prefixBits) - 1;
+        int value = data[position[0]++] & mask;
+        if (value < mask) {
+            return value;
+        }
+        for (int shift = 0; ; shift += 7) {
+            if (position[0] >= limit) {
+                throw compressionError("Truncated integer");
+            }
+            if (shift > 21) {
+                throw compressionError("Integer too large");
+            }
+            int b = data[position[0]++] & 0xFF;
+            value += (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    static void writeInteger(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static String readString(byte[] data, int[] position, int limit) throws Http2Exception {
+        if (position[0] >= limit) {
+            throw compressionError("Truncated string");
+        }
+        boolean huffman = (data[position[0]] & 0x80) != 0;
+        int length = readInteger(data, position, limit, 7);
+        if (length > limit - position[0]) {
+            throw compressionError("Truncated string");
+        }
+        int start = position[0];
+        position[0] += length;
+        if (!huffman) {
+            return new String(data, start, length, StandardCharsets.ISO_8859_1);
+        }
+        return huffmanDecode(data, start, length);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        writeInteger(out, 0x00, 7, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String huffmanDecode(byte[] data, int offset, int length) throws Http2Exception {
+        StringBuilder decoded = new StringBuilder(length * 8 / 5);
+        int node = 0;
+        int pendingBits = 0;
+        boolean allOnes = true;
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xFF;
+            for (int shift = 7; shift >= 0; shift--) {
+                int bit = (b >>> shift) & 1;
+                int next = HUFFMAN_TREE[node * 2 + bit];
+                if (next < 0) {
+                    int symbol = -next - 1;
+                    if (symbol == EOS) {
+                        throw compressionError("EOS in Huffman string");
+                    }
+                    decoded.append((char) symbol);
+                    node = 0;
+                    pendingBits = 0;
+                    allOnes = true;
+                } else {
+                    node = next;
+                    pendingBits++;
+                    allOnes &= bit == 1;
+                }
+            }
+        }
+        if (pendingBits > 7 || !allOnes) {
+            throw compressionError("Invalid Huffman padding");
+        }
+        return decoded.toString();
+    }
+
+    private static Http2Exception compressionError(String message) {
+        return new Http2Exception(Http2Exception.COMPRESSION_ERROR, message);
+    }
+}
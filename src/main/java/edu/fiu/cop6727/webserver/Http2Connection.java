@@ -0,0 +1,1600 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One cleartext HTTP/2 connection (RFC 9113), taken over by {@link ClientHandler} once a client has sent the
+ * connection preface or upgraded with {@code Upgrade: h2c}. Requests arrive as streams multiplexed over the
+ * connection and each is routed through the same {@link RequestRouter} as HTTP/1.x as soon as it is complete,
+ * so a slow response never holds up the ones behind it.
+ * <p>
+ * The thread that calls {@link #serve} reads frames. Frames are written by whichever thread makes progress
+ * possible, be it the reader, a completing handler or a {@link ResponseBodyWriter}, one thread at a time: it
+ * interleaves DATA frames of all ready streams round-robin, within both the connection's and each stream's
+ * flow-control window. Request bodies are buffered up to the route's limit, except on streaming routes: those
+ * are handed to the handler as they arrive, with the same limit as over HTTP/1.x, and the stream's window is
+ * only reopened as the handler reads. Generated bodies pass through a small per-stream queue, so a client that
+ * stops reading one stream stalls only that stream's writer.
+ */
+final class Http2Connection {
+    /** Response that accepts {@code Upgrade: h2c}; the server preface follows immediately. */
+    static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\nUpgrade: h2c\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    /** The part of the preface left once {@link HttpRequestParser} has taken {@code PRI * HTTP/2.0} as a head. */
+    private static final int PREFACE_TAIL_BYTES = 6;
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int FRAME_HEADER_BYTES = 9;
+    private static final int DEFAULT_WINDOW = 65_535;
+    private static final int MAX_WINDOW = Integer.MAX_VALUE;
+    /** Frame size we accept; the protocol default, so it is never advertised. */
+    private static final int MAX_FRAME_BYTES = 16_384;
+    /** Receive window per stream and for the connection, topped up once half of it is used. */
+    private static final int RECEIVE_WINDOW = 1024 * 1024;
+    private static final int MAX_HEADER_BLOCK_BYTES = 64 * 1024;
+    /** Bytes gathered before the writer goes to the socket, so control frames are never stuck behind a body. */
+    private static final int WRITE_BATCH_BYTES = 64 * 1024;
+    /** Most of a declined request body read and dropped rather than refused with RST_STREAM. */
+    private static final long MAX_DISCARD_BYTES = 16L * 1024 * 1024;
+    /** Chunks a body writer may run ahead of the client before it blocks. */
+    private static final int PRODUCED_CHUNKS = 4;
+
+    /** Fields that only make sense on a single HTTP/1.1 hop and must not appear in HTTP/2 (RFC 9113 8.2.2). */
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection",
+            "transfer-encoding", "upgrade");
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final OutputStream output;
+    private final RequestRouter router;
+    private final ServerLogger logger;
+    private final AccessLog accessLog;
+    private final ServerMetrics metrics;
+    private final AdmissionControl admission;
+    private final ClientLimiter.Client client;
+    private final ExecutorService resumeExecutor;
+    private final String remote;
+    private final int maxConcurrentStreams;
+    private final long maxBodyBytes;
+    private final int idleTimeoutMillis;
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+
+    // Everything below is guarded by lock.
+    private final Object lock = new Object();
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private final ArrayDeque<byte[]> controlFrames = new ArrayDeque<>();
+    private final ArrayDeque<Stream> ready = new ArrayDeque<>();
+    private final List<Stream> finished = new ArrayList<>();
+    private int lastStreamId;
+    private long connectionSendWindow = DEFAULT_WINDOW;
+    private int connectionReceiveWindow = DEFAULT_WINDOW;
+    private int peerInitialWindow = DEFAULT_WINDOW;
+    private int peerMaxFrameSize = MAX_FRAME_BYTES;
+    private boolean writing;
+    private boolean closed;
+
+    /** Frames gathered by the current writer; only touched by the thread that set {@link #writing}. */
+    private byte[] batch = new byte[WRITE_BATCH_BYTES + FRAME_HEADER_BYTES + MAX_FRAME_BYTES];
+
+    // Header block being assembled from HEADERS and CONTINUATION frames; reader thread only.
+    private int continuationStreamId;
+    private boolean continuationEndStream;
+    private ByteArrayOutputStream headerBlock;
+
+    /**
+     * @param buffered bytes already read from {@code socket} after the request head that switched protocols
+     */
+    Http2Connection(Socket socket, byte[] buffered, InputStream socketInput, OutputStream output,
+                    RequestRouter router, ServerLogger logger, AccessLog accessLog, ServerMetrics metrics,
+                    AdmissionControl admission, ClientLimiter.Client client, ExecutorService resumeExecutor,
+                    String remote, ServerConfig config) {
+        this.socket = socket;
+        this.input = new DataInputStream(new BufferedInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(buffered), socketInput), MAX_FRAME_BYTES));
+        this.output = output;
+        this.router = router;
+        this.logger = logger;
+        this.accessLog = accessLog;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.client = client;
+        this.resumeExecutor = resumeExecutor;
+        this.remote = remote;
+        this.maxConcurrentStreams = Math.max(1, config.getH2MaxConcurrentStreams());
+        this.maxBodyBytes = config.getMaxBodyBytes();
+        this.idleTimeoutMillis = Math.max(1, config.getKeepAliveTimeoutMillis());
+    }
+
+    /**
+     * Whether {@code request} is the start of the HTTP/2 connection preface, sent by clients with prior
+     * knowledge that the server speaks HTTP/2.
+     */
+    static boolean isPreface(HttpRequest request) {
+        return "PRI".equals(request.getMethod()) && "*".equals(request.getPath())
+                && "HTTP/2.0".equals(request.getHttpVersion());
+    }
+
+    /**
+     * Whether {@code request} asks to continue the connection in HTTP/2 and can be answered on stream 1.
+     * Requests with a body are served over HTTP/1.1 instead, which RFC 9113 leaves to the server.
+     */
+    static boolean isUpgrade(HttpRequest request) {
+        if (!"HTTP/1.1".equals(request.getHttpVersion()) || request.hasBody()) {
+            return false;
+        }
+        String upgrade = request.getHeaders().get("upgrade");
+        String connection = request.getHeaders().get("connection");
+        if (upgrade == null || connection == null || !hasToken(upgrade, "h2c")
+                || !hasToken(connection, "upgrade") || !hasToken(connection, "http2-settings")) {
+            return false;
+        }
+        return upgradeSettings(request) != null;
+    }
+
+    /**
+     * Serves the connection until the client leaves, it idles out, or a connection error occurs.
+     *
+     * @param upgraded request that carried {@code Upgrade: h2c}, already answered with
+     *                 {@link #SWITCHING_PROTOCOLS}; null when the client sent the preface directly
+     */
+    void serve(HttpRequest upgraded) throws IOException {
+        try {
+            socket.setSoTimeout(idleTimeoutMillis);
+            synchronized (lock) {
+                if (upgraded != null) {
+                    applySettings(upgradeSettings(upgraded), 0);
+                }
+                controlFrames.add(frame(SETTINGS, 0, 0, settingsPayload()));
+                controlFrames.add(windowUpdate(0, RECEIVE_WINDOW - DEFAULT_WINDOW));
+                connectionReceiveWindow = RECEIVE_WINDOW;
+            }
+            if (upgraded != null) {
+                openUpgradedStream(upgraded);
+            }
+            flushFrames();
+            readPreface(upgraded == null ? PREFACE.length - PREFACE_TAIL_BYTES : 0);
+            readFrames();
+        } catch (Http2Exception e) {
+            logger.warn("HTTP/2 connection error: " + e.getMessage());
+            goAway(e.getErrorCode());
+        } catch (SocketTimeoutException | EOFException | SocketException | ClosedChannelException e) {
+            // Client went away mid-frame, or the writer found the connection broken and closed it.
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void readPreface(int offset) throws IOException {
+        byte[] received = new byte[PREFACE.length - offset];
+        input.readFully(received);
+        if (!Arrays.equals(received, 0, received.length, PREFACE, offset, PREFACE.length)) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid connection preface");
+        }
+    }
+
+    private void readFrames() throws IOException {
+        byte[] header = new byte[FRAME_HEADER_BYTES];
+        boolean first = true;
+        while (true) {
+            int firstByte;
+            try {
+                firstByte = input.read();
+            } catch (SocketTimeoutException e) {
+                if (isIdle()) {
+                    goAway(Http2Exception.NO_ERROR);
+                    return;
+                }
+                continue;
+            }
+            if (firstByte < 0) {
+                return;
+            }
+            header[0] = (byte) firstByte;
+            input.readFully(header, 1, FRAME_HEADER_BYTES - 1);
+            int length = (firstByte << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+            int type = header[3] & 0xFF;
+            int flags = header[4] & 0xFF;
+            int streamId = readInt(header, 5) & 0x7FFFFFFF;
+            if (length > MAX_FRAME_BYTES) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+            }
+            byte[] payload = new byte[length];
+            input.readFully(payload);
+            if (first && (type != SETTINGS || (flags & FLAG_ACK) != 0)) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Preface must be followed by SETTINGS");
+            }
+            first = false;
+            if (continuationStreamId != 0 && (type != CONTINUATION || streamId != continuationStreamId)) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Header block interrupted");
+            }
+            try {
+                handleFrame(type, flags, streamId, payload);
+            } catch (Http2Exception e) {
+                if (e.isConnectionError()) {
+                    throw e;
+                }
+                resetStream(e.getStreamId(), e.getErrorCode());
+            }
+            recordFinished();
+            flushFrames();
+        }
+    }
+
+    private void handleFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        switch (type) {
+            case DATA:
+                onData(flags, streamId, payload);
+                break;
+            case HEADERS:
+                onHeaders(flags, streamId, payload);
+                break;
+            case PRIORITY:
+                requireStream(streamId);
+                if (payload.length != 5) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, streamId, "Bad PRIORITY frame");
+                }
+                break;
+            case RST_STREAM:
+                onRstStream(streamId, payload);
+                break;
+            case SETTINGS:
+                onSettings(flags, streamId, payload);
+                break;
+            case PUSH_PROMISE:
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Clients cannot push");
+            case PING:
+                if (streamId != 0 || payload.length != 8) {
+                    throw new Http2Exception(streamId != 0 ? Http2Exception.PROTOCOL_ERROR
+                            : Http2Exception.FRAME_SIZE_ERROR, "Bad PING frame");
+                }
+                if ((flags & FLAG_ACK) == 0) {
+                    synchronized (lock) {
+                        controlFrames.add(frame(PING, FLAG_ACK, 0, payload));
+                    }
+                }
+                break;
+            case GOAWAY:
+                if (streamId != 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "GOAWAY on a stream");
+                }
+                break; // no new streams follow; the client closes once its streams are done
+            case WINDOW_UPDATE:
+                onWindowUpdate(streamId, payload);
+                break;
+            case CONTINUATION:
+                onContinuation(flags, streamId, payload);
+                break;
+            default:
+                break; // unknown frame types are ignored
+        }
+    }
+
+    private void onData(int flags, int streamId, byte[] payload) throws IOException {
+        requireStream(streamId);
+        int end = payload.length - padding(flags, payload);
+        int start = (flags & FLAG_PADDED) != 0 ? 1 : 0;
+        Stream dispatchable = null;
+        synchronized (lock) {
+            if (payload.length > connectionReceiveWindow) {
+                throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window exceeded");
+            }
+            connectionReceiveWindow -= payload.length;
+            if (connectionReceiveWindow < RECEIVE_WINDOW / 2) {
+                controlFrames.add(windowUpdate(0, RECEIVE_WINDOW - connectionReceiveWindow));
+                connectionReceiveWindow = RECEIVE_WINDOW;
+            }
+            Stream stream = streams.get(streamId);
+            if (stream == null) {
+                if (streamId > lastStreamId) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+                }
+                return; // in flight when the stream was reset
+            }
+            if (stream.remoteClosed) {
+                throw new Http2Exception(Http2Exception.STREAM_CLOSED, streamId, "DATA after END_STREAM");
+            }
+            if (payload.length > stream.receiveWindow) {
+                throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window exceeded");
+            }
+            stream.receiveWindow -= payload.length;
+            stream.received += end - start;
+            boolean piped = stream.pipe != null && !stream.pipe.discarded;
+            if (piped) {
+                if (stream.received > stream.maxBodyBytes) {
+                    throw new Http2Exception(Http2Exception.CANCEL, streamId, "Request body too large");
+                }
+                stream.pipe.append(payload, start, end - start, payload.length - (end - start));
+            } else if (stream.body != null) {
+                if (stream.received > stream.maxBodyBytes) {
+                    stream.body = null;
+                    dispatchable = stream; // answered with 413 without waiting for the rest
+                } else {
+                    stream.body.write(payload, start, end - start);
+                }
+            }
+            if ((flags & FLAG_END_STREAM) != 0) {
+                stream.remoteClosed = true;
+                if (stream.declaredLength >= 0 && stream.declaredLength != stream.received) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Content-Length mismatch");
+                }
+                if (stream.pipe != null) {
+                    lock.notifyAll(); // the handler reads to the end
+                }
+                if (stream.body != null) {
+                    dispatchable = stream;
+                } else if (stream.localClosed) {
+                    streams.remove(streamId); // rest of a declined body
+                }
+            } else if (!piped && stream.receiveWindow < RECEIVE_WINDOW / 2) {
+                controlFrames.add(windowUpdate(streamId, RECEIVE_WINDOW - stream.receiveWindow));
+                stream.receiveWindow = RECEIVE_WINDOW;
+            }
+        }
+        if (dispatchable != null) {
+            if (dispatchable.body == null) {
+                respond(dispatchable, HttpResponse.text(HttpStatus.PAYLOAD_TOO_LARGE, "Request body too large"),
+                        false);
+            } else {
+                dispatch(dispatchable);
+            }
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, byte[] payload) throws IOException {
+        requireStream(streamId);
+        int start = (flags & FLAG_PADDED) != 0 ? 1 : 0;
+        int end = payload.length - padding(flags, payload);
+        if ((flags & FLAG_PRIORITY) != 0) {
+            start += 5;
+            if (start > end) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Truncated HEADERS frame");
+            }
+        }
+        headerBlock = new ByteArrayOutputStream(Math.max(end - start, 64));
+        headerBlock.write(payload, start, end - start);
+        continuationEndStream = (flags & FLAG_END_STREAM) != 0;
+        continuationStreamId = streamId;
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            endHeaderBlock();
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, byte[] payload) throws IOException {
+        if (continuationStreamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+        }
+        if (headerBlock.size() + payload.length > MAX_HEADER_BLOCK_BYTES) {
+            throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        headerBlock.write(payload, 0, payload.length);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            endHeaderBlock();
+        }
+    }
+
+    /**
+     * Decodes a complete header block, which opens a stream or carries the trailers of one. The block is
+     * decoded even if the stream is then refused, to keep the HPACK state in step with the client.
+     */
+    private void endHeaderBlock() throws IOException {
+        int streamId = continuationStreamId;
+        boolean endStream = continuationEndStream;
+        byte[] block = headerBlock.toByteArray();
+        continuationStreamId = 0;
+        headerBlock = null;
+        List<String[]> fields = decoder.decode(block, 0, block.length);
+        Stream existing;
+        synchronized (lock) {
+            existing = streams.get(streamId);
+            if (existing != null || streamId <= lastStreamId) {
+                if (existing == null || existing.remoteClosed) {
+                    throw new Http2Exception(Http2Exception.STREAM_CLOSED, streamId, "HEADERS on closed stream");
+                }
+                if (!endStream) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Trailers without END_STREAM");
+                }
+                existing.remoteClosed = true; // request trailers are accepted and ignored
+                if (existing.body == null) {
+                    lock.notifyAll(); // the end of a streamed body, or one already answered
+                    return;
+                }
+            } else {
+                if ((streamId & 1) == 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Even stream id " + streamId);
+                }
+                lastStreamId = streamId;
+                if (closed) {
+                    return;
+                }
+                if (streams.size() >= maxConcurrentStreams) {
+                    throw new Http2Exception(Http2Exception.REFUSED_STREAM, streamId, "Too many streams");
+                }
+            }
+        }
+        if (existing != null) {
+            dispatch(existing);
+            return;
+        }
+        openStream(streamId, fields, endStream);
+    }
+
+    private void openStream(int streamId, List<String[]> fields, boolean endStream) throws IOException {
+        HttpRequest request;
+        try {
+            request = toRequest(streamId, fields, endStream);
+        } catch (BadRequestException e) {
+            Stream stream = new Stream(streamId, null, peerInitialWindowSnapshot());
+            stream.remoteClosed = endStream;
+            synchronized (lock) {
+                streams.put(streamId, stream);
+            }
+            respond(stream, HttpResponse.text(e.getStatus(), e.getMessage()), false);
+            return;
+        }
+        Stream stream = new Stream(streamId, request, peerInitialWindowSnapshot());
+        stream.declaredLength = request.getHeaders().contains("content-length") ? request.getContentLength() : -1;
+        stream.remoteClosed = endStream;
+        RequestBodyPolicy policy;
+        try {
+            policy = router.bodyPolicy(request);
+        } catch (RuntimeException e) {
+            throw new Http2Exception(Http2Exception.INTERNAL_ERROR, streamId, "Routing failed");
+        }
+        // The handler of a streamed body must run on a worker, as it waits for frames this thread reads.
+        boolean streamed = policy.isStreaming() && resumeExecutor != null;
+        stream.maxBodyBytes = policy.isStreaming() && !streamed ? Math.min(policy.getMaxBytes(), maxBodyBytes)
+                : policy.getMaxBytes();
+        boolean tooLarge = stream.declaredLength > stream.maxBodyBytes;
+        if (!endStream && !tooLarge) {
+            if (streamed) {
+                stream.pipe = new BodyPipe(stream);
+                request.attachBodyStream(stream.pipe);
+            } else {
+                stream.body = new ByteArrayOutputStream(
+                        (int) Math.min(stream.declaredLength > 0 ? stream.declaredLength : 256, MAX_FRAME_BYTES));
+            }
+        }
+        synchronized (lock) {
+            streams.put(streamId, stream);
+        }
+        if (tooLarge) {
+            respond(stream, HttpResponse.text(HttpStatus.PAYLOAD_TOO_LARGE, "Request body too large"), false);
+        } else if (endStream || stream.pipe != null) {
+            dispatch(stream);
+        }
+    }
+
+    /**
+     * Builds the request for a decoded header block, enforcing the message rules of RFC 9113 section 8. A body
+     * that follows without {@code content-length} is of unknown length, like a chunked HTTP/1.1 body.
+     *
+     * @throws Http2Exception        for a malformed request, which resets the stream
+     * @throws BadRequestException   for a well-formed request the server declines, answered like HTTP/1.x
+     */
+    private HttpRequest toRequest(int streamId, List<String[]> fields, boolean endStream)
+            throws Http2Exception, BadRequestException {
+        String method = null;
+        String path = null;
+        String scheme = null;
+        String authority = null;
+        HttpHeaders headers = new HttpHeaders();
+        boolean regularSeen = false;
+        long listSize = 0;
+        for (String[] field : fields) {
+            String name = field[0];
+            String value = field[1];
+            listSize += name.length() + value.length() + 32;
+            if (name.startsWith(":")) {
+                if (regularSeen) {
+                    throw malformed(streamId, "Pseudo-header after regular header");
+                }
+                switch (name) {
+                    case ":method":
+                        method = pseudo(streamId, method, value);
+                        break;
+                    case ":path":
+                        path = pseudo(streamId, path, value);
+                        break;
+                    case ":scheme":
+                        scheme = pseudo(streamId, scheme, value);
+                        break;
+                    case ":authority":
+                        authority = pseudo(streamId, authority, value);
+                        break;
+                    default:
+                        throw malformed(streamId, "Unknown pseudo-header " + name);
+                }
+                continue;
+            }
+            regularSeen = true;
+            if (!name.equals(name.toLowerCase(Locale.ROOT)) || CONNECTION_HEADERS.contains(name)
+                    || ("te".equals(name) && !"trailers".equals(value))) {
+                throw malformed(streamId, "Invalid header " + name);
+            }
+            String previous = headers.get(name);
+            if (previous != null) {
+                value = previous + ("cookie".equals(name) ? "; " : ", ") + value;
+            }
+            headers.setNormalized(name, value);
+        }
+        if (method == null || scheme == null || path == null || path.isEmpty()) {
+            throw malformed(streamId, "Missing pseudo-header");
+        }
+        if (listSize > HttpRequestParser.MAX_HEADER_BYTES) {
+            throw new BadRequestException("Headers too large");
+        }
+        if (authority != null && !headers.contains("host")) {
+            headers.setNormalized("host", authority);
+        }
+        long contentLength = 0;
+        String declared = headers.get("content-length");
+        if (declared != null) {
+            try {
+                contentLength = Long.parseLong(declared);
+            } catch (NumberFormatException e) {
+                contentLength = -1;
+            }
+            if (contentLength < 0) {
+                throw malformed(streamId, "Invalid Content-Length");
+            }
+        }
+        boolean unknownLength = declared == null && !endStream;
+        return new HttpRequest(method, path, "HTTP/2.0", headers, unknownLength ? -1 : contentLength,
+                unknownLength);
+    }
+
+    private void onRstStream(int streamId, byte[] payload) throws Http2Exception {
+        requireStream(streamId);
+        if (payload.length != 4) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Bad RST_STREAM frame");
+        }
+        synchronized (lock) {
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "RST_STREAM on idle stream");
+            }
+            Stream stream = streams.remove(streamId);
+            if (stream != null) {
+                release(stream);
+            }
+        }
+    }
+
+    private void onSettings(int flags, int streamId, byte[] payload) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            if (payload.length != 0) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS ACK with payload");
+            }
+            return;
+        }
+        if (payload.length % 6 != 0) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Bad SETTINGS frame");
+        }
+        synchronized (lock) {
+            applySettings(payload, 0);
+            controlFrames.add(frame(SETTINGS, FLAG_ACK, 0, new byte[0]));
+        }
+    }
+
+    /**
+     * Applies the client's settings; called with the lock held.
+     */
+    private void applySettings(byte[] payload, int offset) throws Http2Exception {
+        for (int i = offset; i + 6 <= payload.length; i += 6) {
+            int id = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+            long value = readInt(payload, i + 2) & 0xFFFFFFFFL;
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value > 1) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid ENABLE_PUSH");
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value > MAX_WINDOW) {
+                        throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Invalid INITIAL_WINDOW_SIZE");
+                    }
+                    int delta = (int) value - peerInitialWindow;
+                    peerInitialWindow = (int) value;
+                    for (Stream stream : streams.values()) {
+                        stream.sendWindow += delta;
+                        if (stream.sendWindow > MAX_WINDOW) {
+                            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Stream window overflow");
+                        }
+                        makeReady(stream);
+                    }
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < MAX_FRAME_BYTES || value > 0xFFFFFF) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid MAX_FRAME_SIZE");
+                    }
+                    peerMaxFrameSize = (int) value;
+                    break;
+                default:
+                    break; // MAX_CONCURRENT_STREAMS and MAX_HEADER_LIST_SIZE only matter for server push
+            }
+        }
+    }
+
+    private void onWindowUpdate(int streamId, byte[] payload) throws Http2Exception {
+        if (payload.length != 4) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Bad WINDOW_UPDATE frame");
+        }
+        int increment = readInt(payload, 0) & 0x7FFFFFFF;
+        if (increment == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Zero window increment");
+        }
+        synchronized (lock) {
+            if (streamId == 0) {
+                connectionSendWindow += increment;
+                if (connectionSendWindow > MAX_WINDOW) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                for (Stream stream : streams.values()) {
+                    makeReady(stream);
+                }
+                return;
+            }
+            Stream stream = streams.get(streamId);
+            if (stream == null) {
+                if (streamId > lastStreamId) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "WINDOW_UPDATE on idle stream");
+                }
+                return;
+            }
+            stream.sendWindow += increment;
+            if (stream.sendWindow > MAX_WINDOW) {
+                throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+            }
+            makeReady(stream);
+        }
+    }
+
+    private void openUpgradedStream(HttpRequest upgraded) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        for (Map.Entry<String, String> header : upgraded.getHeaders().asMap().entrySet()) {
+            if (!CONNECTION_HEADERS.contains(header.getKey()) && !"http2-settings".equals(header.getKey())) {
+                headers.setNormalized(header.getKey(), header.getValue());
+            }
+        }
+        HttpRequest request = new HttpRequest(upgraded.getMethod(), upgraded.getPath(), "HTTP/2.0", headers, 0,
+                false);
+        Stream stream = new Stream(1, request, peerInitialWindowSnapshot());
+        stream.remoteClosed = true;
+        synchronized (lock) {
+            lastStreamId = 1;
+            streams.put(1, stream);
+        }
+        dispatch(stream);
+    }
+
+    /**
+     * Routes a complete request, or one whose body is streamed, with the same admission rules as
+     * {@link ClientHandler}.
+     */
+    private void dispatch(Stream stream) {
+        HttpRequest request = stream.request;
+        if (stream.body != null) {
+            request.attachBody(stream.body.toByteArray());
+            stream.body = null;
+        }
+        boolean admitted = false;
+        CompletableFuture<HttpResponse> response;
+        HttpResponse limited = admission.checkRate(client);
+        if (limited != null) {
+            response = CompletableFuture.completedFuture(limited);
+        } else if (router.isDelayed(request)) {
+            response = router.routeAsync(request);
+        } else if (admission.tryAcquire()) {
+            admitted = true;
+            response = route(request, stream.pipe != null);
+        } else {
+            response = CompletableFuture.completedFuture(admission.overloadedResponse());
+        }
+        boolean slotHeld = admitted;
+        if (response.isDone()) {
+            respond(stream, response.join(), slotHeld);
+            return;
+        }
+        response.thenAccept(completed -> {
+            if (resumeExecutor == null) {
+                respond(stream, completed, slotHeld);
+                return;
+            }
+            try {
+                WorkerExecutors.resume(resumeExecutor, () -> respond(stream, completed, slotHeld));
+            } catch (RejectedExecutionException e) {
+                // Shutting down.
+                respond(stream, completed, slotHeld);
+            }
+        });
+    }
+
+    /**
+     * Routes on a worker when the handler may block, such as a proxy route waiting on its upstream or one
+     * reading a streamed body, so that the connection keeps reading frames for its streams meanwhile.
+     */
+    private CompletableFuture<HttpResponse> route(HttpRequest request, boolean streamedBody) {
+        if (resumeExecutor == null || !streamedBody && !router.mayBlock(request)) {
+            return router.routeAsync(request);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> request, resumeExecutor).thenCompose(router::routeAsync);
+        } catch (RejectedExecutionException e) {
+            admission.taskRejected();
+            return CompletableFuture.completedFuture(admission.overloadedResponse());
+        }
+    }
+
+    /**
+     * Queues {@code response} on its stream and starts sending it.
+     */
+    private void respond(Stream stream, HttpResponse response, boolean admitted) {
+        boolean startWriter;
+        synchronized (lock) {
+            stream.admitted = admitted;
+            stream.response = response;
+            if (stream.released) {
+                finished.add(stream); // reset by the client while the handler ran
+                return;
+            }
+            if (closed) {
+                release(stream);
+                return;
+            }
+            HttpStatus status = response.getStatus();
+            boolean noBody = stream.request != null && "HEAD".equals(stream.request.getMethod())
+                    || status == HttpStatus.NO_CONTENT || status == HttpStatus.NOT_MODIFIED;
+            // Segments that read a streamed request body are copied by a worker too, never by the frame reader.
+            startWriter = !noBody && (response.isStreaming() || stream.pipe != null && response.hasBodySegments());
+            if (noBody) {
+                stream.noBody = true;
+            } else if (startWriter) {
+                stream.produced = new ArrayDeque<>();
+            } else if (response.hasBodySegments()) {
+                stream.segments = response.getBodySegments().iterator();
+            } else {
+                stream.bodyBytes = response.getBodyBytes();
+            }
+            makeReady(stream);
+        }
+        if (startWriter) {
+            startBodyWriter(stream);
+        }
+        flushFrames();
+        recordFinished();
+    }
+
+    /**
+     * Runs the response's {@link ResponseBodyWriter} on a worker; its output is queued on the stream and sent
+     * as the client's windows allow, with any trailers in a final HEADERS frame.
+     */
+    private void startBodyWriter(Stream stream) {
+        Runnable task = () -> {
+            ResponseSink sink = new ResponseSink(stream, false);
+            try {
+                if (stream.response.isStreaming()) {
+                    stream.response.writeStreamingBody(sink);
+                } else {
+                    stream.response.writeBodySegments(sink);
+                }
+                synchronized (lock) {
+                    stream.producerDone = true;
+                    stream.trailers = sink.getTrailers();
+                    makeReady(stream);
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    if (!stream.released) {
+                        logger.warn("HTTP/2 response body failed: " + e.getMessage());
+                        resetLocally(stream, Http2Exception.INTERNAL_ERROR);
+                    }
+                }
+            }
+            flushFrames();
+            recordFinished();
+        };
+        if (resumeExecutor == null) {
+            task.run();
+            return;
+        }
+        try {
+            WorkerExecutors.resume(resumeExecutor, task);
+        } catch (RejectedExecutionException e) {
+            synchronized (lock) {
+                resetLocally(stream, Http2Exception.INTERNAL_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Writes pending frames unless another thread already is; that thread then picks up whatever this one
+     * queued, because it gathers frames again after every write.
+     */
+    private void flushFrames() {
+        synchronized (lock) {
+            if (writing || closed) {
+                return;
+            }
+            writing = true;
+        }
+        boolean done = false;
+        try {
+            while (true) {
+                int length;
+                synchronized (lock) {
+                    length = gatherFrames();
+                    if (length == 0) {
+                        writing = false;
+                        done = true;
+                        lock.notifyAll();
+                        return;
+                    }
+                }
+                output.write(batch, 0, length);
+                output.flush();
+            }
+        } catch (IOException e) {
+            // The client is gone; the reader sees the closed socket and shuts the connection down.
+            closeQuietly(socket);
+        } finally {
+            if (!done) {
+                synchronized (lock) {
+                    writing = false;
+                    closed = true;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills {@link #batch} with control frames, then one frame at a time from each ready stream in turn.
+     * Called with the lock held.
+     *
+     * @return number of bytes gathered
+     */
+    private int gatherFrames() {
+        int length = 0;
+        while (!controlFrames.isEmpty()) {
+            byte[] control = controlFrames.poll();
+            ensureBatch(length + control.length);
+            System.arraycopy(control, 0, batch, length, control.length);
+            length += control.length;
+        }
+        while (length < WRITE_BATCH_BYTES && !ready.isEmpty()) {
+            Stream stream = ready.poll();
+            stream.queued = false;
+            try {
+                length = gatherStreamFrame(stream, length);
+            } catch (IOException e) {
+                logger.warn("HTTP/2 response body failed: " + e.getMessage());
+                resetLocally(stream, Http2Exception.INTERNAL_ERROR);
+                while (!controlFrames.isEmpty()) {
+                    byte[] control = controlFrames.poll();
+                    ensureBatch(length + control.length);
+                    System.arraycopy(control, 0, batch, length, control.length);
+                    length += control.length;
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Appends the next frame of {@code stream} at {@code offset}: its response headers, one DATA frame as
+     * large as the windows allow, or the end of the stream. The stream is requeued while it has more to send.
+     *
+     * @return the new batch length
+     */
+    private int gatherStreamFrame(Stream stream, int offset) throws IOException {
+        if (stream.released || stream.localClosed) {
+            return offset;
+        }
+        if (!stream.headersSent) {
+            stream.headersSent = true;
+            boolean endStream = stream.noBody || (stream.produced == null && bodyExhausted(stream));
+            offset = appendHeaders(stream, offset, responseHeaders(stream), endStream);
+            if (endStream) {
+                closeLocally(stream);
+            } else {
+                makeReady(stream);
+            }
+            return offset;
+        }
+        if (bodyExhausted(stream)) {
+            return endBody(stream, offset);
+        }
+        int allowance = (int) Math.min(Math.min(connectionSendWindow, stream.sendWindow), peerMaxFrameSize);
+        if (allowance <= 0) {
+            return offset; // requeued by the next WINDOW_UPDATE
+        }
+        ensureBatch(offset + FRAME_HEADER_BYTES + allowance);
+        int read = readBody(stream, batch, offset + FRAME_HEADER_BYTES, allowance);
+        if (read == 0) {
+            return bodyExhausted(stream) ? endBody(stream, offset) : offset; // writer has not produced more yet
+        }
+        connectionSendWindow -= read;
+        stream.sendWindow -= read;
+        stream.bytesSent += read;
+        boolean endStream = bodyExhausted(stream) && (stream.trailers == null || stream.trailers.isEmpty());
+        putFrameHeader(batch, offset, read, DATA, endStream ? FLAG_END_STREAM : 0, stream.id);
+        if (endStream) {
+            closeLocally(stream);
+        } else {
+            makeReady(stream);
+        }
+        return offset + FRAME_HEADER_BYTES + read;
+    }
+
+    /**
+     * Ends a stream whose body is fully sent, with its trailers or an empty DATA frame.
+     */
+    private int endBody(Stream stream, int offset) {
+        if (stream.trailers != null && !stream.trailers.isEmpty()) {
+            List<String[]> fields = new ArrayList<>();
+            for (Map.Entry<String, String> trailer : stream.trailers.entrySet()) {
+                fields.add(new String[] {trailer.getKey(), trailer.getValue()});
+            }
+            offset = appendHeaders(stream, offset, fields, true);
+        } else {
+            ensureBatch(offset + FRAME_HEADER_BYTES);
+            putFrameHeader(batch, offset, 0, DATA, FLAG_END_STREAM, stream.id);
+            offset += FRAME_HEADER_BYTES;
+        }
+        closeLocally(stream);
+        return offset;
+    }
+
+    private List<String[]> responseHeaders(Stream stream) {
+        HttpResponse response = stream.response;
+        List<String[]> fields = new ArrayList<>();
+        fields.add(new String[] {":status", String.valueOf(response.getStatusCode())});
+        HttpHeaders headers = response.getHeaders();
+        if (!headers.contains("date")) {
+            fields.add(new String[] {"date", new String(HttpDates.currentBytes(), StandardCharsets.ISO_8859_1)});
+        }
+        for (Map.Entry<String, String> header : headers.asMap().entrySet()) {
+            if (!CONNECTION_HEADERS.contains(header.getKey())) {
+                fields.add(new String[] {header.getKey(), header.getValue()});
+                for (String value : headers.additionalValues(header.getKey())) {
+                    fields.add(new String[] {header.getKey(), value});
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * HPACK-encodes {@code fields} and appends them as HEADERS plus as many CONTINUATION frames as the
+     * client's frame size requires.
+     */
+    private int appendHeaders(Stream stream, int offset, List<String[]> fields, boolean endStream) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+        encoder.beginBlock(block);
+        for (String[] field : fields) {
+            encoder.encode(block, field[0], field[1]);
+        }
+        byte[] encoded = block.toByteArray();
+        stream.bytesSent += encoded.length;
+        int position = 0;
+        int type = HEADERS;
+        do {
+            int length = Math.min(encoded.length - position, peerMaxFrameSize);
+            boolean last = position + length == encoded.length;
+            int flags = (last ? FLAG_END_HEADERS : 0) | (type == HEADERS && endStream ? FLAG_END_STREAM : 0);
+            ensureBatch(offset + FRAME_HEADER_BYTES + length);
+            putFrameHeader(batch, offset, length, type, flags, stream.id);
+            System.arraycopy(encoded, position, batch, offset + FRAME_HEADER_BYTES, length);
+            offset += FRAME_HEADER_BYTES + length;
+            position += length;
+            type = CONTINUATION;
+        } while (position < encoded.length);
+        return offset;
+    }
+
+    /**
+     * Copies up to {@code max} body bytes of {@code stream} into {@code target}. Returns 0 when a body writer
+     * has not produced more yet or the body is exhausted.
+     */
+    private int readBody(Stream stream, byte[] target, int offset, int max) throws IOException {
+        if (stream.bodyBytes != null) {
+            int count = Math.min(max, stream.bodyBytes.length - stream.bodyOffset);
+            System.arraycopy(stream.bodyBytes, stream.bodyOffset, target, offset, count);
+            stream.bodyOffset += count;
+            return count;
+        }
+        if (stream.produced != null) {
+            if (stream.producedChunk == null) {
+                stream.producedChunk = stream.produced.poll();
+                stream.producedOffset = 0;
+                if (stream.producedChunk == null) {
+                    return 0;
+                }
+                lock.notifyAll(); // room for the body writer
+            }
+            int count = Math.min(max, stream.producedChunk.length - stream.producedOffset);
+            System.arraycopy(stream.producedChunk, stream.producedOffset, target, offset, count);
+            stream.producedOffset += count;
+            if (stream.producedOffset == stream.producedChunk.length) {
+                stream.producedChunk = null;
+            }
+            return count;
+        }
+        if (stream.segments == null) {
+            return 0;
+        }
+        while (true) {
+            BodySegment segment = stream.segment;
+            if (segment == null) {
+                if (!stream.segments.hasNext()) {
+                    return 0;
+                }
+                segment = stream.segments.next();
+                stream.segment = segment;
+                stream.segmentPosition = segment.getOffset();
+                stream.segmentRemaining = segment.getLength();
+                if (segment.isFile()) {
+                    stream.file = FileChannel.open(segment.getFile(), StandardOpenOption.READ);
+                }
+            }
+            if (stream.segmentRemaining == 0) {
+                closeSegment(stream);
+                continue;
+            }
+            int wanted = (int) Math.min(max, stream.segmentRemaining);
+            int count;
+            if (segment.isFile()) {
+                count = stream.file.read(ByteBuffer.wrap(target, offset, wanted), stream.segmentPosition);
+            } else if (segment.isStream()) {
+                count = segment.getStream().read(target, offset, wanted);
+            } else {
+                System.arraycopy(segment.getBytes(), (int) stream.segmentPosition, target, offset, wanted);
+                count = wanted;
+            }
+            if (count < 0) {
+                throw new EOFException("Response body ended early");
+            }
+            stream.segmentPosition += count;
+            stream.segmentRemaining -= count;
+            if (stream.segmentRemaining == 0) {
+                closeSegment(stream);
+            }
+            return count;
+        }
+    }
+
+    private boolean bodyExhausted(Stream stream) {
+        if (stream.bodyBytes != null) {
+            return stream.bodyOffset == stream.bodyBytes.length;
+        }
+        if (stream.produced != null) {
+            return stream.producerDone && stream.producedChunk == null && stream.produced.isEmpty();
+        }
+        if (stream.segments != null) {
+            return stream.segment == null && !stream.segments.hasNext();
+        }
+        return true;
+    }
+
+    /**
+     * Our side of {@code stream} is done. If the client is still sending a request body, as after an early
+     * 413, a modest declared remainder is read and dropped, since some clients only look at the response once
+     * their upload finishes; anything else is cut short with {@code RST_STREAM(NO_ERROR)}, which RFC 9113
+     * section 8.1 provides for early responses.
+     */
+    private void closeLocally(Stream stream) {
+        stream.localClosed = true;
+        boolean drain = !stream.remoteClosed && stream.declaredLength >= 0
+                && stream.declaredLength - stream.received <= MAX_DISCARD_BYTES;
+        if (!drain) {
+            if (!stream.remoteClosed) {
+                controlFrames.add(rstStream(stream.id, Http2Exception.NO_ERROR));
+            }
+            streams.remove(stream.id);
+        } else if (stream.pipe != null) {
+            stream.pipe.discard();
+        }
+        release(stream);
+    }
+
+    private void resetLocally(Stream stream, int errorCode) {
+        if (stream.released) {
+            return;
+        }
+        controlFrames.add(rstStream(stream.id, errorCode));
+        streams.remove(stream.id);
+        release(stream);
+    }
+
+    private void resetStream(int streamId, int errorCode) {
+        synchronized (lock) {
+            Stream stream = streams.get(streamId);
+            if (stream != null) {
+                resetLocally(stream, errorCode);
+            } else {
+                controlFrames.add(rstStream(streamId, errorCode));
+            }
+        }
+    }
+
+    /**
+     * Frees what {@code stream} holds and queues it for logging. Called with the lock held.
+     */
+    private void release(Stream stream) {
+        if (stream.released) {
+            return;
+        }
+        stream.released = true;
+        closeSegment(stream);
+        if (stream.produced != null) {
+            stream.produced.clear();
+        }
+        lock.notifyAll(); // wakes a body writer or a handler reading the request body
+        if (stream.response != null) {
+            finished.add(stream);
+        }
+    }
+
+    /**
+     * Logs finished streams and returns their concurrency slots, outside the lock because the access log may
+     * block when its buffer is full.
+     */
+    private void recordFinished() {
+        List<Stream> done;
+        synchronized (lock) {
+            if (finished.isEmpty()) {
+                return;
+            }
+            done = new ArrayList<>(finished);
+            finished.clear();
+        }
+        for (Stream stream : done) {
+            long elapsed = System.nanoTime() - stream.startNanos;
+            if (stream.admitted) {
+                admission.release(elapsed);
+            }
+            if (stream.request == null) {
+                continue;
+            }
+            int status = stream.response.getStatusCode();
+            accessLog.log(remote, stream.request, status, stream.bytesSent, stream.startNanos);
+            metrics.recordRequest(router.routeLabel(stream.request), status, elapsed, stream.bytesSent);
+        }
+    }
+
+    private void makeReady(Stream stream) {
+        if (!stream.queued && stream.response != null && !stream.released) {
+            stream.queued = true;
+            ready.add(stream);
+        }
+    }
+
+    private boolean isIdle() {
+        synchronized (lock) {
+            return streams.isEmpty();
+        }
+    }
+
+    private void goAway(int errorCode) {
+        synchronized (lock) {
+            byte[] payload = new byte[8];
+            putInt(payload, 0, lastStreamId);
+            putInt(payload, 4, errorCode);
+            controlFrames.add(frame(GOAWAY, 0, 0, payload));
+        }
+        flushFrames();
+    }
+
+    /**
+     * Waits briefly for the writer to finish, then drops every stream; the caller closes the socket.
+     */
+    private void shutdown() {
+        flushFrames();
+        synchronized (lock) {
+            long deadline = System.currentTimeMillis() + 1000;
+            while (writing && System.currentTimeMillis() < deadline) {
+                try {
+                    lock.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            closed = true;
+            for (Stream stream : streams.values()) {
+                release(stream);
+            }
+            streams.clear();
+            ready.clear();
+            lock.notifyAll();
+        }
+        recordFinished();
+    }
+
+    private void ensureBatch(int capacity) {
+        if (capacity > batch.length) {
+            batch = Arrays.copyOf(batch, Math.max(capacity, batch.length * 2));
+        }
+    }
+
+    private byte[] settingsPayload() {
+        byte[] payload = new byte[18];
+        putSetting(payload, 0, SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+        putSetting(payload, 6, SETTINGS_INITIAL_WINDOW_SIZE, RECEIVE_WINDOW);
+        putSetting(payload, 12, SETTINGS_MAX_HEADER_LIST_SIZE, HttpRequestParser.MAX_HEADER_BYTES);
+        return payload;
+    }
+
+    private int peerInitialWindowSnapshot() {
+        synchronized (lock) {
+            return peerInitialWindow;
+        }
+    }
+
+    private static void closeSegment(Stream stream) {
+        if (stream.file != null) {
+            try {
+                stream.file.close();
+            } catch (IOException ignored) {
+            }
+            stream.file = null;
+        }
+        stream.segment = null;
+    }
+
+    private static void requireStream(int streamId) throws Http2Exception {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Frame requires a stream");
+        }
+    }
+
+    private static int padding(int flags, byte[] payload) throws Http2Exception {
+        if ((flags & FLAG_PADDED) == 0) {
+            return 0;
+        }
+        if (payload.length == 0 || (payload[0] & 0xFF) >= payload.length) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid padding");
+        }
+        return payload[0] & 0xFF;
+    }
+
+    private static String pseudo(int streamId, String previous, String value) throws Http2Exception {
+        if (previous != null) {
+            throw malformed(streamId, "Repeated pseudo-header");
+        }
+        return value;
+    }
+
+    private static Http2Exception malformed(int streamId, String message) {
+        return new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, message);
+    }
+
+    /**
+     * The decoded {@code HTTP2-Settings} header of an upgrade request, or null if it is missing or invalid.
+     */
+    private static byte[] upgradeSettings(HttpRequest request) {
+        String encoded = request.getHeaders().get("http2-settings");
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            byte[] settings = Base64.getUrlDecoder().decode(encoded.trim());
+            return settings.length % 6 == 0 ? settings : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean hasToken(String list, String token) {
+        for (String element : list.split(",")) {
+            if (element.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] frame(int type, int flags, int streamId, byte[] payload) {
+        byte[] frame = new byte[FRAME_HEADER_BYTES + payload.length];
+        putFrameHeader(frame, 0, payload.length, type, flags, streamId);
+        System.arraycopy(payload, 0, frame, FRAME_HEADER_BYTES, payload.length);
+        return frame;
+    }
+
+    private static byte[] windowUpdate(int streamId, int increment) {
+        byte[] payload = new byte[4];
+        putInt(payload, 0, increment);
+        return frame(WINDOW_UPDATE, 0, streamId, payload);
+    }
+
+    private static byte[] rstStream(int streamId, int errorCode) {
+        byte[] payload = new byte[4];
+        putInt(payload, 0, errorCode);
+        return frame(RST_STREAM, 0, streamId, payload);
+    }
+
+    private static void putFrameHeader(byte[] target, int offset, int length, int type, int flags, int streamId) {
+        target[offset] = (byte) (length >>> 16);
+        target[offset + 1] = (byte) (length >>> 8);
+        target[offset + 2] = (byte) length;
+        target[offset + 3] = (byte) type;
+        target[offset + 4] = (byte) flags;
+        putInt(target, offset + 5, streamId);
+    }
+
+    private static void putSetting(byte[] target, int offset, int id, int value) {
+        target[offset] = (byte) (id >>> 8);
+        target[offset + 1] = (byte) id;
+        putInt(target, offset + 2, value);
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * One request/response exchange. The request side is only touched by the reader; the response side is
+     * guarded by the connection lock. As the {@link ResponseSink.Transport} of a generated body it queues the
+     * writer's output, blocking while {@link #PRODUCED_CHUNKS} chunks are waiting for the client.
+     */
+    private final class Stream implements ResponseSink.Transport {
+        private final int id;
+        private final HttpRequest request;
+        private final long startNanos = System.nanoTime();
+        private long sendWindow;
+        private int receiveWindow = RECEIVE_WINDOW;
+        private long declaredLength = -1;
+        private long maxBodyBytes;
+        private long received;
+        private ByteArrayOutputStream body;
+        private BodyPipe pipe;
+        private boolean remoteClosed;
+        private boolean localClosed;
+        private boolean released;
+        private boolean admitted;
+        private boolean queued;
+
+        private HttpResponse response;
+        private boolean headersSent;
+        private boolean noBody;
+        private long bytesSent;
+        private byte[] bodyBytes;
+        private int bodyOffset;
+        private Iterator<BodySegment> segments;
+        private BodySegment segment;
+        private long segmentPosition;
+        private long segmentRemaining;
+        private FileChannel file;
+        private ArrayDeque<byte[]> produced;
+        private byte[] producedChunk;
+        private int producedOffset;
+        private boolean producerDone;
+        private Map<String, String> trailers;
+
+        Stream(int id, HttpRequest request, int sendWindow) {
+            this.id = id;
+            this.request = request;
+            this.sendWindow = sendWindow;
+        }
+
+        @Override
+        public void send(byte[] data, int offset, int length, boolean flush) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            byte[] copy = Arrays.copyOfRange(data, offset, offset + length);
+            synchronized (lock) {
+                while (produced.size() >= PRODUCED_CHUNKS && !released) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while sending response body", e);
+                    }
+                }
+                if (released) {
+                    throw new IOException("Stream " + id + " was reset");
+                }
+                produced.add(copy);
+                makeReady(this);
+            }
+            flushFrames();
+        }
+    }
+
+    /**
+     * Request body of a streaming route, filled by DATA frames while the handler reads it. The stream's
+     * receive window is given back only as the handler consumes the body, so a slow reader holds the client
+     * back instead of filling memory. Guarded by the connection lock.
+     */
+    private final class BodyPipe extends InputStream {
+        private final Stream stream;
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private byte[] chunk;
+        private int chunkOffset;
+        /** Bytes taken from the stream's receive window and not yet given back. */
+        private int unacknowledged;
+        private boolean discarded;
+
+        BodyPipe(Stream stream) {
+            this.stream = stream;
+        }
+
+        /**
+         * Queues {@code data[offset, offset + length)}; {@code padding} bytes of the frame only count
+         * against the window. Called with the lock held.
+         */
+        void append(byte[] data, int offset, int length, int padding) {
+            unacknowledged += padding;
+            if (length > 0) {
+                chunks.add(Arrays.copyOfRange(data, offset, offset + length));
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            Objects.checkFromIndexSize(offset, length, target.length);
+            if (length == 0) {
+                return 0;
+            }
+            int count;
+            boolean acknowledged;
+            synchronized (lock) {
+                while (chunk == null) {
+                    chunk = chunks.poll();
+                    chunkOffset = 0;
+                    if (chunk != null) {
+                        break;
+                    }
+                    if (discarded || stream.released) {
+                        throw new IOException("Stream " + stream.id + " was reset");
+                    }
+                    if (stream.remoteClosed) {
+                        return -1;
+                    }
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while reading request body", e);
+                    }
+                }
+                count = Math.min(length, chunk.length - chunkOffset);
+                System.arraycopy(chunk, chunkOffset, target, offset, count);
+                chunkOffset += count;
+                if (chunkOffset == chunk.length) {
+                    chunk = null;
+                }
+                unacknowledged += count;
+                acknowledged = !stream.remoteClosed && unacknowledged >= RECEIVE_WINDOW / 2;
+                if (acknowledged) {
+                    controlFrames.add(windowUpdate(stream.id, unacknowledged));
+                    stream.receiveWindow += unacknowledged;
+                    unacknowledged = 0;
+                }
+            }
+            if (acknowledged) {
+                flushFrames();
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+            boolean acknowledged;
+            synchronized (lock) {
+                acknowledged = discard();
+            }
+            if (acknowledged) {
+                flushFrames();
+            }
+        }
+
+        /**
+         * Drops the rest of the body and reopens the window, so a client still sending can finish. Called
+         * with the lock held.
+         *
+         * @return whether a WINDOW_UPDATE was queued
+         */
+        boolean discard() {
+            if (discarded) {
+                return false;
+            }
+            discarded = true;
+            chunks.clear();
+            chunk = null;
+            unacknowledged = 0;
+            lock.notifyAll();
+            int increment = RECEIVE_WINDOW - stream.receiveWindow;
+            if (stream.remoteClosed || stream.released || increment <= 0) {
+                return false;
+            }
+            controlFrames.add(windowUpdate(stream.id, increment));
+            stream.receiveWindow = RECEIVE_WINDOW;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.IOException;
+
+/**
+ * An HTTP/2 protocol violation, carrying the error code sent to the peer. A stream id of 0 makes it a
+ * connection error, answered with GOAWAY; otherwise only that stream is reset.
+ */
+final class Http2Exception extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+    static final int ENHANCE_YOUR_CALM = 0xb;
+
+    private final int errorCode;
+    private final int streamId;
+
+    Http2Exception(int errorCode, String message) {
+        this(errorCode, 0, message);
+    }
+
+    Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    int getErrorCode() {
+        return errorCode;
+    }
+
+    int getStreamId() {
+        return streamId;
+    }
+
+    boolean isConnectionError() {
+        return streamId == 0;
+    }
+}
@@ -0,0 +1,61 @@
+package edu.fiu.cop6727.webserver;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Formats and parses HTTP dates (IMF-fixdate, e.g. {@code Sun, 06 Nov 1994 08:49:37 GMT}).
+ */
+final class HttpDates {
+    private static final DateTimeFormatter IMF_FIXDATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static volatile CurrentDate current = new CurrentDate(System.currentTimeMillis() / 1000);
+
+    private HttpDates() {
+    }
+
+    /**
+     * The current time as US-ASCII bytes of an HTTP date, for the Date header. The value ticks over lazily:
+     * it is reformatted by the first caller in a new second and shared by every response within it. Callers
+     * must not modify the array.
+     */
+    static byte[] currentBytes() {
+        long second = System.currentTimeMillis() / 1000;
+        CurrentDate date = current;
+        if (date.second != second) {
+            date = new CurrentDate(second);
+            current = date;
+        }
+        return date.bytes;
+    }
+
+    static String format(long epochMillis) {
+        return IMF_FIXDATE.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /**
+     * Returns the date in epoch milliseconds, or -1 if the value is not a valid HTTP date.
+     */
+    static long parse(String value) {
+        try {
+            return Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(value.trim())).toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return -1;
+        }
+    }
+
+    private static final class CurrentDate {
+        private final long second;
+        private final byte[] bytes;
+
+        private CurrentDate(long second) {
+            this.second = second;
+            this.bytes = format(second * 1000).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
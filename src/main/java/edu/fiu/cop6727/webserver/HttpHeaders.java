@@ -1,25 +1,84 @@
 package edu.fiu.cop6727.webserver;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 
 /**
- * Lightweight case-insensitive header map.
+ * Lightweight case-insensitive header map. A field normally has one value; fields that must not be combined
+ * into one comma-separated line, such as {@code Set-Cookie}, can be {@linkplain #add added} several times.
  */
 public final class HttpHeaders {
     private final Map<String, String> headers = new LinkedHashMap<>();
+    /** Values after the first of fields that were added more than once; null until one is. */
+    private Map<String, List<String>> repeated;
 
     public void set(String name, String value) {
-        headers.put(normalize(name), value.trim());
+        setNormalized(normalize(name), value.trim());
+    }
+
+    /**
+     * Stores a header whose name is already lower-case and whose value is already trimmed, as produced by
+     * {@link HttpRequestParser}.
+     */
+    void setNormalized(String lowerCaseName, String value) {
+        headers.put(lowerCaseName, value);
+        if (repeated != null) {
+            repeated.remove(lowerCaseName);
+        }
+    }
+
+    /**
+     * Adds a value to {@code name}, keeping any it already has; each is sent on its own header line.
+     */
+    public void add(String name, String value) {
+        String key = normalize(name);
+        if (!headers.containsKey(key)) {
+            headers.put(key, value.trim());
+            return;
+        }
+        if (repeated == null) {
+            repeated = new HashMap<>();
+        }
+        repeated.computeIfAbsent(key, ignored -> new ArrayList<>()).add(value.trim());
     }
 
     public String get(String name) {
         return headers.get(normalize(name));
     }
 
+    /**
+     * Every value of {@code name} in the order they were added; empty if it is absent.
+     */
+    public List<String> getAll(String name) {
+        String key = normalize(name);
+        String first = headers.get(key);
+        if (first == null) {
+            return List.of();
+        }
+        List<String> more = additionalValues(key);
+        if (more.isEmpty()) {
+            return List.of(first);
+        }
+        List<String> all = new ArrayList<>(more.size() + 1);
+        all.add(first);
+        all.addAll(more);
+        return Collections.unmodifiableList(all);
+    }
+
+    /**
+     * Values of the lower-case {@code name} after the one {@link #asMap()} holds.
+     */
+    List<String> additionalValues(String lowerCaseName) {
+        List<String> more = repeated == null ? null : repeated.get(lowerCaseName);
+        return more == null ? List.of() : Collections.unmodifiableList(more);
+    }
+
     public Optional<String> find(String name) {
         return Optional.ofNullable(get(name));
     }
@@ -28,6 +87,17 @@ public final class HttpHeaders {
         return headers.containsKey(normalize(name));
     }
 
+    public void remove(String name) {
+        String key = normalize(name);
+        headers.remove(key);
+        if (repeated != null) {
+            repeated.remove(key);
+        }
+    }
+
+    /**
+     * The first value of each field; see {@link #additionalValues} for the rest.
+     */
     public Map<String, String> asMap() {
         return Collections.unmodifiableMap(headers);
     }
@@ -1,17 +1,27 @@
 package edu.fiu.cop6727.webserver;
 
-import java.util.Arrays;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Locale;
 import java.util.Objects;
 
 /**
- * Immutable HTTP request data holder.
+ * HTTP request data holder. The head is immutable; the body is attached by the server engine according to
+ * the route's {@link RequestBodyPolicy}, either fully buffered or as a stream read straight off the
+ * connection.
  */
 public final class HttpRequest {
     private final String method;
     private final String path;
     private final String httpVersion;
     private final HttpHeaders headers;
-    private final byte[] body;
+    /** Declared body length, or -1 for a chunked body or an HTTP/2 body without one. */
+    private final long contentLength;
+    private final boolean chunked;
+    private byte[] body;
+    private InputStream bodyStream;
+    /** Route resolved by {@link RequestRouter}, kept because the engines consult it several times. */
+    private RouteTable.Match routeMatch;
 
     public HttpRequest(String method, String path, String httpVersion, HttpHeaders headers, byte[] body) {
         this.method = Objects.requireNonNull(method, "method");
@@ -19,6 +29,21 @@ public final class HttpRequest {
         this.httpVersion = Objects.requireNonNull(httpVersion, "httpVersion");
         this.headers = Objects.requireNonNull(headers, "headers");
         this.body = body == null ? new byte[0] : body;
+        this.contentLength = this.body.length;
+        this.chunked = false;
+    }
+
+    /**
+     * Request head as parsed off the wire; the body is attached once the route's policy is known.
+     */
+    HttpRequest(String method, String path, String httpVersion, HttpHeaders headers, long contentLength,
+                boolean chunked) {
+        this.method = Objects.requireNonNull(method, "method");
+        this.path = Objects.requireNonNull(path, "path");
+        this.httpVersion = Objects.requireNonNull(httpVersion, "httpVersion");
+        this.headers = Objects.requireNonNull(headers, "headers");
+        this.contentLength = contentLength;
+        this.chunked = chunked;
     }
 
     public String getMethod() {
@@ -37,11 +62,99 @@ public final class HttpRequest {
         return headers;
     }
 
+    /**
+     * The buffered body. The array is shared rather than copied, so callers must not modify it.
+     *
+     * @throws IllegalStateException if the route streams its body; use {@link #getBodyStream()}
+     */
     public byte[] getBody() {
-        return Arrays.copyOf(body, body.length);
+        if (bodyStream != null) {
+            throw new IllegalStateException("Request body is streamed; read it with getBodyStream()");
+        }
+        return body == null ? new byte[0] : body;
+    }
+
+    /**
+     * The body as a stream. For a streaming route this reads straight from the connection, decoding the
+     * chunked coding if needed, and can be read only once.
+     */
+    public InputStream getBodyStream() {
+        if (bodyStream != null) {
+            return bodyStream;
+        }
+        return body == null ? InputStream.nullInputStream() : new ByteArrayInputStream(body);
     }
 
     public boolean hasBody() {
-        return body.length > 0;
+        return body != null ? body.length > 0 : chunked || contentLength > 0;
+    }
+
+    /**
+     * Declared body length, or -1 when the body is sent with the chunked transfer coding or, over HTTP/2,
+     * without a {@code content-length}.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Whether the body's length is unknown until it ends: chunked, or an HTTP/2 body without a declared length.
+     */
+    boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * Whether the client waits for {@code 100 Continue} before sending the body.
+     *
+     * @throws BadRequestException with 417 for any expectation other than {@code 100-continue}
+     */
+    boolean expectsContinue() throws BadRequestException {
+        String expect = headers.get("expect");
+        if (expect == null) {
+            return false;
+        }
+        if (!"100-continue".equalsIgnoreCase(expect.trim())) {
+            throw new BadRequestException("Unsupported expectation", HttpStatus.EXPECTATION_FAILED);
+        }
+        return "HTTP/1.1".equals(httpVersion) && hasBody();
+    }
+
+    void attachBody(byte[] body) {
+        this.body = body;
+    }
+
+    void attachBodyStream(InputStream bodyStream) {
+        this.bodyStream = bodyStream;
+    }
+
+    RouteTable.Match getRouteMatch() {
+        return routeMatch;
+    }
+
+    void setRouteMatch(RouteTable.Match routeMatch) {
+        this.routeMatch = routeMatch;
+    }
+
+    /**
+     * Whether the client asked to reuse the connection: HTTP/1.1 persists unless it sends
+     * {@code Connection: close}, HTTP/1.0 only persists with an explicit {@code Connection: keep-alive}.
+     */
+    public boolean isKeepAliveRequested() {
+        boolean http11 = "HTTP/1.1".equals(httpVersion);
+        String connection = headers.get("connection");
+        if (connection == null) {
+            return http11;
+        }
+        for (String token : connection.split(",")) {
+            String option = token.trim().toLowerCase(Locale.ROOT);
+            if ("close".equals(option)) {
+                return false;
+            }
+            if ("keep-alive".equals(option)) {
+                return true;
+            }
+        }
+        return http11;
     }
 }
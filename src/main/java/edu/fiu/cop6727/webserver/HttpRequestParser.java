@@ -0,0 +1,294 @@
+package edu.fiu.cop6727.webserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP/1.x request parser. Bytes are fed in whatever chunks the transport delivers; complete
+ * lines are parsed straight out of the caller's buffer and only a line split across two chunks is copied
+ * into a small scratch buffer, so the same instance serves the blocking {@link ClientHandler} and the
+ * non-blocking {@link NioServerEngine}. Methods, versions and common header names are mapped to shared
+ * constants instead of allocating new strings.
+ * <p>
+ * The parser stops at the end of the head: the body, if any, is left in the caller's buffer for a
+ * {@link RequestBodyDecoder}, so each route can decide how much of it to accept and whether to buffer or
+ * stream it. One parser instance belongs to one connection and is reused for every request on it.
+ */
+final class HttpRequestParser {
+    static final int MAX_HEADER_BYTES = 16 * 1024; // 16KB
+
+    private static final String[] METHODS = {"GET", "POST", "HEAD", "PUT", "DELETE", "OPTIONS", "PATCH"};
+    private static final String[] VERSIONS = {"HTTP/1.1", "HTTP/1.0"};
+    private static final String[] HEADER_NAMES = {
+            "host", "connection", "content-length", "content-type", "accept", "accept-encoding",
+            "accept-language", "user-agent", "range", "if-range", "if-none-match", "if-modified-since",
+            "transfer-encoding", "expect", "cookie", "cache-control", "upgrade", "referer", "origin",
+            "pragma", "authorization", "keep-alive", "te"
+    };
+    private static final String[] HEADER_VALUES = {"keep-alive", "close", "gzip, deflate", "*/*", "no-cache"};
+    private static final byte[][] METHOD_BYTES = ascii(METHODS);
+    private static final byte[][] VERSION_BYTES = ascii(VERSIONS);
+    private static final byte[][] HEADER_NAME_BYTES = ascii(HEADER_NAMES);
+    private static final byte[][] HEADER_VALUE_BYTES = ascii(HEADER_VALUES);
+
+    private static final int REQUEST_LINE = 0;
+    private static final int HEADERS = 1;
+    private static final int COMPLETE = 2;
+
+    private int state = REQUEST_LINE;
+    private byte[] scratch;
+    private int scratchLength;
+    private int headerBytes;
+
+    private String method;
+    private String path;
+    private String version;
+    private HttpHeaders headers;
+    private long contentLength;
+    private boolean chunked;
+
+    /**
+     * Consumes bytes from {@code data[offset, limit)} until one request head is complete or the input runs
+     * out.
+     *
+     * @return index of the first byte not consumed; bytes after a complete head are its body or the next
+     *         request
+     */
+    int parse(byte[] data, int offset, int limit) throws BadRequestException {
+        int position = offset;
+        while (position < limit && state != COMPLETE) {
+            int newline = indexOf(data, position, limit, (byte) '\n');
+            if (newline < 0) {
+                headerBytes += limit - position;
+                checkHeaderSize();
+                appendScratch(data, position, limit);
+                return limit;
+            }
+            headerBytes += newline + 1 - position;
+            checkHeaderSize();
+            if (scratchLength > 0) {
+                appendScratch(data, position, newline);
+                processLine(scratch, 0, scratchLength);
+                scratchLength = 0;
+            } else {
+                processLine(data, position, newline);
+            }
+            position = newline + 1;
+        }
+        return position;
+    }
+
+    boolean isComplete() {
+        return state == COMPLETE;
+    }
+
+    /**
+     * True between requests, when no byte of the next request has been seen yet.
+     */
+    boolean isIdle() {
+        return state == REQUEST_LINE && headerBytes == 0;
+    }
+
+    /**
+     * Returns the completed request head and resets the parser for the next one on the same connection.
+     */
+    HttpRequest takeRequest() {
+        if (state != COMPLETE) {
+            throw new IllegalStateException("Request is not complete");
+        }
+        HttpRequest request = new HttpRequest(method, path, version, headers, contentLength, chunked);
+        reset();
+        return request;
+    }
+
+    void reset() {
+        state = REQUEST_LINE;
+        scratchLength = 0;
+        headerBytes = 0;
+        method = null;
+        path = null;
+        version = null;
+        headers = null;
+        contentLength = 0;
+        chunked = false;
+        if (scratch != null && scratch.length > 1024) {
+            scratch = null; // do not pin a large scratch buffer on an idle connection
+        }
+    }
+
+    /**
+     * @param end index of the terminating LF; a preceding CR is stripped
+     */
+    private void processLine(byte[] data, int start, int end) throws BadRequestException {
+        if (end > start && data[end - 1] == '\r') {
+            end--;
+        }
+        if (state == REQUEST_LINE) {
+            if (end == start) {
+                headerBytes = 0; // tolerate stray CRLFs between pipelined requests
+                return;
+            }
+            parseRequestLine(data, start, end);
+            headers = new HttpHeaders();
+            state = HEADERS;
+            return;
+        }
+        if (end == start) {
+            finishHeaders();
+            return;
+        }
+        parseHeaderLine(data, start, end);
+    }
+
+    private void parseRequestLine(byte[] data, int start, int end) throws BadRequestException {
+        int firstSpace = indexOf(data, start, end, (byte) ' ');
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(data, firstSpace + 1, end, (byte) ' ');
+        if (firstSpace <= start || secondSpace < 0 || secondSpace == firstSpace + 1 || secondSpace + 1 >= end) {
+            throw new BadRequestException("Malformed request line");
+        }
+        method = token(data, start, firstSpace, METHOD_BYTES, METHODS, false);
+        path = new String(data, firstSpace + 1, secondSpace - firstSpace - 1, StandardCharsets.ISO_8859_1);
+        int versionEnd = trimEnd(data, secondSpace + 1, end);
+        version = token(data, secondSpace + 1, versionEnd, VERSION_BYTES, VERSIONS, false);
+    }
+
+    private void parseHeaderLine(byte[] data, int start, int end) throws BadRequestException {
+        int colon = indexOf(data, start, end, (byte) ':');
+        int nameEnd = colon < 0 ? -1 : trimEnd(data, start, colon);
+        if (nameEnd <= start) {
+            throw new BadRequestException("Malformed header line");
+        }
+        int valueStart = trimStart(data, colon + 1, end);
+        int valueEnd = trimEnd(data, valueStart, end);
+        String name = token(data, start, nameEnd, HEADER_NAME_BYTES, HEADER_NAMES, true);
+        String value = token(data, valueStart, valueEnd, HEADER_VALUE_BYTES, HEADER_VALUES, false);
+        if ("content-length".equals(name)) {
+            contentLength = parseContentLength(data, valueStart, valueEnd);
+        }
+        headers.setNormalized(name, value);
+    }
+
+    /**
+     * Settles the body framing. A request carrying both headers is rejected rather than guessed at, as either
+     * choice lets a proxy in front of the server disagree about where the next request starts.
+     */
+    private void finishHeaders() throws BadRequestException {
+        String transferEncoding = headers.get("transfer-encoding");
+        if (transferEncoding != null) {
+            if (headers.contains("content-length")) {
+                throw new BadRequestException("Both Transfer-Encoding and Content-Length sent");
+            }
+            int lastComma = transferEncoding.lastIndexOf(',');
+            String lastCoding = transferEncoding.substring(lastComma + 1).trim();
+            if (!"chunked".equalsIgnoreCase(lastCoding)) {
+                throw new BadRequestException("Unsupported Transfer-Encoding");
+            }
+            chunked = true;
+            contentLength = -1;
+        }
+        state = COMPLETE;
+    }
+
+    private void checkHeaderSize() throws BadRequestException {
+        if (headerBytes > MAX_HEADER_BYTES) {
+            throw new BadRequestException("Headers too large");
+        }
+    }
+
+    private void appendScratch(byte[] data, int from, int to) {
+        int length = to - from;
+        if (scratch == null) {
+            scratch = new byte[Math.max(256, length)];
+        } else if (scratchLength + length > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, scratchLength + length));
+        }
+        System.arraycopy(data, from, scratch, scratchLength, length);
+        scratchLength += length;
+    }
+
+    private static long parseContentLength(byte[] data, int start, int end) throws BadRequestException {
+        if (start == end) {
+            throw new BadRequestException("Invalid Content-Length header");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new BadRequestException("Invalid Content-Length header");
+            }
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                throw new BadRequestException("Payload too large", HttpStatus.PAYLOAD_TOO_LARGE);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Returns a shared constant when the bytes spell one of {@code candidates}, otherwise a new string.
+     * With {@code lowerCase}, matching ignores ASCII case and new strings are lower-cased.
+     */
+    private static String token(byte[] data, int start, int end, byte[][] candidateBytes, String[] candidates,
+                                boolean lowerCase) {
+        int length = end - start;
+        for (int c = 0; c < candidateBytes.length; c++) {
+            byte[] candidate = candidateBytes[c];
+            if (candidate.length == length && regionMatches(data, start, candidate, lowerCase)) {
+                return candidates[c];
+            }
+        }
+        if (!lowerCase) {
+            return new String(data, start, length, StandardCharsets.ISO_8859_1);
+        }
+        byte[] lowered = new byte[length];
+        for (int i = 0; i < length; i++) {
+            lowered[i] = toLower(data[start + i]);
+        }
+        return new String(lowered, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean regionMatches(byte[] data, int start, byte[] candidate, boolean ignoreCase) {
+        for (int i = 0; i < candidate.length; i++) {
+            byte b = data[start + i];
+            if (b != candidate[i] && (!ignoreCase || toLower(b) != candidate[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte target) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int trimStart(byte[] data, int from, int to) {
+        while (from < to && (data[from] == ' ' || data[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] data, int from, int to) {
+        while (to > from && (data[to - 1] == ' ' || data[to - 1] == '\t')) {
+            to--;
+        }
+        return to;
+    }
+
+    private static byte[][] ascii(String[] values) {
+        byte[][] encoded = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = values[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return encoded;
+    }
+}
@@ -2,42 +2,158 @@ package edu.fiu.cop6727.webserver;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Objects;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 
 /**
- * Represents an HTTP response ready to be serialized on a socket.
+ * Represents an HTTP response ready to be serialized on a socket. The body is an in-memory byte array, a
+ * list of {@link BodySegment}s, or a {@link ResponseBodyWriter} that generates it while it is sent. File
+ * segments are streamed with {@link FileChannel#transferTo} (sendfile on Linux) so large downloads never
+ * occupy heap, and stream segments are copied through a small buffer. Generated bodies, and segment lists
+ * whose length is unknown, use the chunked transfer coding when the client supports it.
  */
 public final class HttpResponse {
-    private static final DateTimeFormatter HTTP_DATE =
-            DateTimeFormatter.RFC_1123_DATE_TIME;
+    /** In-memory bodies up to this size are copied behind the head so the response leaves in one write. */
+    static final int INLINE_BODY_BYTES = 8 * 1024;
+
+    private static final String SERVER = "COP6727-ConcurrentServer/1.0";
+    private static final Map<String, byte[]> HEADER_NAMES = encodeHeaderNames(
+            "Server", "Date", "Content-Type", "Content-Length", "Connection", "Keep-Alive", "ETag",
+            "Last-Modified", "Accept-Ranges", "Content-Range", "Content-Encoding", "Vary", "Cache-Control",
+            "Location", "Allow", "Retry-After", "Transfer-Encoding");
+    private static final byte[] DATE_NAME = HEADER_NAMES.get("date");
+    private static final byte[] CONTENT_LENGTH_NAME = HEADER_NAMES.get("content-length");
+    private static final byte[] CONNECTION_CLOSE = "Connection: close\r\n".getBytes(StandardCharsets.US_ASCII);
+    /** Interim response sent before reading a body the client holds back with {@code Expect: 100-continue}. */
+    static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
 
     private HttpStatus status;
+    /** Code and status line sent instead of {@link #status}'s, for a code without a constant; else 0 and null. */
+    private int statusCode;
+    private byte[] statusLine;
     private final HttpHeaders headers = new HttpHeaders();
     private byte[] body = new byte[0];
+    private List<BodySegment> segments;
+    private ResponseBodyWriter bodyWriter;
+    private boolean chunked;
 
     public HttpResponse(HttpStatus status) {
         this.status = Objects.requireNonNull(status, "status");
-        headers.set("server", "COP6727-ConcurrentServer/1.0");
-        headers.set("connection", "close");
+        headers.setNormalized("server", SERVER);
     }
 
     public void setStatus(HttpStatus status) {
         this.status = status;
+        statusCode = 0;
+        statusLine = null;
+    }
+
+    /**
+     * A response with any status from 200 to 599, such as one relayed from an upstream. A code {@link HttpStatus}
+     * has no constant for is sent as given, while {@link #getStatus()} reports the status of its class, which
+     * is how the server itself treats the response.
+     *
+     * @throws IllegalArgumentException for a code outside 200 to 599
+     */
+    static HttpResponse withStatusCode(int code, String reason) {
+        HttpStatus known = HttpStatus.fromCode(code);
+        if (known != null) {
+            return new HttpResponse(known);
+        }
+        HttpStatus generic = HttpStatus.ofClass(code);
+        if (generic == null) {
+            throw new IllegalArgumentException("Not a final status: " + code);
+        }
+        HttpResponse response = new HttpResponse(generic);
+        response.statusCode = code;
+        response.statusLine = ("HTTP/1.1 " + code + " " + reason + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        return response;
     }
 
     public void setHeader(String name, String value) {
         headers.set(name, value);
     }
 
+    /**
+     * Adds another value for {@code name}, sent on its own line; for fields such as {@code Set-Cookie} that
+     * must not be combined.
+     */
+    public void addHeader(String name, String value) {
+        headers.add(name, value);
+    }
+
     public void setBody(byte[] data) {
         body = data == null ? new byte[0] : data;
+        segments = null;
+        bodyWriter = null;
         headers.set("content-length", String.valueOf(body.length));
     }
 
+    /**
+     * Sets a shared, pre-measured body such as a cached file without recomputing its length.
+     */
+    void setBody(byte[] data, String contentLength) {
+        body = data;
+        segments = null;
+        bodyWriter = null;
+        headers.set("content-length", contentLength);
+    }
+
+    /**
+     * Streams {@code length} bytes of {@code file} starting at {@code offset} as the body. The file is opened
+     * only when the response is written.
+     */
+    public void setFileBody(Path file, long offset, long length) {
+        setBodySegments(List.of(BodySegment.file(file, offset, length)));
+    }
+
+    /**
+     * Sets a body made of consecutive segments, e.g. a slice of a cached file or a multipart/byteranges body.
+     * Without a known length the segments are sent like a generated body.
+     */
+    void setBodySegments(List<BodySegment> bodySegments) {
+        List<BodySegment> copy = List.copyOf(bodySegments);
+        body = new byte[0];
+        segments = copy;
+        bodyWriter = null;
+        long length = getBodyLength();
+        if (length < 0) {
+            setStreamingBody(sink -> copySegments(copy, sink));
+        } else {
+            headers.set("content-length", String.valueOf(length));
+        }
+    }
+
+    /**
+     * Generates the body while the response is sent instead of holding it in memory. Unless the handler sets
+     * Content-Length itself, HTTP/1.1 clients receive it chunked and keep their connection, while HTTP/1.0
+     * clients read until the connection closes.
+     */
+    public void setStreamingBody(ResponseBodyWriter writer) {
+        body = new byte[0];
+        segments = null;
+        bodyWriter = Objects.requireNonNull(writer, "writer");
+        headers.remove("content-length");
+    }
+
+    /**
+     * Drops the body for responses that must not carry one (304 Not Modified).
+     */
+    void clearBody() {
+        body = new byte[0];
+        segments = null;
+        bodyWriter = null;
+        headers.remove("content-length");
+    }
+
     public void setBodyText(String text, String contentType) {
         byte[] data = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
         setBody(data);
@@ -48,45 +164,254 @@ public final class HttpResponse {
         return status;
     }
 
-    public void write(OutputStream outputStream) throws IOException {
-        headers.set("date", HTTP_DATE.format(ZonedDateTime.now()));
-        if (!headers.contains("content-length")) {
-            headers.set("content-length", String.valueOf(body.length));
-        }
-        StringBuilder builder = new StringBuilder();
-        builder.append("HTTP/1.1 ")
-                .append(status.code())
-                .append(' ')
-                .append(status.reason())
-                .append("\r\n");
-        headers.asMap().forEach((name, value) ->
-                builder.append(capitalizeHeaderName(name))
-                        .append(':')
-                        .append(' ')
-                        .append(value)
-                        .append("\r\n"));
-        builder.append("\r\n");
-        outputStream.write(builder.toString().getBytes(StandardCharsets.US_ASCII));
-        outputStream.write(body);
+    /**
+     * The code sent to the client, which differs from {@link #getStatus()} for a code without a constant.
+     */
+    int getStatusCode() {
+        return statusCode != 0 ? statusCode : status.code();
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    boolean hasBodySegments() {
+        return segments != null;
+    }
+
+    List<BodySegment> getBodySegments() {
+        return segments;
+    }
+
+    byte[] getBodyBytes() {
+        return body;
+    }
+
+    boolean isStreaming() {
+        return bodyWriter != null;
+    }
+
+    /**
+     * Chooses how a generated body is delimited for {@code request}: chunked for HTTP/1.1 clients, by closing
+     * the connection otherwise. Engines call this before deciding whether the connection stays open. Only a
+     * chunked body can carry trailers, so any other drops the {@code Trailer} announcement.
+     */
+    void applyFraming(HttpRequest request) {
+        if (bodyWriter != null && !headers.contains("content-length")
+                && "HTTP/1.1".equals(request.getHttpVersion())) {
+            chunked = true;
+            headers.set("transfer-encoding", "chunked");
+        }
+        if (!chunked) {
+            headers.remove("trailer");
+        }
+    }
+
+    /**
+     * Number of body bytes that will be written, across all segments, or -1 if a stream segment has no known
+     * length.
+     */
+    long getBodyLength() {
+        if (bodyWriter != null) {
+            return -1;
+        }
+        if (segments == null) {
+            return body.length;
+        }
+        long length = 0;
+        for (BodySegment segment : segments) {
+            if (segment.getLength() < 0) {
+                return -1;
+            }
+            length += segment.getLength();
+        }
+        return length;
+    }
+
+    /**
+     * Whether the client can tell where the body ends without the connection being closed.
+     */
+    boolean hasKnownLength() {
+        return bodyWriter == null || chunked || headers.contains("content-length");
+    }
+
+    /**
+     * @return number of bytes written, head included
+     */
+    public long write(OutputStream outputStream) throws IOException {
+        return write(outputStream, null);
+    }
+
+    /**
+     * Writes the response, sending a file body through {@code channel} when one is available so the kernel
+     * can copy it straight from the page cache to the socket. The head and a small body go out in one write.
+     *
+     * @return number of bytes written, head included
+     */
+    long write(OutputStream outputStream, WritableByteChannel channel) throws IOException {
+        ResponseBuffer buffer = ResponseBuffer.acquire();
+        long written;
+        boolean bodyIncluded;
+        try {
+            bodyIncluded = encodeInto(buffer);
+            outputStream.write(buffer.array(), 0, buffer.length());
+            written = buffer.length();
+        } finally {
+            buffer.release();
+        }
+        if (bodyIncluded) {
+            outputStream.flush();
+            return written;
+        }
+        if (bodyWriter != null) {
+            return written + writeStreamingBody((data, offset, length, flush) -> {
+                outputStream.write(data, offset, length);
+                if (flush) {
+                    outputStream.flush();
+                }
+            });
+        }
+        if (segments == null) {
+            outputStream.write(body);
+            outputStream.flush();
+            return written + body.length;
+        }
+        WritableByteChannel target = channel != null ? channel : Channels.newChannel(outputStream);
+        for (BodySegment segment : segments) {
+            if (segment.isFile()) {
+                outputStream.flush();
+                segment.transferFileTo(target);
+                written += segment.getLength();
+            } else if (segment.isStream()) {
+                written += segment.copyStreamTo(outputStream);
+            } else {
+                outputStream.write(segment.getBytes(), (int) segment.getOffset(), (int) segment.getLength());
+                written += segment.getLength();
+            }
+        }
         outputStream.flush();
+        return written;
+    }
+
+    /**
+     * Runs the body writer against {@code transport}, framing its output as chosen by {@link #applyFraming}.
+     *
+     * @return number of bytes sent, framing included
+     */
+    long writeStreamingBody(ResponseSink.Transport transport) throws IOException {
+        ResponseSink sink = new ResponseSink(transport, chunked);
+        writeStreamingBody(sink);
+        return sink.getBytesSent();
     }
 
-    private String capitalizeHeaderName(String header) {
-        String[] parts = header.split("-");
-        StringBuilder formatted = new StringBuilder();
-        for (int i = 0; i < parts.length; i++) {
-            if (i > 0) {
-                formatted.append('-');
+    /**
+     * Runs the body writer against {@code sink} and closes it, for transports that frame the body
+     * themselves.
+     */
+    void writeStreamingBody(ResponseSink sink) throws IOException {
+        try {
+            bodyWriter.writeBody(sink);
+        } catch (RuntimeException e) {
+            throw new IOException("Response body writer failed", e);
+        }
+        sink.close();
+    }
+
+    /**
+     * Writes a body of segments to {@code sink} and closes it, for transports that must not read stream
+     * segments on their own thread.
+     */
+    void writeBodySegments(ResponseSink sink) throws IOException {
+        copySegments(segments, sink);
+        sink.close();
+    }
+
+    /**
+     * Serializes the status line and headers into {@code buffer}, stamping Date and filling in
+     * Content-Length and Connection when the handler did not set them. An in-memory body of at most
+     * {@link #INLINE_BODY_BYTES} is appended as well.
+     *
+     * @return true if the body was included, false if the caller must still send it
+     */
+    boolean encodeInto(ResponseBuffer buffer) {
+        buffer.put(statusLine != null ? statusLine : status.statusLine());
+        if (!headers.contains("date")) {
+            buffer.put(DATE_NAME);
+            buffer.put(HttpDates.currentBytes());
+            buffer.putCrlf();
+        }
+        for (Map.Entry<String, String> header : headers.asMap().entrySet()) {
+            putHeaderName(buffer, header.getKey());
+            buffer.putAscii(header.getValue());
+            buffer.putCrlf();
+            for (String value : headers.additionalValues(header.getKey())) {
+                putHeaderName(buffer, header.getKey());
+                buffer.putAscii(value);
+                buffer.putCrlf();
             }
-            if (parts[i].isEmpty()) {
-                continue;
+        }
+        if (segments == null && bodyWriter == null && !headers.contains("content-length")
+                && status != HttpStatus.NOT_MODIFIED) {
+            buffer.put(CONTENT_LENGTH_NAME);
+            buffer.putDecimal(body.length);
+            buffer.putCrlf();
+        }
+        if (!headers.contains("connection")) {
+            buffer.put(CONNECTION_CLOSE);
+        }
+        buffer.putCrlf();
+        if (segments == null && bodyWriter == null && body.length <= INLINE_BODY_BYTES) {
+            buffer.put(body);
+            return true;
+        }
+        return false;
+    }
+
+    private static void copySegments(List<BodySegment> segments, ResponseSink sink) throws IOException {
+        for (BodySegment segment : segments) {
+            if (segment.isFile()) {
+                segment.transferFileTo(Channels.newChannel(sink));
+            } else if (segment.isStream()) {
+                segment.copyStreamTo(sink);
+            } else {
+                sink.write(segment.getBytes(), (int) segment.getOffset(), (int) segment.getLength());
             }
-            formatted.append(Character.toUpperCase(parts[i].charAt(0)));
-            if (parts[i].length() > 1) {
-                formatted.append(parts[i].substring(1).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Writes {@code Name: } for a lower-case header name, from the pre-encoded table for common headers and
+     * otherwise by capitalizing each dash-separated word in place.
+     */
+    private static void putHeaderName(ResponseBuffer buffer, String name) {
+        byte[] encoded = HEADER_NAMES.get(name);
+        if (encoded != null) {
+            buffer.put(encoded);
+            return;
+        }
+        boolean wordStart = true;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 0x80) {
+                c = '?';
             }
+            buffer.put((byte) (wordStart ? Character.toUpperCase(c) : c));
+            wordStart = c == '-';
+        }
+        buffer.put((byte) ':');
+        buffer.put((byte) ' ');
+    }
+
+    private static Map<String, byte[]> encodeHeaderNames(String... names) {
+        Map<String, byte[]> encoded = new HashMap<>();
+        for (String name : names) {
+            encoded.put(name.toLowerCase(Locale.ROOT), (name + ": ").getBytes(StandardCharsets.US_ASCII));
         }
-        return formatted.toString();
+        return Map.copyOf(encoded);
     }
 
     public static HttpResponse text(HttpStatus status, String body) {
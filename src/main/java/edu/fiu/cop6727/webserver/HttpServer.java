@@ -3,51 +3,147 @@ package edu.fiu.cop6727.webserver;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Main server entry point. Listens for incoming connections and hands them to worker threads.
+ * Main server entry point. Listens for incoming connections and hands them to worker threads. With several
+ * acceptors, the blocking engine runs one accept loop per acceptor, each on its own listener where
+ * {@code SO_REUSEPORT} allows and each feeding its own worker group.
  */
 public final class HttpServer {
     private final ServerConfig config;
     private final ServerLogger logger;
+    private final ServerMetrics metrics = new ServerMetrics();
     private final RequestRouter router;
-    private final ExecutorService workerPool;
+    private final ExecutorService[] workerGroups;
+    private final AdmissionControl admission;
     private final AtomicBoolean running = new AtomicBoolean(false);
 
-    private ServerSocket serverSocket;
+    private AccessLog accessLog;
+    private volatile List<ServerSocketChannel> listeners = List.of();
+    private volatile NioServerEngine nioEngine;
 
     public HttpServer(ServerConfig config, ServerLogger logger) {
         this.config = config;
         this.logger = logger;
-        this.router = new RequestRouter(config.getDocumentRoot(), logger);
-        this.workerPool = Executors.newFixedThreadPool(config.getMaxThreads());
+        this.router = new RequestRouter(config, logger, metrics);
+        int groups = config.getEngine() == ServerConfig.Engine.BLOCKING ? Math.max(1, config.getAcceptorThreads()) : 1;
+        this.workerGroups = WorkerExecutors.createGroups(config, logger, groups);
+        this.admission = new AdmissionControl(config);
+        admission.registerMetrics(metrics);
+        metrics.register("http_server_worker_active", "gauge", "Worker tasks currently running.",
+                () -> Arrays.stream(workerGroups).mapToLong(WorkerExecutors::activeCount).sum());
+        metrics.register("http_server_worker_queue_depth", "gauge",
+                "Worker tasks waiting for a thread or concurrency permit.",
+                () -> Arrays.stream(workerGroups).mapToLong(WorkerExecutors::queueDepth).sum());
+        metrics.register("http_server_timer_pending", "gauge",
+                "Delayed asynchronous responses waiting on the shared timer.", ServerTimer::pendingCount);
     }
 
     public void start() throws IOException {
+        long startNanos = System.nanoTime();
         ensureDocumentRoot();
-        serverSocket = new ServerSocket(config.getPort());
-        serverSocket.setReuseAddress(true);
+        accessLog = AccessLog.create(config, logger);
+        AccessLog log = accessLog;
+        metrics.register("http_server_access_log_dropped_total", "counter",
+                "Access log records discarded because the buffer was full.", log::getDroppedCount);
+        if (config.isWarmupEnabled()) {
+            if (config.isWarmupBeforeListen()) {
+                warmUp();
+            } else {
+                Thread warmup = new Thread(this::warmUp, "warmup");
+                warmup.setDaemon(true);
+                warmup.start();
+            }
+        }
+        if (config.getEngine() == ServerConfig.Engine.NIO) {
+            startNio(startNanos);
+            return;
+        }
+        // Channel-backed sockets let responses use FileChannel.transferTo for file bodies.
+        listeners = ServerSockets.openListeners(config, logger);
         running.set(true);
-        logger.info("Server listening on port " + config.getPort());
+        logger.info("Server listening on port " + config.getPort() + " (" + describeAcceptors()
+                + describeWorkers() + ")" + startedIn(startNanos));
 
         Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
 
+        Thread[] acceptors = new Thread[workerGroups.length];
+        for (int i = 1; i < acceptors.length; i++) {
+            int index = i;
+            acceptors[i] = new Thread(() -> acceptConnections(index), "acceptor-" + i);
+            acceptors[i].start();
+        }
+        acceptConnections(0);
+        for (int i = 1; i < acceptors.length; i++) {
+            try {
+                acceptors[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void acceptConnections(int index) {
+        ServerSocket serverSocket = listeners.get(index % listeners.size()).socket();
+        ExecutorService workers = workerGroups[index];
         while (running.get()) {
+            Socket clientSocket;
             try {
-                Socket clientSocket = serverSocket.accept();
-                workerPool.submit(new ClientHandler(clientSocket, router, logger, config.getSocketTimeoutMillis()));
-            } catch (SocketException e) {
+                clientSocket = serverSocket.accept();
+            } catch (IOException e) {
+                // Closing the listener from stop() surfaces here as an AsynchronousCloseException.
                 if (running.get()) {
                     logger.error("Socket exception in accept loop", e);
                 }
                 break;
             }
+            try {
+                ServerSockets.configureAccepted(clientSocket.getChannel(), config);
+            } catch (IOException e) {
+                // Reset before we got to it; nothing was counted yet.
+                closeQuietly(clientSocket);
+                continue;
+            }
+            ClientLimiter.Client client = admission.admitConnection(clientSocket.getInetAddress());
+            if (client == null) {
+                admission.rejectClient(clientSocket, logger);
+                continue;
+            }
+            try {
+                workers.submit(new ClientHandler(clientSocket, router, logger, accessLog, metrics, admission,
+                        client, workers, config));
+            } catch (RejectedExecutionException e) {
+                // Queue full: answer from the accept thread rather than queueing until the client times out.
+                admission.rejectConnection(clientSocket, logger);
+                metrics.connectionClosed();
+                client.release();
+            }
+        }
+    }
+
+    private void startNio(long startNanos) throws IOException {
+        nioEngine = new NioServerEngine(config, router, logger, accessLog, metrics, admission, workerGroups[0]);
+        nioEngine.start();
+        running.set(true);
+        logger.info("Server listening on port " + config.getPort() + " (nio engine, "
+                + nioEngine.getEventLoopCount() + " event loops, " + nioEngine.getListenerCount() + " listeners)"
+                + startedIn(startNanos));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+
+        try {
+            nioEngine.awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -56,22 +152,79 @@ public final class HttpServer {
             return;
         }
         logger.info("Shutting down server");
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+        if (nioEngine != null) {
+            nioEngine.stop();
+        }
+        for (ServerSocketChannel listener : listeners) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                logger.error("Error closing server socket", e);
             }
-        } catch (IOException e) {
-            logger.error("Error closing server socket", e);
         }
-        workerPool.shutdown();
-        try {
-            if (!workerPool.awaitTermination(5, TimeUnit.SECONDS)) {
-                workerPool.shutdownNow();
+        for (ExecutorService workers : workerGroups) {
+            workers.shutdown();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (ExecutorService workers : workerGroups) {
+            try {
+                if (!workers.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    workers.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                workers.shutdownNow();
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            workerPool.shutdownNow();
         }
+        router.close();
+        accessLog.close();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void warmUp() {
+        try {
+            router.warmUp(Math.min(config.getWarmupMaxBytes(), config.getCacheMaxBytes()),
+                    config.isWarmupPrecompress());
+        } catch (IOException | RuntimeException e) {
+            logger.error("Warm-up failed; serving from cold caches", e);
+        }
+    }
+
+    private static String startedIn(long startNanos) {
+        return " after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms";
+    }
+
+    private String describeAcceptors() {
+        if (workerGroups.length == 1) {
+            return "";
+        }
+        return workerGroups.length + " acceptors on " + listeners.size()
+                + (listeners.size() > 1 ? " SO_REUSEPORT listeners, " : " shared listener, ");
+    }
+
+    /**
+     * Worker totals as the groups actually run them, which can exceed the configured ones after splitting.
+     */
+    private String describeWorkers() {
+        int count = workerGroups.length;
+        int queueCapacity = WorkerExecutors.effectiveTotal(config.getQueueCapacity(), count);
+        String queue = queueCapacity > 0 ? "queue " + queueCapacity : "unbounded queue";
+        String groups = count > 1 ? " in " + count + " groups" : "";
+        if (config.getWorkerMode() == ServerConfig.WorkerMode.VIRTUAL && !WorkerExecutors.virtualThreadsAvailable()) {
+            return "up to " + WorkerExecutors.effectiveTotal(Math.max(1, config.getMaxConcurrency()), count)
+                    + " platform worker threads in place of virtual threads" + groups + ", " + queue;
+        }
+        return config.getWorkerMode() == ServerConfig.WorkerMode.VIRTUAL
+                ? "virtual-thread workers" + groups + ", max concurrency "
+                        + WorkerExecutors.effectiveTotal(config.getMaxConcurrency(), count) + ", " + queue
+                : WorkerExecutors.effectiveTotal(Math.max(1, config.getMaxThreads()), count) + " worker threads"
+                        + groups + ", " + queue;
     }
 
     private void ensureDocumentRoot() throws IOException {
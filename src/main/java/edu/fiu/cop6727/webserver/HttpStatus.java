@@ -1,28 +1,62 @@
 package edu.fiu.cop6727.webserver;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Enum of HTTP status codes used by the server.
  */
 public enum HttpStatus {
+    CONTINUE(100, "Continue"),
     OK(200, "OK"),
     CREATED(201, "Created"),
+    ACCEPTED(202, "Accepted"),
     NO_CONTENT(204, "No Content"),
+    PARTIAL_CONTENT(206, "Partial Content"),
+    MULTIPLE_CHOICES(300, "Multiple Choices"),
+    MOVED_PERMANENTLY(301, "Moved Permanently"),
+    FOUND(302, "Found"),
+    SEE_OTHER(303, "See Other"),
+    NOT_MODIFIED(304, "Not Modified"),
+    TEMPORARY_REDIRECT(307, "Temporary Redirect"),
+    PERMANENT_REDIRECT(308, "Permanent Redirect"),
     BAD_REQUEST(400, "Bad Request"),
     UNAUTHORIZED(401, "Unauthorized"),
     FORBIDDEN(403, "Forbidden"),
     NOT_FOUND(404, "Not Found"),
     METHOD_NOT_ALLOWED(405, "Method Not Allowed"),
+    NOT_ACCEPTABLE(406, "Not Acceptable"),
+    REQUEST_TIMEOUT(408, "Request Timeout"),
+    CONFLICT(409, "Conflict"),
+    GONE(410, "Gone"),
+    PRECONDITION_FAILED(412, "Precondition Failed"),
     PAYLOAD_TOO_LARGE(413, "Payload Too Large"),
+    UNSUPPORTED_MEDIA_TYPE(415, "Unsupported Media Type"),
+    RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"),
+    EXPECTATION_FAILED(417, "Expectation Failed"),
+    UNPROCESSABLE_CONTENT(422, "Unprocessable Content"),
+    TOO_MANY_REQUESTS(429, "Too Many Requests"),
     INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
     NOT_IMPLEMENTED(501, "Not Implemented"),
-    SERVICE_UNAVAILABLE(503, "Service Unavailable");
+    BAD_GATEWAY(502, "Bad Gateway"),
+    SERVICE_UNAVAILABLE(503, "Service Unavailable"),
+    GATEWAY_TIMEOUT(504, "Gateway Timeout");
+
+    private static final HttpStatus[] BY_CODE = new HttpStatus[600];
+
+    static {
+        for (HttpStatus status : values()) {
+            BY_CODE[status.code] = status;
+        }
+    }
 
     private final int code;
     private final String reason;
+    private final byte[] statusLine;
 
     HttpStatus(int code, String reason) {
         this.code = code;
         this.reason = reason;
+        this.statusLine = ("HTTP/1.1 " + code + " " + reason + "\r\n").getBytes(StandardCharsets.US_ASCII);
     }
 
     public int code() {
@@ -33,6 +67,39 @@ public enum HttpStatus {
         return reason;
     }
 
+    /**
+     * The constant for {@code code}, or null if this enum has none.
+     */
+    static HttpStatus fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+
+    /**
+     * The status a client treats an unrecognized {@code code} like (RFC 9110 section 15): the x00 status of
+     * its class, or null outside 200 to 599.
+     */
+    static HttpStatus ofClass(int code) {
+        switch (code / 100) {
+            case 2:
+                return OK;
+            case 3:
+                return MULTIPLE_CHOICES;
+            case 4:
+                return BAD_REQUEST;
+            case 5:
+                return INTERNAL_SERVER_ERROR;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Pre-encoded {@code HTTP/1.1 <code> <reason>} line including CRLF; callers must not modify the array.
+     */
+    byte[] statusLine() {
+        return statusLine;
+    }
+
     @Override
     public String toString() {
         return code + " " + reason;
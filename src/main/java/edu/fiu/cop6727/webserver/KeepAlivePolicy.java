@@ -0,0 +1,44 @@
+package edu.fiu.cop6727.webserver;
+
+/**
+ * Decides whether a connection stays open after a response and stamps the matching headers. A keep-alive
+ * timeout of zero or less disables keep-alive rather than letting idle connections wait forever.
+ */
+final class KeepAlivePolicy {
+    private final int keepAliveTimeoutMillis;
+    private final int maxKeepAliveRequests;
+
+    KeepAlivePolicy(int keepAliveTimeoutMillis, int maxKeepAliveRequests) {
+        this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+    }
+
+    KeepAlivePolicy(ServerConfig config) {
+        this(config.getKeepAliveTimeoutMillis(), config.getMaxKeepAliveRequests());
+    }
+
+    int getKeepAliveTimeoutMillis() {
+        return keepAliveTimeoutMillis;
+    }
+
+    /**
+     * A response that already carries {@code Connection: close}, such as one refusing a request whose body was
+     * left unread, always ends the connection.
+     *
+     * @param served number of requests served on the connection, including this one
+     */
+    boolean shouldKeepAlive(HttpRequest request, HttpResponse response, int served) {
+        return keepAliveTimeoutMillis > 0 && request.isKeepAliveRequested() && response.hasKnownLength()
+                && served < maxKeepAliveRequests && !"close".equalsIgnoreCase(response.getHeader("connection"));
+    }
+
+    void apply(HttpResponse response, boolean keepAlive, int served) {
+        if (!keepAlive) {
+            response.setHeader("connection", "close");
+            return;
+        }
+        response.setHeader("connection", "keep-alive");
+        response.setHeader("keep-alive", "timeout=" + Math.max(1, keepAliveTimeoutMillis / 1000)
+                + ", max=" + (maxKeepAliveRequests - served));
+    }
+}
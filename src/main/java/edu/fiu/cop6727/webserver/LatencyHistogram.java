@@ -0,0 +1,94 @@
+package edu.fiu.cop6727.webserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-bucketed latency histogram in microseconds, in the style of HdrHistogram: each power-of-two octave is
+ * split into four linear sub-buckets, so any recorded value is known to within 25% while the whole range from
+ * 1 microsecond to days fits in under 200 counters. Buckets are striped {@link LongAdder}s, so concurrent
+ * recording does not contend on a shared cache line.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int OCTAVES = 40;
+    private static final int BUCKETS = SUB_BUCKETS + OCTAVES * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        buckets[bucketIndex(value)].increment();
+        count.increment();
+        sumMicros.add(value);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long sumMicros() {
+        return sumMicros.sum();
+    }
+
+    /**
+     * Number of recorded values below {@code boundMicros}, counting whole buckets only; exact when the bound
+     * is a power of two.
+     */
+    long countBelow(long boundMicros) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS && upperBound(i) <= boundMicros; i++) {
+            total += buckets[i].sum();
+        }
+        return total;
+    }
+
+    /**
+     * Upper bound of the bucket holding the value at {@code quantile} (0..1), or 0 when nothing was recorded.
+     */
+    long valueAtQuantile(double quantile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        int index = SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    /**
+     * Exclusive upper bound of bucket {@code index}.
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << shift;
+    }
+}
@@ -0,0 +1,373 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived cache of dynamic GET responses for the routes named in {@code server.microCache.routes}, keyed
+ * on method, path with query, and the configured request header fields. Even a TTL of a second turns a burst
+ * of identical requests into one handler run:
+ * <ul>
+ *     <li>Concurrent misses for the same key are coalesced. The first runs the handler and the others wait
+ *     for its response. They share it only if it could be stored, and otherwise run the handler themselves,
+ *     so a response meant for one client never reaches another.</li>
+ *     <li>After the TTL an entry is served stale for {@code staleMillis} more while a single background
+ *     request refreshes it, so clients never wait for the handler once a key is warm.</li>
+ *     <li>Only complete in-memory bodies are shared. A streamed response goes to the request that produced
+ *     it, and requests waiting on it run the handler themselves.</li>
+ * </ul>
+ * Responses are stored as immutable snapshots and every hit gets its own {@link HttpResponse}, because the
+ * engines add framing headers to the response they send. Responses with {@code Set-Cookie}, a
+ * {@code Cache-Control} of {@code no-store}, {@code no-cache} or {@code private}, or a {@code Vary} on
+ * fields outside the key are neither stored nor shared. Requests with {@code Cookie} or
+ * {@code Authorization} bypass the cache unless that field is part of the key. When the stored bytes exceed
+ * the budget, expired entries are dropped first.
+ */
+final class MicroCache {
+    private static final Set<HttpStatus> CACHEABLE = EnumSet.of(HttpStatus.OK, HttpStatus.MOVED_PERMANENTLY,
+            HttpStatus.PERMANENT_REDIRECT, HttpStatus.NOT_FOUND, HttpStatus.GONE);
+    /** Request fields that identify a client; requests carrying them bypass the cache unless keyed on them. */
+    private static final List<String> CREDENTIAL_HEADERS = List.of("cookie", "authorization");
+    /** Fields the engines set per connection, which a stored response must not carry. */
+    private static final Set<String> FRAMING_HEADERS = Set.of("content-length", "connection", "keep-alive",
+            "transfer-encoding");
+    /** Rough cost of an entry beyond its body and header text. */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final Set<String> patterns;
+    private final List<String> varyHeaders;
+    private final long ttlNanos;
+    private final long staleNanos;
+    private final long maxBytes;
+    private final ServerLogger logger;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Snapshot>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    /** Runs refreshes, and handlers that may block when a coalesced request has to run its own. */
+    private final ExecutorService background = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "micro-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    MicroCache(ServerConfig config, ServerLogger logger) {
+        this.patterns = Set.copyOf(config.getMicroCacheRoutes());
+        List<String> vary = new ArrayList<>();
+        for (String name : config.getMicroCacheVaryHeaders()) {
+            vary.add(name.toLowerCase(Locale.ROOT));
+        }
+        this.varyHeaders = List.copyOf(vary);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.getMicroCacheTtlMillis()));
+        this.staleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.getMicroCacheStaleMillis()));
+        this.maxBytes = Math.max(0, config.getMicroCacheMaxBytes());
+        this.logger = logger;
+    }
+
+    /**
+     * Cache for the configured routes, or null when none is configured.
+     */
+    static MicroCache create(ServerConfig config, ServerLogger logger) {
+        return config.getMicroCacheRoutes().isEmpty() ? null : new MicroCache(config, logger);
+    }
+
+    /**
+     * Whether {@code request}, matched to {@code route}, is served through the cache.
+     */
+    boolean covers(HttpRequest request, RouteTable.Route route) {
+        if (!"GET".equals(request.getMethod()) || !patterns.contains(route.pattern())) {
+            return false;
+        }
+        for (String name : CREDENTIAL_HEADERS) {
+            if (request.getHeaders().contains(name) && !varyHeaders.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Answers {@code request} from the cache, or with the response of {@code handler}, which must never
+     * complete exceptionally. {@code blocking} handlers are only ever run on this cache's own threads or on
+     * the calling one.
+     */
+    CompletableFuture<HttpResponse> get(HttpRequest request, Supplier<CompletableFuture<HttpResponse>> handler,
+                                        boolean blocking) {
+        String key = key(request);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            long age = System.nanoTime() - entry.storedNanos;
+            if (age < ttlNanos) {
+                hits.incrementAndGet();
+                return CompletableFuture.completedFuture(entry.snapshot.toResponse(age));
+            }
+            if (age < ttlNanos + staleNanos) {
+                staleHits.incrementAndGet();
+                if (entry.refreshing.compareAndSet(false, true)) {
+                    refresh(key, entry, handler);
+                }
+                return CompletableFuture.completedFuture(entry.snapshot.toResponse(age));
+            }
+            remove(key, entry);
+        }
+        return load(key, handler, blocking);
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getStaleHits() {
+        return staleHits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void close() {
+        background.shutdownNow();
+    }
+
+    /**
+     * Runs the handler unless another request for {@code key} already is, in which case this one waits for
+     * that response.
+     */
+    private CompletableFuture<HttpResponse> load(String key, Supplier<CompletableFuture<HttpResponse>> handler,
+                                                 boolean blocking) {
+        CompletableFuture<Snapshot> mine = new CompletableFuture<>();
+        CompletableFuture<Snapshot> leader = loading.putIfAbsent(key, mine);
+        if (leader != null) {
+            coalesced.incrementAndGet();
+            return leader.thenCompose(snapshot -> snapshot != null
+                    ? CompletableFuture.completedFuture(snapshot.toResponse(0))
+                    : runOwn(handler, blocking));
+        }
+        misses.incrementAndGet();
+        return handler.get().whenComplete((response, ignored) -> {
+            Snapshot snapshot = response != null ? Snapshot.of(response) : null;
+            if (snapshot != null && isStorable(response, snapshot)) {
+                store(key, snapshot);
+            } else {
+                snapshot = null;
+            }
+            loading.remove(key, mine);
+            mine.complete(snapshot);
+        });
+    }
+
+    /**
+     * Runs the handler for a request whose coalesced response could not be shared: streamed, or not storable.
+     * This happens on the thread that completed the shared one, which must not be held up by a blocking handler.
+     */
+    private CompletableFuture<HttpResponse> runOwn(Supplier<CompletableFuture<HttpResponse>> handler,
+                                                   boolean blocking) {
+        if (!blocking) {
+            return handler.get();
+        }
+        try {
+            return CompletableFuture.supplyAsync(handler, background).thenCompose(response -> response);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(
+                    HttpResponse.text(HttpStatus.SERVICE_UNAVAILABLE, "Server is shutting down"));
+        }
+    }
+
+    /**
+     * Replaces a stale entry in the background. If the new response cannot be stored, the stale one stays
+     * until its window ends, and the next request tries again.
+     */
+    private void refresh(String key, Entry stale, Supplier<CompletableFuture<HttpResponse>> handler) {
+        Runnable task = () -> handler.get().whenComplete((response, ignored) -> {
+            Snapshot snapshot = response != null ? Snapshot.of(response) : null;
+            if (snapshot != null && isStorable(response, snapshot)) {
+                store(key, snapshot);
+            } else {
+                if (response != null && response.isStreaming()) {
+                    discard(response);
+                }
+                stale.refreshing.set(false);
+            }
+        });
+        try {
+            background.execute(task);
+        } catch (RejectedExecutionException e) {
+            stale.refreshing.set(false);
+        }
+    }
+
+    /**
+     * Drains a streamed response nobody will receive, so that whatever feeds it (an upstream connection, say)
+     * is released.
+     */
+    private void discard(HttpResponse response) {
+        try {
+            response.write(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            logger.warn("Discarding refreshed response failed: " + e.getMessage());
+        }
+    }
+
+    private boolean isStorable(HttpResponse response, Snapshot snapshot) {
+        if (ttlNanos + staleNanos == 0 || !CACHEABLE.contains(response.getStatus())
+                || response.getStatusCode() != response.getStatus().code()
+                || response.getHeader("set-cookie") != null || snapshot.bytes > maxBytes / 8) {
+            return false;
+        }
+        String cacheControl = response.getHeader("cache-control");
+        if (cacheControl != null) {
+            String directives = cacheControl.toLowerCase(Locale.ROOT);
+            if (directives.contains("no-store") || directives.contains("no-cache")
+                    || directives.contains("private")) {
+                return false;
+            }
+        }
+        String vary = response.getHeader("vary");
+        if (vary != null) {
+            for (String name : vary.split(",")) {
+                if (!varyHeaders.contains(name.trim().toLowerCase(Locale.ROOT))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void store(String key, Snapshot snapshot) {
+        Entry entry = new Entry(snapshot, System.nanoTime());
+        Entry previous = entries.put(key, entry);
+        totalBytes.addAndGet(entry.snapshot.bytes - (previous != null ? previous.snapshot.bytes : 0));
+        if (totalBytes.get() > maxBytes) {
+            trim();
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            totalBytes.addAndGet(-entry.snapshot.bytes);
+        }
+    }
+
+    /**
+     * Frees a tenth of the budget, from entries past their stale window if there are enough of them.
+     */
+    private void trim() {
+        long target = maxBytes - maxBytes / 10;
+        long now = System.nanoTime();
+        for (boolean expiredOnly : new boolean[] {true, false}) {
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                if (totalBytes.get() <= target) {
+                    return;
+                }
+                Entry entry = candidate.getValue();
+                if (!expiredOnly || now - entry.storedNanos >= ttlNanos + staleNanos) {
+                    remove(candidate.getKey(), entry);
+                }
+            }
+        }
+    }
+
+    private String key(HttpRequest request) {
+        StringBuilder key = new StringBuilder(64).append(request.getMethod()).append(' ').append(request.getPath());
+        HttpHeaders headers = request.getHeaders();
+        for (String name : varyHeaders) {
+            String value = headers.get(name);
+            key.append('\n').append(value != null ? value : "");
+        }
+        return key.toString();
+    }
+
+    private static final class Entry {
+        private final Snapshot snapshot;
+        private final long storedNanos;
+        /** Set while one request refreshes this stale entry. */
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(Snapshot snapshot, long storedNanos) {
+            this.snapshot = snapshot;
+            this.storedNanos = storedNanos;
+        }
+    }
+
+    /**
+     * Status, header fields and body of a response with its body in memory.
+     */
+    private static final class Snapshot {
+        private final HttpStatus status;
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final String contentLength;
+        private final long bytes;
+
+        private Snapshot(HttpStatus status, Map<String, String> headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.contentLength = String.valueOf(body.length);
+            long headerBytes = 0;
+            for (Map.Entry<String, String> field : headers.entrySet()) {
+                headerBytes += field.getKey().length() + field.getValue().length();
+            }
+            this.bytes = body.length + headerBytes + ENTRY_OVERHEAD_BYTES;
+        }
+
+        /**
+         * Snapshot of {@code response}, or null when its body is streamed or made of segments.
+         */
+        static Snapshot of(HttpResponse response) {
+            if (response.isStreaming() || response.hasBodySegments()) {
+                return null;
+            }
+            Map<String, String> headers = new LinkedHashMap<>(response.getHeaders().asMap());
+            headers.keySet().removeAll(FRAMING_HEADERS);
+            return new Snapshot(response.getStatus(), headers, response.getBodyBytes());
+        }
+
+        /**
+         * A new response with this snapshot's content; an {@code Age} is added when it was stored before.
+         */
+        HttpResponse toResponse(long ageNanos) {
+            HttpResponse response = new HttpResponse(status);
+            HttpHeaders target = response.getHeaders();
+            for (Map.Entry<String, String> field : headers.entrySet()) {
+                target.setNormalized(field.getKey(), field.getValue());
+            }
+            if (ageNanos > 0) {
+                target.setNormalized("age", String.valueOf(TimeUnit.NANOSECONDS.toSeconds(ageNanos)));
+            }
+            response.setBody(body, contentLength);
+            return response;
+        }
+    }
+}
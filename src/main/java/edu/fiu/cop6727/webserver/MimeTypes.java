@@ -29,6 +29,16 @@ public final class MimeTypes {
     private MimeTypes() {
     }
 
+    /**
+     * Whether responses of this type are text-like and worth compressing.
+     */
+    public static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/")
+                || mimeType.equals("application/javascript")
+                || mimeType.equals("application/json")
+                || mimeType.equals("image/svg+xml");
+    }
+
     public static String probe(String filename) {
         int dotIndex = filename.lastIndexOf('.');
         if (dotIndex == -1 || dotIndex == filename.length() - 1) {
@@ -0,0 +1,928 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking engine built on {@link Selector}: a few event-loop threads own every connection and do all
+ * reading, parsing and writing. Routing runs inline on the loop unless {@link RequestRouter#mayBlock} reports
+ * that it would stall it, in which case it is handed to the worker pool. Asynchronous responses are written
+ * back on the connection's own loop when they complete. Buffered request bodies are decoded on the loop; a
+ * request whose route streams its body is handed, connection and all, to a blocking {@link ClientHandler} on
+ * the worker pool, since reading a body on demand would stall the loop. Generated response bodies are
+ * produced on a worker as well and reach the loop through a small {@link BodyPipe}. Idle connections hold no
+ * buffers and no threads.
+ */
+final class NioServerEngine {
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+    private static final int PIPE_CHUNKS = 4;
+
+    private final ServerConfig config;
+    private final RequestRouter router;
+    private final ServerLogger logger;
+    private final AccessLog accessLog;
+    private final ServerMetrics metrics;
+    private final ExecutorService workerPool;
+    private final AdmissionControl admission;
+    private final KeepAlivePolicy keepAlivePolicy;
+    private final EventLoop[] eventLoops;
+    private final Thread[] loopThreads;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private List<ServerSocketChannel> listeners = List.of();
+
+    NioServerEngine(ServerConfig config, RequestRouter router, ServerLogger logger, AccessLog accessLog,
+                    ServerMetrics metrics, AdmissionControl admission, ExecutorService workerPool) {
+        this.config = config;
+        this.router = router;
+        this.logger = logger;
+        this.accessLog = accessLog;
+        this.metrics = metrics;
+        this.workerPool = workerPool;
+        this.admission = admission;
+        this.keepAlivePolicy = new KeepAlivePolicy(config);
+        int loops = Math.max(1, config.getEventLoopThreads());
+        this.eventLoops = new EventLoop[loops];
+        this.loopThreads = new Thread[loops];
+    }
+
+    void start() throws IOException {
+        listeners = ServerSockets.openListeners(config, logger);
+        for (ServerSocketChannel listener : listeners) {
+            listener.configureBlocking(false);
+        }
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop();
+        }
+        // Every listener gets a loop; a single shared listener is watched by up to one loop per acceptor.
+        int acceptors = Math.max(listeners.size(), Math.min(config.getAcceptorThreads(), eventLoops.length));
+        for (int i = 0; i < acceptors; i++) {
+            eventLoops[i % eventLoops.length].registerAcceptor(listeners.get(i % listeners.size()));
+        }
+        running.set(true);
+        for (int i = 0; i < eventLoops.length; i++) {
+            loopThreads[i] = new Thread(eventLoops[i], "nio-loop-" + i);
+            loopThreads[i].start();
+        }
+    }
+
+    int getEventLoopCount() {
+        return eventLoops.length;
+    }
+
+    int getListenerCount() {
+        return listeners.size();
+    }
+
+    void awaitTermination() throws InterruptedException {
+        for (Thread thread : loopThreads) {
+            if (thread != null) {
+                thread.join();
+            }
+        }
+    }
+
+    void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        for (ServerSocketChannel listener : listeners) {
+            closeQuietly(listener);
+        }
+        for (EventLoop loop : eventLoops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * One selector thread. Other threads talk to it only through {@link #execute(Runnable)}.
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        private long lastSweepMillis = System.currentTimeMillis();
+        /** Where this loop, if it accepts, sends its next connection. */
+        private int nextLoop;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void registerAcceptor(ServerSocketChannel channel) throws IOException {
+            channel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running.get()) {
+                    selector.select(SWEEP_INTERVAL_MILLIS);
+                    runTasks();
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        handleKey(key);
+                    }
+                    sweepIdleConnections();
+                }
+            } catch (IOException e) {
+                logger.error("Event loop failed", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key.channel());
+                }
+                closeQuietly(selector);
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void handleKey(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                if (key.isAcceptable()) {
+                    acceptConnections((ServerSocketChannel) key.channel());
+                    return;
+                }
+                Connection connection = (Connection) key.attachment();
+                if (key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            } catch (CancelledKeyException ignored) {
+                // Connection closed while its events were being processed.
+            }
+        }
+
+        private void acceptConnections(ServerSocketChannel listener) {
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = listener.accept();
+                } catch (IOException e) {
+                    if (running.get()) {
+                        logger.error("Error accepting connection", e);
+                    }
+                    return;
+                }
+                if (channel == null) {
+                    return;
+                }
+                EventLoop target = eventLoops[nextLoop];
+                nextLoop = (nextLoop + 1) % eventLoops.length;
+                if (target == this) {
+                    target.register(channel);
+                } else {
+                    target.execute(() -> target.register(channel));
+                }
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            ClientLimiter.Client client = null;
+            try {
+                channel.configureBlocking(false);
+                ServerSockets.configureAccepted(channel, config);
+                InetAddress address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+                client = admission.admitConnection(address);
+                if (client == null) {
+                    rejectClient(channel);
+                    return;
+                }
+                Connection connection = new Connection(this, channel, address, client);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                metrics.connectionOpened();
+            } catch (IOException e) {
+                logger.error("Failed to register connection", e);
+                if (client != null) {
+                    client.release();
+                }
+                closeQuietly(channel);
+            }
+        }
+
+        /**
+         * Answers a connection over its client's cap with a single non-blocking write, which the empty send
+         * buffer of a new connection takes whole, and closes it.
+         */
+        private void rejectClient(SocketChannel channel) {
+            try (channel) {
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream(256);
+                admission.tooManyConnectionsResponse().write(encoded);
+                channel.write(ByteBuffer.wrap(encoded.toByteArray()));
+            } catch (IOException e) {
+                logger.warn("Failed to reject connection over the per-client cap: " + e.getMessage());
+            }
+        }
+
+        private void sweepIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now - lastSweepMillis < SWEEP_INTERVAL_MILLIS) {
+                return;
+            }
+            lastSweepMillis = now;
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection connection && connection.isExpired(now)) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-connection read/parse/write state. Only ever touched by its owning event loop.
+     */
+    private final class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final String remote;
+        /** Released when the connection closes, unless it was handed off to a {@link ClientHandler}. */
+        private final ClientLimiter.Client client;
+        private SelectionKey key;
+
+        private final HttpRequestParser parser = new HttpRequestParser();
+        private byte[] pending;
+        private int pendingLength;
+
+        // Request whose buffered body is still arriving.
+        private HttpRequest bodyRequest;
+        private RequestBodyDecoder bodyDecoder;
+        private ByteArrayOutputStream bodyBuffer;
+
+        private boolean writing;
+        private ByteBuffer outbound;
+        private Iterator<BodySegment> outboundSegments;
+        private FileChannel outboundFile;
+        private long outboundFilePosition;
+        private long outboundFileRemaining;
+        private InputStream outboundStream;
+        private long outboundStreamRemaining;
+        private byte[] outboundChunk;
+        private BodyPipe outboundPipe;
+        /** Whether the write stopped because the body writer has not produced the next chunk yet. */
+        private boolean awaitingBody;
+        private boolean closeAfterWrite;
+        private boolean processing;
+        private boolean closed;
+        private int served;
+        private long lastActivityMillis = System.currentTimeMillis();
+
+        // Access record of the response being written, logged once it is fully sent.
+        private HttpRequest loggedRequest;
+        private int loggedStatus;
+        private long loggedBytes;
+        private long requestStartNanos;
+        /** Whether the response being written holds a slot under the adaptive concurrency limit. */
+        private boolean admitted;
+
+        Connection(EventLoop loop, SocketChannel channel, InetAddress address, ClientLimiter.Client client) {
+            this.loop = loop;
+            this.channel = channel;
+            this.remote = address.getHostAddress();
+            this.client = client;
+        }
+
+        void onReadable() {
+            ByteBuffer buffer = loop.readBuffer;
+            buffer.clear();
+            int read;
+            try {
+                read = channel.read(buffer);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+            if (read == 0) {
+                return;
+            }
+            lastActivityMillis = System.currentTimeMillis();
+            consumeInput(buffer.array(), 0, read);
+        }
+
+        void onWritable() {
+            flush();
+            if (!processing) {
+                processInbound();
+            }
+        }
+
+        /**
+         * Parses and dispatches requests from {@code data}, stopping while one is in flight. Bytes of later
+         * pipelined requests are stashed because the loop's read buffer is reused for the next connection.
+         */
+        private void consumeInput(byte[] data, int offset, int limit) {
+            try {
+                int position = offset;
+                while (position < limit && !processing && !closed) {
+                    if (bodyDecoder != null) {
+                        position = bodyDecoder.decodeInto(data, position, limit, bodyBuffer);
+                        if (bodyDecoder.isComplete()) {
+                            HttpRequest request = bodyRequest;
+                            request.attachBody(bodyBuffer.toByteArray());
+                            bodyRequest = null;
+                            bodyDecoder = null;
+                            bodyBuffer = null;
+                            dispatch(request);
+                        }
+                        continue;
+                    }
+                    position = parser.parse(data, position, limit);
+                    if (parser.isComplete()) {
+                        startRequest(parser.takeRequest());
+                    }
+                }
+                if (position < limit && !closed) {
+                    stash(data, position, limit);
+                }
+            } catch (BadRequestException e) {
+                logger.warn("Bad request: " + e.getMessage());
+                pending = null;
+                bodyDecoder = null;
+                bodyBuffer = null;
+                HttpResponse response = HttpResponse.text(e.getStatus(), e.getMessage());
+                response.setHeader("connection", "close");
+                processing = true;
+                send(response, true);
+            }
+        }
+
+        /**
+         * Resumes parsing stashed pipelined bytes once the previous response is out.
+         */
+        private void processInbound() {
+            if (pending == null || processing || closed) {
+                return;
+            }
+            byte[] data = pending;
+            int length = pendingLength;
+            pending = null;
+            pendingLength = 0;
+            consumeInput(data, 0, length);
+        }
+
+        private void stash(byte[] data, int from, int to) {
+            int length = to - from;
+            if (pending == null) {
+                pending = Arrays.copyOfRange(data, from, to);
+            } else {
+                pending = Arrays.copyOf(pending, pendingLength + length);
+                System.arraycopy(data, from, pending, pendingLength, length);
+            }
+            pendingLength += length;
+        }
+
+        /**
+         * Applies the route's body policy to a parsed head: requests without a body are dispatched at once, a
+         * buffered body is collected from the following reads, and a streamed one is handed off. So is a
+         * connection switching to HTTP/2, whose frames are read on a worker like a streamed body. A request over
+         * the client's rate limit is refused before any of that.
+         */
+        private void startRequest(HttpRequest request) throws BadRequestException {
+            if (config.isH2cEnabled()
+                    && (Http2Connection.isPreface(request) || Http2Connection.isUpgrade(request))) {
+                handOff(request);
+                return;
+            }
+            HttpResponse limited = admission.checkRate(client);
+            if (limited != null) {
+                if (request.hasBody()) {
+                    limited.setHeader("connection", "close"); // refused without reading the body
+                }
+                processing = true;
+                requestStartNanos = System.nanoTime();
+                served++;
+                respond(request, limited);
+                return;
+            }
+            boolean expectsContinue = request.expectsContinue();
+            RequestBodyPolicy policy = router.bodyPolicy(request);
+            RequestBodyDecoder decoder = RequestBodyDecoder.forRequest(request, policy.getMaxBytes());
+            if (decoder == null) {
+                dispatch(request);
+                return;
+            }
+            if (policy.isStreaming()) {
+                handOff(request);
+                return;
+            }
+            if (expectsContinue) {
+                sendContinue();
+            }
+            long declared = request.getContentLength();
+            bodyRequest = request;
+            bodyDecoder = decoder;
+            bodyBuffer = new ByteArrayOutputStream(declared > 0 ? (int) Math.min(declared, READ_BUFFER_BYTES) : 256);
+        }
+
+        /**
+         * Writes the interim {@code 100 Continue} straight to the socket. Nothing else is being written at this
+         * point, so the socket only refuses these few bytes if the client stopped reading; it is closed then.
+         */
+        private void sendContinue() {
+            ByteBuffer interim = ByteBuffer.wrap(HttpResponse.CONTINUE);
+            try {
+                channel.write(interim);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (interim.hasRemaining()) {
+                close();
+            }
+        }
+
+        /**
+         * Moves the connection to a blocking {@link ClientHandler} that serves {@code request} with its
+         * streamed body, or its HTTP/2 connection, and any later requests. The channel can only return to
+         * blocking mode once the selector has dropped its cancelled key, so the move happens in a loop task.
+         */
+        private void handOff(HttpRequest request) {
+            processing = true;
+            key.cancel();
+            loop.execute(() -> {
+                if (closed) {
+                    return;
+                }
+                byte[] buffered = pending == null ? new byte[0] : Arrays.copyOf(pending, pendingLength);
+                closed = true;
+                pending = null;
+                metrics.connectionClosed();
+                ClientHandler handler;
+                try {
+                    loop.selector.selectNow();
+                    channel.configureBlocking(true);
+                    handler = new ClientHandler(channel.socket(), router, logger, accessLog, metrics, admission,
+                            client, workerPool, config);
+                } catch (IOException e) {
+                    logger.error("Failed to hand off connection", e);
+                    closeQuietly(channel);
+                    client.release();
+                    return;
+                }
+                try {
+                    WorkerExecutors.resume(workerPool, handler.adopt(request, buffered, served));
+                } catch (RejectedExecutionException e) {
+                    // Shutting down.
+                    closeQuietly(channel);
+                    metrics.connectionClosed();
+                    client.release();
+                }
+            });
+        }
+
+        private void dispatch(HttpRequest request) {
+            processing = true;
+            requestStartNanos = System.nanoTime();
+            served++;
+            if (router.mayBlock(request)) {
+                offload(request);
+                return;
+            }
+            CompletableFuture<HttpResponse> response;
+            if (router.isDelayed(request)) {
+                response = router.routeAsync(request);
+            } else if (admission.tryAcquire()) {
+                // The slot is held until the response is fully written, as in the blocking engine.
+                admitted = true;
+                response = router.routeAsync(request);
+            } else {
+                respond(request, admission.overloadedResponse());
+                return;
+            }
+            if (response.isDone()) {
+                respond(request, response.join());
+                return;
+            }
+            key.interestOps(0);
+            awaitResponse(request, response);
+        }
+
+        /**
+         * Writes {@code response} from this connection's loop once it completes; reading must already be off.
+         */
+        private void awaitResponse(HttpRequest request, CompletableFuture<HttpResponse> response) {
+            response.thenAccept(completed -> loop.execute(() -> {
+                respond(request, completed);
+                processInbound();
+            }));
+        }
+
+        /**
+         * Routes a request whose handler blocks (a proxy route waiting on its upstream) on a worker thread,
+         * keeping the event loop free. It counts against the adaptive concurrency limit like any other request,
+         * with the slot claimed once a worker picks it up, as in the blocking engine.
+         */
+        private void offload(HttpRequest request) {
+            key.interestOps(0);
+            long enqueuedNanos = requestStartNanos;
+            try {
+                workerPool.execute(() -> {
+                    if (admission.hasExpired(enqueuedNanos) || !admission.tryAcquire()) {
+                        loop.execute(() -> {
+                            respond(request, admission.overloadedResponse());
+                            processInbound();
+                        });
+                        return;
+                    }
+                    router.routeAsync(request).thenAccept(completed -> loop.execute(() -> {
+                        admitted = true; // released once the response is written, or when the connection closes
+                        if (closed) {
+                            releaseAdmission();
+                            return;
+                        }
+                        respond(request, completed);
+                        processInbound();
+                    }));
+                });
+            } catch (RejectedExecutionException e) {
+                if (workerPool.isShutdown()) {
+                    HttpResponse response = HttpResponse.text(HttpStatus.SERVICE_UNAVAILABLE,
+                            "Server is shutting down");
+                    response.setHeader("connection", "close");
+                    send(response, true);
+                    return;
+                }
+                admission.taskRejected();
+                respond(request, admission.overloadedResponse());
+            }
+        }
+
+        private void respond(HttpRequest request, HttpResponse response) {
+            if (closed) {
+                return;
+            }
+            response.applyFraming(request);
+            boolean keepAlive = keepAlivePolicy.shouldKeepAlive(request, response, served);
+            keepAlivePolicy.apply(response, keepAlive, served);
+            loggedRequest = request;
+            loggedStatus = response.getStatusCode();
+            send(response, !keepAlive);
+        }
+
+        private void send(HttpResponse response, boolean close) {
+            closeAfterWrite = close;
+            writing = true;
+            ResponseBuffer buffer = ResponseBuffer.acquire();
+            try {
+                boolean bodyIncluded = response.encodeInto(buffer);
+                loggedBytes = buffer.length();
+                if (response.isStreaming()) {
+                    startBodyWriter(response);
+                } else if (!bodyIncluded) {
+                    loggedBytes += response.getBodyLength();
+                    outboundSegments = response.hasBodySegments()
+                            ? response.getBodySegments().iterator()
+                            : List.of(BodySegment.bytes(response.getBodyBytes())).iterator();
+                }
+                outbound = ByteBuffer.wrap(buffer.array(), 0, buffer.length());
+                flush();
+                if (outbound != null && outbound.array() == buffer.array()) {
+                    // The socket did not take the whole head; keep the rest, the pooled buffer is reused.
+                    outbound = ByteBuffer.wrap(Arrays.copyOfRange(buffer.array(), outbound.position(),
+                            outbound.limit()));
+                }
+            } finally {
+                buffer.release();
+            }
+        }
+
+        /**
+         * Runs the response's body writer on a worker thread, feeding this connection through a pipe.
+         */
+        private void startBodyWriter(HttpResponse response) {
+            BodyPipe pipe = new BodyPipe(() -> loop.execute(this::onWritable));
+            outboundPipe = pipe;
+            try {
+                WorkerExecutors.resume(workerPool, () -> {
+                    try {
+                        response.writeStreamingBody(pipe);
+                        pipe.finish(null);
+                    } catch (IOException e) {
+                        if (!pipe.cancelled) {
+                            logger.error("Failed to write response body", e);
+                        }
+                        pipe.finish(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pipe.finish(new IOException("Server is shutting down"));
+            }
+        }
+
+        /**
+         * Writes pending bytes and body segments until the socket stops accepting data.
+         *
+         * @return true once the whole response has been sent
+         */
+        private boolean writeOutbound() throws IOException {
+            awaitingBody = false;
+            while (true) {
+                if (outbound != null) {
+                    channel.write(outbound);
+                    if (outbound.hasRemaining()) {
+                        return false;
+                    }
+                    outbound = null;
+                }
+                if (outboundFile != null && !transferFile()) {
+                    return false;
+                }
+                if (outboundStream != null && readStreamChunk()) {
+                    continue;
+                }
+                if (outboundPipe != null) {
+                    ByteBuffer chunk = outboundPipe.poll();
+                    if (chunk != null) {
+                        outbound = chunk;
+                        loggedBytes += chunk.remaining();
+                        continue;
+                    }
+                    if (!outboundPipe.isDrained()) {
+                        awaitingBody = true;
+                        return false;
+                    }
+                    IOException failure = outboundPipe.failure;
+                    outboundPipe = null;
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
+                if (outboundSegments == null || !outboundSegments.hasNext()) {
+                    outboundSegments = null;
+                    return true;
+                }
+                BodySegment segment = outboundSegments.next();
+                if (segment.isFile()) {
+                    outboundFile = FileChannel.open(segment.getFile(), StandardOpenOption.READ);
+                    outboundFilePosition = segment.getOffset();
+                    outboundFileRemaining = segment.getLength();
+                } else if (segment.isStream()) {
+                    outboundStream = segment.getStream();
+                    outboundStreamRemaining = segment.getLength();
+                    outboundChunk = new byte[BodySegment.STREAM_BUFFER_BYTES];
+                } else {
+                    outbound = ByteBuffer.wrap(segment.getBytes(), (int) segment.getOffset(),
+                            (int) segment.getLength());
+                }
+            }
+        }
+
+        /**
+         * Pushes as much of the current file segment as the socket accepts with transferTo.
+         *
+         * @return true once the whole region has been sent
+         */
+        private boolean transferFile() throws IOException {
+            while (outboundFileRemaining > 0) {
+                long sent = outboundFile.transferTo(outboundFilePosition, outboundFileRemaining, channel);
+                if (sent == 0) {
+                    if (outboundFilePosition >= outboundFile.size()) {
+                        throw new IOException("File truncated while sending");
+                    }
+                    return false;
+                }
+                outboundFilePosition += sent;
+                outboundFileRemaining -= sent;
+            }
+            closeQuietly(outboundFile);
+            outboundFile = null;
+            return true;
+        }
+
+        /**
+         * Reads the next piece of the current stream segment into {@code outbound}. The read happens on the
+         * loop, so handlers should only return streams that do not block for long; streams of unknown length
+         * are sent as generated bodies, from a worker.
+         *
+         * @return false once the stream is exhausted
+         */
+        private boolean readStreamChunk() throws IOException {
+            int wanted = (int) Math.min(outboundChunk.length, outboundStreamRemaining);
+            int read = wanted == 0 ? -1 : outboundStream.read(outboundChunk, 0, wanted);
+            if (read < 0) {
+                if (outboundStreamRemaining > 0) {
+                    throw new EOFException("Body stream ended " + outboundStreamRemaining + " bytes early");
+                }
+                closeQuietly(outboundStream);
+                outboundStream = null;
+                outboundChunk = null;
+                return false;
+            }
+            outboundStreamRemaining -= read;
+            outbound = ByteBuffer.wrap(outboundChunk, 0, read);
+            return true;
+        }
+
+        private void flush() {
+            if (closed || !writing) {
+                return;
+            }
+            boolean complete;
+            try {
+                complete = writeOutbound();
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            lastActivityMillis = System.currentTimeMillis();
+            if (!complete) {
+                // While the body writer is behind, its next chunk wakes the loop instead of the socket.
+                key.interestOps(awaitingBody ? 0 : SelectionKey.OP_WRITE);
+                return;
+            }
+            writing = false;
+            releaseAdmission();
+            if (loggedRequest != null) {
+                accessLog.log(remote, loggedRequest, loggedStatus, loggedBytes, requestStartNanos);
+                metrics.recordRequest(router.routeLabel(loggedRequest), loggedStatus,
+                        System.nanoTime() - requestStartNanos, loggedBytes);
+                loggedRequest = null;
+            }
+            if (closeAfterWrite) {
+                close();
+                return;
+            }
+            processing = false;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void releaseAdmission() {
+            if (admitted) {
+                admitted = false;
+                admission.release(System.nanoTime() - requestStartNanos);
+            }
+        }
+
+        boolean isExpired(long now) {
+            if (processing && (!writing || awaitingBody)) {
+                return false; // a worker is still producing the response
+            }
+            boolean idle = parser.isIdle() && bodyDecoder == null && pending == null && !writing;
+            long timeout = idle && served > 0
+                    ? keepAlivePolicy.getKeepAliveTimeoutMillis()
+                    : config.getSocketTimeoutMillis();
+            return now - lastActivityMillis > timeout;
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending = null;
+            outbound = null;
+            outboundSegments = null;
+            closeQuietly(outboundFile);
+            outboundFile = null;
+            closeQuietly(outboundStream);
+            outboundStream = null;
+            outboundChunk = null;
+            if (outboundPipe != null) {
+                outboundPipe.cancel();
+                outboundPipe = null;
+            }
+            bodyDecoder = null;
+            bodyBuffer = null;
+            releaseAdmission();
+            if (key != null) {
+                key.cancel();
+                metrics.connectionClosed();
+                client.release();
+            }
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Carries a generated body from the worker thread running its {@link ResponseBodyWriter} to the event loop
+     * that writes it. At most {@link #PIPE_CHUNKS} chunks wait in between: a writer that gets ahead of the
+     * client blocks, so a slow reader cannot make the server buffer the body.
+     */
+    private static final class BodyPipe implements ResponseSink.Transport {
+        private final ArrayBlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(PIPE_CHUNKS);
+        private final AtomicBoolean consumerWaiting = new AtomicBoolean();
+        private final Runnable wakeConsumer;
+        private volatile boolean finished;
+        private volatile boolean cancelled;
+        private volatile IOException failure;
+
+        BodyPipe(Runnable wakeConsumer) {
+            this.wakeConsumer = wakeConsumer;
+        }
+
+        @Override
+        public void send(byte[] data, int offset, int length, boolean flush) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            ByteBuffer chunk = ByteBuffer.wrap(Arrays.copyOfRange(data, offset, offset + length));
+            try {
+                while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    if (cancelled) {
+                        throw new IOException("Connection closed");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing response body");
+            }
+            signal();
+        }
+
+        void finish(IOException failure) {
+            this.failure = failure;
+            finished = true;
+            signal();
+        }
+
+        void cancel() {
+            cancelled = true;
+            chunks.clear();
+        }
+
+        /**
+         * Takes the next chunk. When there is none yet the consumer is woken once the writer produces one or
+         * finishes.
+         */
+        ByteBuffer poll() {
+            ByteBuffer chunk = chunks.poll();
+            if (chunk != null || finished) {
+                return chunk != null ? chunk : chunks.poll();
+            }
+            consumerWaiting.set(true);
+            chunk = chunks.poll();
+            if (chunk != null || finished) {
+                consumerWaiting.set(false);
+                return chunk != null ? chunk : chunks.poll();
+            }
+            return null;
+        }
+
+        boolean isDrained() {
+            return finished && chunks.isEmpty();
+        }
+
+        private void signal() {
+            if (consumerWaiting.compareAndSet(true, false)) {
+                wakeConsumer.run();
+            }
+        }
+    }
+}
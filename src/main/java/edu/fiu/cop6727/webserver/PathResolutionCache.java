@@ -0,0 +1,284 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded map from request paths to how they resolved against the document root: a file (with its metadata
+ * when the {@link StaticFileCache} does not hold it), or a final "not found" / "forbidden" answer. A hit skips
+ * path sanitizing, normalization and the stat, so repeated 404 probes cost no filesystem calls.
+ * <p>
+ * A {@link WatchService} on every directory under the document root removes entries at or below a changed
+ * path, and forwards the change to the file cache. Where watching is unavailable, entries expire after
+ * {@code revalidateMillis} instead. When the map is full, not-found entries are dropped first so that
+ * scanner traffic cannot push out the paths real clients use.
+ */
+final class PathResolutionCache implements AutoCloseable {
+    private static final Resolution FORBIDDEN = new Resolution(null, null, HttpStatus.FORBIDDEN, 0);
+
+    private final Path documentRoot;
+    private final int maxEntries;
+    private final long revalidateMillis;
+    private final StaticFileCache fileCache;
+    private final ServerLogger logger;
+    private final Map<String, Resolution> entries = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final AtomicLong negativeHits = new AtomicLong();
+    /** Bumped on every invalidation so that a resolution racing with a change is not stored. */
+    private final AtomicLong generation = new AtomicLong();
+    private final WatchService watcher;
+
+    PathResolutionCache(ServerConfig config, StaticFileCache fileCache, ServerLogger logger) {
+        this.documentRoot = config.getDocumentRoot();
+        this.maxEntries = Math.max(0, config.getPathCacheMaxEntries());
+        this.revalidateMillis = Math.max(0, config.getCacheRevalidateMillis());
+        this.fileCache = fileCache;
+        this.logger = logger;
+        this.watcher = maxEntries > 0 && config.isPathCacheWatch() ? startWatching() : null;
+    }
+
+    /**
+     * Resolution that never changes, for paths rejected before they touch the filesystem.
+     */
+    static Resolution forbidden() {
+        return FORBIDDEN;
+    }
+
+    /**
+     * Nothing servable at {@code file}; a null {@code file} means the path escaped the document root.
+     */
+    static Resolution notFound(Path file) {
+        return new Resolution(file, null, HttpStatus.NOT_FOUND, System.currentTimeMillis());
+    }
+
+    /**
+     * A regular file; {@code metadata} is kept only for entries the file cache does not hold itself.
+     */
+    static Resolution found(Path file, StaticFileCache.Entry metadata) {
+        return new Resolution(file, metadata != null && !metadata.isCached() ? metadata : null, null,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the remembered resolution of {@code path}, or null if it has to be resolved again.
+     */
+    Resolution get(String path) {
+        if (maxEntries == 0) {
+            return null;
+        }
+        Resolution resolution = entries.get(path);
+        if (resolution == null) {
+            return null;
+        }
+        if (watcher == null && resolution != FORBIDDEN
+                && System.currentTimeMillis() - resolution.resolvedAtMillis >= revalidateMillis) {
+            entries.remove(path, resolution);
+            return null;
+        }
+        if (resolution.failure != null) {
+            negativeHits.incrementAndGet();
+        }
+        return resolution;
+    }
+
+    /**
+     * Current invalidation generation; read it before resolving a path and pass it to {@link #put}.
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Remembers {@code resolution} unless the document root changed since {@code generation} was read.
+     */
+    void put(String path, long generation, Resolution resolution) {
+        if (maxEntries == 0) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            trim();
+        }
+        entries.put(path, resolution);
+        if (this.generation.get() != generation) {
+            entries.remove(path, resolution);
+        }
+    }
+
+    /**
+     * Whether another entry fits without evicting one.
+     */
+    boolean hasRoom() {
+        return entries.size() < maxEntries;
+    }
+
+    void remove(String path) {
+        entries.remove(path);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Requests answered with a remembered 403 or 404.
+     */
+    long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    @Override
+    public void close() {
+        if (watcher == null) {
+            return;
+        }
+        try {
+            watcher.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Frees a tenth of the capacity, from not-found entries if there are enough of them.
+     */
+    private void trim() {
+        int target = maxEntries - Math.max(1, maxEntries / 10);
+        for (boolean failuresOnly : new boolean[] {true, false}) {
+            Iterator<Resolution> iterator = entries.values().iterator();
+            while (entries.size() > target && iterator.hasNext()) {
+                if (iterator.next().failure != null || !failuresOnly) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private void invalidate(Path changed) {
+        generation.incrementAndGet();
+        entries.values().removeIf(resolution -> resolution.file != null && resolution.file.startsWith(changed));
+        fileCache.invalidate(changed);
+    }
+
+    private WatchService startWatching() {
+        WatchService service = null;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            registerTree(service, documentRoot);
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("Cannot watch document root (" + e.getMessage() + "); path cache entries expire after "
+                    + revalidateMillis + " ms instead");
+            if (service != null) {
+                try {
+                    service.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return null;
+        }
+        WatchService watching = service;
+        Thread thread = new Thread(() -> watch(watching), "docroot-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return service;
+    }
+
+    private void registerTree(WatchService service, Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes)
+                    throws IOException {
+                WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirectories.put(key, directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watch(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Path directory = watchedDirectories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                    generation.incrementAndGet();
+                    entries.clear();
+                    continue;
+                }
+                Path changed = directory.resolve((Path) event.context());
+                invalidate(changed);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                    try {
+                        registerTree(service, changed);
+                        // Anything resolved under it before the watch existed may already be stale.
+                        invalidate(changed);
+                    } catch (IOException e) {
+                        logger.warn("Cannot watch new directory " + changed + ": " + e.getMessage());
+                    } catch (ClosedWatchServiceException e) {
+                        return;
+                    }
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+        }
+    }
+
+    /**
+     * How one request path resolved. Exactly one of a servable {@link #file()} and a {@link #failure()}
+     * status applies.
+     */
+    static final class Resolution {
+        private final Path file;
+        private final StaticFileCache.Entry metadata;
+        private final HttpStatus failure;
+        private final long resolvedAtMillis;
+
+        private Resolution(Path file, StaticFileCache.Entry metadata, HttpStatus failure, long resolvedAtMillis) {
+            this.file = file;
+            this.metadata = metadata;
+            this.failure = failure;
+            this.resolvedAtMillis = resolvedAtMillis;
+        }
+
+        Path file() {
+            return file;
+        }
+
+        /**
+         * Size, modification time and MIME type of a file too large for the file cache, or null.
+         */
+        StaticFileCache.Entry metadata() {
+            return metadata;
+        }
+
+        /**
+         * {@link HttpStatus#NOT_FOUND} or {@link HttpStatus#FORBIDDEN}; null for a servable file.
+         */
+        HttpStatus failure() {
+            return failure;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Incremental decoder for a request body framed by {@code Content-Length} or by the chunked transfer coding.
+ * It never copies body bytes itself: callers alternate {@link #skipFraming} to step over chunk-size lines
+ * and CRLFs, take up to {@link #available()} bytes straight from their own buffer, and report them with
+ * {@link #consume}. That keeps streaming uploads in constant memory on both engines. The configured limit is
+ * enforced up front for a declared length and as chunks arrive otherwise. Chunk extensions and trailer
+ * fields are accepted and ignored.
+ */
+final class RequestBodyDecoder {
+    private static final int MAX_CHUNK_LINE_BYTES = 4096;
+
+    private static final int CHUNK_SIZE = 0;
+    private static final int DATA = 1;
+    private static final int DATA_END = 2;
+    private static final int TRAILERS = 3;
+    private static final int DONE = 4;
+
+    private final boolean chunked;
+    private final long maxBytes;
+    private int state;
+    private long remaining;
+    private long received;
+
+    // Chunk-size and trailer line state.
+    private long chunkSize;
+    private boolean sawDigit;
+    private boolean digitsEnded;
+    private int lineBytes;
+    private boolean lineHasContent;
+    private int trailerBytes;
+
+    /**
+     * @param contentLength declared length, ignored when {@code chunked}
+     * @throws BadRequestException with 413 when the declared length exceeds {@code maxBytes}
+     */
+    RequestBodyDecoder(long contentLength, boolean chunked, long maxBytes) throws BadRequestException {
+        this.chunked = chunked;
+        this.maxBytes = maxBytes;
+        if (chunked) {
+            state = CHUNK_SIZE;
+        } else {
+            if (contentLength > maxBytes) {
+                throw tooLarge();
+            }
+            remaining = contentLength;
+            state = contentLength == 0 ? DONE : DATA;
+        }
+    }
+
+    /**
+     * Decoder for {@code request}'s body, or null when it has none.
+     */
+    static RequestBodyDecoder forRequest(HttpRequest request, long maxBytes) throws BadRequestException {
+        if (!request.isChunked() && request.getContentLength() <= 0) {
+            return null;
+        }
+        return new RequestBodyDecoder(request.getContentLength(), request.isChunked(), maxBytes);
+    }
+
+    boolean isComplete() {
+        return state == DONE;
+    }
+
+    /**
+     * Body bytes that can be taken at the position returned by the last {@link #skipFraming} call.
+     */
+    long available() {
+        return state == DATA ? remaining : 0;
+    }
+
+    /**
+     * Total body bytes consumed so far.
+     */
+    long received() {
+        return received;
+    }
+
+    /**
+     * Consumes framing bytes from {@code data[position, limit)} up to the next body bytes or the end of the
+     * body.
+     *
+     * @return index of the first byte not consumed
+     */
+    int skipFraming(byte[] data, int position, int limit) throws BadRequestException {
+        while (position < limit) {
+            switch (state) {
+                case DATA:
+                case DONE:
+                    return position;
+                case CHUNK_SIZE:
+                    chunkSizeByte(data[position++]);
+                    break;
+                case DATA_END: {
+                    byte b = data[position++];
+                    if (b == '\n') {
+                        state = CHUNK_SIZE;
+                    } else if (b != '\r') {
+                        throw new BadRequestException("Missing CRLF after chunk data");
+                    }
+                    break;
+                }
+                default: {
+                    byte b = data[position++];
+                    if (++trailerBytes > HttpRequestParser.MAX_HEADER_BYTES) {
+                        throw new BadRequestException("Trailers too large");
+                    }
+                    if (b == '\n') {
+                        if (!lineHasContent) {
+                            state = DONE;
+                            return position;
+                        }
+                        lineHasContent = false;
+                    } else if (b != '\r') {
+                        lineHasContent = true;
+                    }
+                }
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Records that the caller took {@code count} bytes, at most {@link #available()}.
+     */
+    void consume(int count) throws BadRequestException {
+        remaining -= count;
+        received += count;
+        if (received > maxBytes) {
+            throw tooLarge();
+        }
+        if (remaining == 0) {
+            state = chunked ? DATA_END : DONE;
+        }
+    }
+
+    /**
+     * Decodes as much of the body as {@code data[position, limit)} holds into {@code body}.
+     *
+     * @return index of the first byte not consumed; bytes after a complete body belong to the next request
+     */
+    int decodeInto(byte[] data, int position, int limit, ByteArrayOutputStream body) throws BadRequestException {
+        while (position < limit && state != DONE) {
+            position = skipFraming(data, position, limit);
+            int count = (int) Math.min(available(), limit - position);
+            if (count > 0) {
+                body.write(data, position, count);
+                consume(count);
+                position += count;
+            }
+        }
+        return position;
+    }
+
+    private void chunkSizeByte(byte b) throws BadRequestException {
+        if (++lineBytes > MAX_CHUNK_LINE_BYTES) {
+            throw new BadRequestException("Chunk header too long");
+        }
+        if (b == '\n') {
+            if (!sawDigit) {
+                throw new BadRequestException("Malformed chunk size");
+            }
+            if (chunkSize == 0) {
+                state = TRAILERS;
+            } else {
+                if (received + chunkSize > maxBytes) {
+                    throw tooLarge();
+                }
+                remaining = chunkSize;
+                state = DATA;
+            }
+            chunkSize = 0;
+            sawDigit = false;
+            digitsEnded = false;
+            lineBytes = 0;
+            return;
+        }
+        if (digitsEnded || b == '\r') {
+            digitsEnded = true; // extension, whitespace or the CR before LF
+            return;
+        }
+        if (b == ';' || b == ' ' || b == '\t') {
+            digitsEnded = true;
+            return;
+        }
+        int digit = Character.digit(b, 16);
+        if (digit < 0) {
+            throw new BadRequestException("Malformed chunk size");
+        }
+        if (chunkSize > (Long.MAX_VALUE >> 4)) {
+            throw tooLarge();
+        }
+        chunkSize = chunkSize * 16 + digit;
+        sawDigit = true;
+    }
+
+    private static BadRequestException tooLarge() {
+        return new BadRequestException("Request body too large", HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+}
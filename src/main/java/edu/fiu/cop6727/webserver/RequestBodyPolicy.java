@@ -0,0 +1,44 @@
+package edu.fiu.cop6727.webserver;
+
+/**
+ * How a route receives request bodies: the largest body it accepts and whether the body is read into memory
+ * before the handler runs or handed to it as a stream. Buffered bodies suit small form and JSON payloads;
+ * streaming bodies are read straight off the connection as the handler consumes them, so uploads of any size
+ * take constant memory. Bodies over the limit are rejected with {@code 413} before the handler is called,
+ * without reading them when their length is declared up front.
+ */
+public final class RequestBodyPolicy {
+    private final boolean streaming;
+    private final long maxBytes;
+
+    private RequestBodyPolicy(boolean streaming, long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Body limit must not be negative: " + maxBytes);
+        }
+        this.streaming = streaming;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The whole body is read before the handler runs and is available from {@link HttpRequest#getBody()}.
+     */
+    public static RequestBodyPolicy buffered(long maxBytes) {
+        return new RequestBodyPolicy(false, maxBytes);
+    }
+
+    /**
+     * The handler reads the body from {@link HttpRequest#getBodyStream()} while it arrives. Use
+     * {@link Long#MAX_VALUE} for no limit.
+     */
+    public static RequestBodyPolicy streaming(long maxBytes) {
+        return new RequestBodyPolicy(true, maxBytes);
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -1,105 +1,583 @@
 package edu.fiu.cop6727.webserver;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32;
 
 /**
- * Routes requests to handlers (static files, echo, slow, etc.).
+ * Routes requests to handlers (static files, echo, slow, etc.) through a {@link RouteTable}. Handlers return
+ * a {@link CompletableFuture}: most complete immediately, while ones that wait (such as {@code /slow})
+ * complete later from {@link ServerTimer} without holding the calling thread.
  */
 public final class RequestRouter {
-    private static final Set<String> SUPPORTED_METHODS = Set.of("GET", "POST");
+    private static final String SLOW_LABEL = "/slow";
+    private static final String STATIC_LABEL = "static";
+    private static final String UNMATCHED_LABEL = "unmatched";
+    private static final byte[] ECHO_PREFIX = "Echo: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GENERATED_BLOCK = "The quick brown fox jumps over the lazy dog.\n".repeat(91)
+            .getBytes(StandardCharsets.US_ASCII);
 
     private final Path documentRoot;
     private final ServerLogger logger;
+    private final StaticFileCache fileCache;
+    private final PathResolutionCache pathCache;
+    private final long zeroCopyThresholdBytes;
+    private final boolean compressionEnabled;
+    private final long compressionMinBytes;
+    private final ServerMetrics metrics;
+    private final RequestBodyPolicy defaultBodyPolicy;
+    /** Largest body {@code /stream/{bytes}} generates, so that one request cannot ask for unbounded output. */
+    private final long maxGeneratedBytes;
+    private final RouteTable routes = new RouteTable();
+    private final List<ReverseProxy> proxies = new ArrayList<>();
+    private final MicroCache microCache;
 
     public RequestRouter(Path documentRoot, ServerLogger logger) {
-        this.documentRoot = documentRoot.toAbsolutePath().normalize();
+        this(ServerConfig.builder()
+                .documentRoot(documentRoot)
+                .cacheMaxBytes(0)
+                .pathCacheMaxEntries(0)
+                .compressionEnabled(false)
+                .build(), logger, new ServerMetrics());
+    }
+
+    RequestRouter(ServerConfig config, ServerLogger logger, ServerMetrics metrics) {
+        this.documentRoot = config.getDocumentRoot();
         this.logger = logger;
+        this.metrics = metrics;
+        this.fileCache = new StaticFileCache(config);
+        metrics.register("static_file_cache_bytes", "gauge", "Bytes held by the static file cache.",
+                fileCache::getTotalBytes);
+        metrics.register("static_file_cache_entries", "gauge", "Files held by the static file cache.",
+                fileCache::size);
+        this.pathCache = new PathResolutionCache(config, fileCache, logger);
+        metrics.register("static_path_cache_entries", "gauge", "Request paths with a remembered resolution.",
+                pathCache::size);
+        metrics.register("static_path_cache_negative_hits_total", "counter",
+                "Static requests answered 403/404 from the path cache without touching the filesystem.",
+                pathCache::getNegativeHits);
+        this.zeroCopyThresholdBytes = config.getZeroCopyThresholdBytes();
+        this.compressionEnabled = config.isCompressionEnabled();
+        this.compressionMinBytes = config.getCompressionMinBytes();
+        this.defaultBodyPolicy = RequestBodyPolicy.buffered(config.getMaxBodyBytes());
+        this.maxGeneratedBytes = config.getMaxStreamBytes();
+        registerBuiltInRoutes();
+        registerProxyRoutes(config);
+        this.microCache = MicroCache.create(config, logger);
+        if (microCache != null) {
+            registerMicroCacheMetrics();
+        }
     }
 
+    /**
+     * Indexes the document root and warms the caches from it: file contents, and gzip variants when
+     * {@code precompress} is set, up to {@code budgetBytes} with the smallest files first; metadata of files
+     * too large to hold; and the resolution of every indexed path.
+     */
+    void warmUp(long budgetBytes, boolean precompress) throws IOException {
+        long start = System.nanoTime();
+        AssetManifest manifest = AssetManifest.scan(documentRoot,
+                Math.max(4, Runtime.getRuntime().availableProcessors()));
+        List<AssetManifest.Asset> smallestFirst = new ArrayList<>(manifest.assets());
+        smallestFirst.sort(Comparator.comparingLong(AssetManifest.Asset::size));
+        long generation = pathCache.generation();
+        long remaining = budgetBytes;
+        int preloaded = 0;
+        int variants = 0;
+        for (AssetManifest.Asset asset : smallestFirst) {
+            StaticFileCache.Entry entry = null;
+            if (asset.size() > fileCache.getMaxFileBytes()) {
+                entry = fileCache.preload(asset.file(), asset.size(), asset.lastModifiedMillis());
+            } else if (asset.size() <= remaining) {
+                entry = fileCache.preload(asset.file(), asset.size(), asset.lastModifiedMillis());
+                if (entry != null && entry.isCached()) {
+                    remaining -= entry.size();
+                    preloaded++;
+                    byte[] variant = precompress && isCompressible(entry)
+                            ? fileCache.variant(asset.file(), entry, ContentEncoding.GZIP)
+                            : null;
+                    if (variant != null) {
+                        remaining -= variant.length;
+                        variants++;
+                    }
+                }
+            }
+            if (pathCache.hasRoom()) {
+                pathCache.put(asset.path(), generation, PathResolutionCache.found(asset.file(), entry));
+            }
+        }
+        logger.info("Warm-up indexed " + manifest.assets().size() + " files (" + manifest.totalBytes()
+                + " bytes) in " + manifest.scanMillis() + " ms and preloaded " + preloaded + " files, "
+                + variants + " gzip variants (" + (budgetBytes - remaining) + " bytes); "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms in total");
+    }
+
+    /**
+     * Stops watching the document root, the micro-cache's refreshes and pooled upstream connections; called
+     * when the server stops.
+     */
+    void close() {
+        pathCache.close();
+        if (microCache != null) {
+            microCache.close();
+        }
+        for (ReverseProxy proxy : proxies) {
+            proxy.close();
+        }
+    }
+
+    /**
+     * Routes {@code request} and waits for the response; for callers that may block, such as tests and
+     * benchmarks. The server engines use {@link #routeAsync}.
+     */
     public HttpResponse route(HttpRequest request) {
-        if (!SUPPORTED_METHODS.contains(request.getMethod())) {
-            HttpResponse response = HttpResponse.text(HttpStatus.METHOD_NOT_ALLOWED,
-                    "Method not allowed");
-            response.setHeader("allow", String.join(", ", SUPPORTED_METHODS));
-            return response;
+        return routeAsync(request).join();
+    }
+
+    /**
+     * Routes {@code request}. The returned future never completes exceptionally: handler failures become
+     * {@code 500} responses.
+     */
+    public CompletableFuture<HttpResponse> routeAsync(HttpRequest request) {
+        RouteTable.Match match = resolve(request);
+        if (!match.isFound()) {
+            return CompletableFuture.completedFuture(noRoute(request));
         }
+        if (microCache != null && microCache.covers(request, match.route())) {
+            return microCache.get(request, () -> invoke(match, request), mayBlock(request));
+        }
+        return invoke(match, request);
+    }
 
+    private CompletableFuture<HttpResponse> invoke(RouteTable.Match match, HttpRequest request) {
         try {
-            return switch (request.getMethod()) {
-                case "GET" -> handleGet(request);
-                case "POST" -> handlePost(request);
-                default -> HttpResponse.text(HttpStatus.NOT_IMPLEMENTED, "Not implemented");
-            };
+            CompletableFuture<HttpResponse> response = match.route().handler().handle(request, match.parameters());
+            return response.isDone() && !response.isCompletedExceptionally()
+                    ? response
+                    : response.exceptionally(this::internalError);
         } catch (IOException e) {
             logger.error("I/O error routing request", e);
-            return HttpResponse.text(HttpStatus.INTERNAL_SERVER_ERROR, "Internal server error");
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return HttpResponse.text(HttpStatus.INTERNAL_SERVER_ERROR, "Server interrupted");
+            return CompletableFuture.completedFuture(
+                    HttpResponse.text(HttpStatus.INTERNAL_SERVER_ERROR, "Internal server error"));
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(internalError(e));
         }
     }
 
-    private HttpResponse handleGet(HttpRequest request) throws IOException, InterruptedException {
-        String path = stripQuery(request.getPath());
-        if ("/slow".equals(path)) {
-            return handleSlow();
-        }
-        if ("/health".equals(path)) {
-            return HttpResponse.text(HttpStatus.OK, "OK");
+    /**
+     * Routes served by this router; embedders register additional handlers here before starting the server.
+     */
+    public RouteTable routes() {
+        return routes;
+    }
+
+    /**
+     * Whether routing this request may block the calling thread for a noticeable time. Event-loop engines
+     * use this to decide which requests must be handed to a worker thread. Only proxy routes block, on their
+     * upstream; other waiting handlers return an incomplete future from {@link #routeAsync} instead.
+     */
+    public boolean mayBlock(HttpRequest request) {
+        return !proxies.isEmpty() && routeLabel(request).startsWith(ReverseProxy.LABEL_PREFIX);
+    }
+
+    /**
+     * Whether the response is deliberately delayed. Such requests cost no thread while they wait and would
+     * only distort the latency signal, so they are exempt from the adaptive concurrency limit.
+     */
+    boolean isDelayed(HttpRequest request) {
+        return SLOW_LABEL.equals(routeLabel(request));
+    }
+
+    /**
+     * How the engine must read the body of {@code request} before, or while, routing it.
+     */
+    RequestBodyPolicy bodyPolicy(HttpRequest request) {
+        RouteTable.Match match = resolve(request);
+        RequestBodyPolicy policy = match.isFound() ? match.route().bodyPolicy() : null;
+        return policy != null ? policy : defaultBodyPolicy;
+    }
+
+    /**
+     * Low-cardinality name of the handler serving {@code request}, used to label metrics.
+     */
+    String routeLabel(HttpRequest request) {
+        RouteTable.Match match = resolve(request);
+        return match.isFound() ? match.route().label() : UNMATCHED_LABEL;
+    }
+
+    private RouteTable.Match resolve(HttpRequest request) {
+        RouteTable.Match match = request.getRouteMatch();
+        if (match == null) {
+            match = routes.find(request.getMethod(), stripQuery(request.getPath()));
+            request.setRouteMatch(match);
         }
-        if ("/".equals(path)) {
-            return serveStaticFile("index.html");
+        return match;
+    }
+
+    /**
+     * 405 with the methods that do have a route for the path, or 404 when none does.
+     */
+    private HttpResponse noRoute(HttpRequest request) {
+        Set<String> allowed = routes.allowedMethods(stripQuery(request.getPath()));
+        if (allowed.isEmpty()) {
+            return HttpResponse.text(HttpStatus.NOT_FOUND, "Not found");
         }
-        return serveStaticFile(path.startsWith("/") ? path.substring(1) : path);
+        HttpResponse response = HttpResponse.text(HttpStatus.METHOD_NOT_ALLOWED, "Method not allowed");
+        response.setHeader("allow", String.join(", ", allowed));
+        return response;
     }
 
-    private HttpResponse handlePost(HttpRequest request) {
-        String path = stripQuery(request.getPath());
-        if ("/echo".equals(path)) {
-            String payload = request.hasBody()
-                    ? new String(request.getBody(), StandardCharsets.UTF_8)
-                    : "";
+    private void registerBuiltInRoutes() {
+        routes.add("GET", "/slow", SLOW_LABEL, (request, parameters) -> handleSlow());
+        routes.add("GET", "/stream/{bytes}", (request, parameters) ->
+                CompletableFuture.completedFuture(handleStream(parameters.get("bytes"))));
+        routes.add("GET", "/health", (request, parameters) ->
+                CompletableFuture.completedFuture(HttpResponse.text(HttpStatus.OK, "OK")));
+        routes.add("GET", "/metrics", (request, parameters) -> {
             HttpResponse response = new HttpResponse(HttpStatus.OK);
-            response.setBodyText("Echo: " + payload, "text/plain");
-            return response;
+            response.setBodyText(metrics.scrape(), ServerMetrics.CONTENT_TYPE);
+            return CompletableFuture.completedFuture(response);
+        });
+        routes.add("POST", "/echo", "/echo", RequestBodyPolicy.streaming(Long.MAX_VALUE), (request, parameters) ->
+                CompletableFuture.completedFuture(handleEcho(request)));
+        routes.add("GET", "/", STATIC_LABEL, (request, parameters) ->
+                CompletableFuture.completedFuture(serveStaticFile(request, "index.html")));
+        routes.add("GET", "/*", STATIC_LABEL, (request, parameters) ->
+                CompletableFuture.completedFuture(serveStaticFile(request, parameters.get("*"))));
+    }
+
+    /**
+     * Forwards each configured pattern to its upstreams, for every method but HEAD. Request bodies are
+     * streamed to the upstream, so they are not limited by {@code server.maxBodyBytes}.
+     */
+    private void registerProxyRoutes(ServerConfig config) {
+        for (Map.Entry<String, List<InetSocketAddress>> route : config.getProxyRoutes().entrySet()) {
+            ReverseProxy proxy = new ReverseProxy(route.getValue(), config, logger);
+            proxies.add(proxy);
+            for (String method : ReverseProxy.METHODS) {
+                routes.add(method, route.getKey(), ReverseProxy.LABEL_PREFIX + route.getKey(),
+                        RequestBodyPolicy.streaming(Long.MAX_VALUE),
+                        (request, parameters) -> CompletableFuture.completedFuture(proxy.forward(request)));
+            }
+        }
+        if (proxies.isEmpty()) {
+            return;
+        }
+        metrics.register("http_proxy_upstream_failures_total", "counter",
+                "Failed connections and exchanges with proxy upstreams.",
+                () -> sumUpstreams(Upstream::getFailures));
+        metrics.register("http_proxy_upstream_ejections_total", "counter",
+                "Times a proxy upstream was taken out of rotation after repeated failures.",
+                () -> sumUpstreams(Upstream::getEjections));
+        metrics.register("http_proxy_idle_connections", "gauge", "Pooled keep-alive connections to upstreams.",
+                () -> sumUpstreams(Upstream::getIdleCount));
+    }
+
+    private void registerMicroCacheMetrics() {
+        metrics.register("http_micro_cache_hits_total", "counter", "Requests answered with a fresh cached response.",
+                microCache::getHits);
+        metrics.register("http_micro_cache_stale_hits_total", "counter",
+                "Requests answered with an expired cached response while it was refreshed.", microCache::getStaleHits);
+        metrics.register("http_micro_cache_misses_total", "counter", "Requests that ran a micro-cached handler.",
+                microCache::getMisses);
+        metrics.register("http_micro_cache_coalesced_total", "counter",
+                "Requests that waited for an identical request's handler instead of running it.",
+                microCache::getCoalesced);
+        metrics.register("http_micro_cache_entries", "gauge", "Responses held by the micro-cache.", microCache::size);
+        metrics.register("http_micro_cache_bytes", "gauge", "Approximate bytes held by the micro-cache.",
+                microCache::getTotalBytes);
+    }
+
+    private long sumUpstreams(ToLongFunction<Upstream> value) {
+        long sum = 0;
+        for (ReverseProxy proxy : proxies) {
+            for (Upstream upstream : proxy.upstreams()) {
+                sum += value.applyAsLong(upstream);
+            }
         }
-        return HttpResponse.text(HttpStatus.NOT_FOUND, "POST endpoint not found");
+        return sum;
     }
 
-    private HttpResponse handleSlow() throws InterruptedException {
-        Thread.sleep(3000);
+    /**
+     * Streams the request body back behind a prefix as it arrives, so uploads of any size take constant
+     * memory. A chunked upload has no length to announce, so its echo is sent chunked as well.
+     */
+    private HttpResponse handleEcho(HttpRequest request) {
+        long length = request.isChunked() ? -1 : request.getContentLength();
         HttpResponse response = new HttpResponse(HttpStatus.OK);
-        response.setBodyText("Slow endpoint completed after 3 seconds", "text/plain");
+        response.setHeader("content-type", "text/plain; charset=utf-8");
+        response.setBodySegments(List.of(BodySegment.bytes(ECHO_PREFIX),
+                BodySegment.stream(request.getBodyStream(), length)));
         return response;
     }
 
-    private HttpResponse serveStaticFile(String relativePath) throws IOException {
-        Path sanitized = sanitizePath(relativePath);
-        if (sanitized == null) {
+    /**
+     * Generates {@code bytes} bytes of text while sending them. The first block is flushed at once so the
+     * client sees data before the rest is produced, and a CRC32 of the body follows as a trailer. Sizes above
+     * {@code server.maxStreamBytes} are refused with {@code 400}.
+     */
+    private HttpResponse handleStream(String bytes) {
+        long size;
+        try {
+            size = Long.parseLong(bytes);
+        } catch (NumberFormatException e) {
+            size = -1;
+        }
+        if (size < 0) {
+            return HttpResponse.text(HttpStatus.BAD_REQUEST, "Invalid size");
+        }
+        if (size > maxGeneratedBytes) {
+            return HttpResponse.text(HttpStatus.BAD_REQUEST, "Size exceeds " + maxGeneratedBytes + " bytes");
+        }
+        long total = size;
+        HttpResponse response = new HttpResponse(HttpStatus.OK);
+        response.setHeader("content-type", "text/plain; charset=utf-8");
+        response.setHeader("trailer", "X-Content-CRC32");
+        response.setStreamingBody(sink -> {
+            CRC32 checksum = new CRC32();
+            long remaining = total;
+            boolean first = true;
+            while (remaining > 0) {
+                int length = (int) Math.min(GENERATED_BLOCK.length, remaining);
+                sink.write(GENERATED_BLOCK, 0, length);
+                checksum.update(GENERATED_BLOCK, 0, length);
+                remaining -= length;
+                if (first) {
+                    sink.flush();
+                    first = false;
+                }
+            }
+            sink.setTrailer("x-content-crc32", Long.toHexString(checksum.getValue()));
+        });
+        return response;
+    }
+
+    private CompletableFuture<HttpResponse> handleSlow() {
+        return ServerTimer.delay(3, TimeUnit.SECONDS, () -> {
+            HttpResponse response = new HttpResponse(HttpStatus.OK);
+            response.setBodyText("Slow endpoint completed after 3 seconds", "text/plain");
+            return response;
+        });
+    }
+
+    private HttpResponse internalError(Throwable failure) {
+        logger.error("Handler failed", failure);
+        return HttpResponse.text(HttpStatus.INTERNAL_SERVER_ERROR, "Internal server error");
+    }
+
+    private HttpResponse serveStaticFile(HttpRequest request, String relativePath) throws IOException {
+        String path = stripQuery(relativePath);
+        PathResolutionCache.Resolution resolution = pathCache.get(path);
+        StaticFileCache.Entry entry = null;
+        if (resolution != null && resolution.failure() == null) {
+            entry = resolution.metadata() != null ? resolution.metadata() : fileCache.get(resolution.file());
+            if (entry == null) {
+                pathCache.remove(path);
+                resolution = null;
+            }
+        }
+        if (resolution == null) {
+            long generation = pathCache.generation();
+            resolution = resolveStaticPath(path);
+            if (resolution.failure() == null) {
+                entry = fileCache.get(resolution.file());
+                resolution = entry != null
+                        ? PathResolutionCache.found(resolution.file(), entry)
+                        : PathResolutionCache.notFound(resolution.file());
+            }
+            pathCache.put(path, generation, resolution);
+        }
+        if (resolution.failure() == HttpStatus.FORBIDDEN) {
             return HttpResponse.text(HttpStatus.FORBIDDEN, "Invalid path");
         }
-        Path absolutePath = documentRoot.resolve(sanitized).normalize();
-        if (!absolutePath.startsWith(documentRoot) || Files.isDirectory(absolutePath)) {
+        if (resolution.failure() != null) {
             return HttpResponse.text(HttpStatus.NOT_FOUND, "File not found");
         }
-        if (!Files.exists(absolutePath)) {
-            return HttpResponse.text(HttpStatus.NOT_FOUND, "File not found");
+        Path absolutePath = resolution.file();
+        String range = request.getHeaders().get("range");
+        boolean negotiable = isCompressible(entry);
+        String encoding = negotiable && range == null
+                ? ContentEncoding.negotiate(request.getHeaders().get("accept-encoding"))
+                : null;
+        byte[] encodedBody = null;
+        Path encodedFile = null;
+        if (encoding != null) {
+            if (entry.isCached()) {
+                encodedBody = fileCache.variant(absolutePath, entry, encoding);
+            } else if (ContentEncoding.GZIP.equals(encoding)) {
+                encodedFile = StaticFileCache.gzipSibling(absolutePath, entry.lastModifiedMillis());
+            }
+            if (encodedBody == null && encodedFile == null) {
+                encoding = null;
+            }
+        }
+        String etag = entry.etag(encoding);
+
+        if (isNotModified(request, entry, etag)) {
+            HttpResponse response = new HttpResponse(HttpStatus.NOT_MODIFIED);
+            response.setHeader("etag", etag);
+            response.setHeader("last-modified", entry.lastModified());
+            if (negotiable) {
+                response.setHeader("vary", "Accept-Encoding");
+            }
+            response.clearBody();
+            return response;
         }
-        byte[] content = Files.readAllBytes(absolutePath);
         HttpResponse response = new HttpResponse(HttpStatus.OK);
-        response.setHeader("content-type", MimeTypes.probe(absolutePath.toString()));
-        response.setBody(content);
+        response.setHeader("content-type", entry.mimeType());
+        response.setHeader("etag", etag);
+        response.setHeader("last-modified", entry.lastModified());
+        response.setHeader("accept-ranges", "bytes");
+        if (negotiable) {
+            response.setHeader("vary", "Accept-Encoding");
+        }
+        if (encoding != null) {
+            response.setHeader("content-encoding", encoding);
+            if (encodedBody != null) {
+                response.setBody(encodedBody);
+            } else {
+                response.setFileBody(encodedFile, 0, Files.size(encodedFile));
+            }
+            return response;
+        }
+        if (range != null && ifRangeMatches(request, entry)) {
+            List<ByteRange> ranges = ByteRange.parse(range, entry.size());
+            if (ranges != null) {
+                return servePartial(response, entry, absolutePath, ranges);
+            }
+        }
+        if (entry.isCached()) {
+            response.setBody(entry.content(), entry.contentLength());
+            return response;
+        }
+        if (entry.size() >= zeroCopyThresholdBytes) {
+            response.setFileBody(absolutePath, 0, entry.size());
+            return response;
+        }
+        try {
+            response.setBody(Files.readAllBytes(absolutePath));
+        } catch (NoSuchFileException e) {
+            return HttpResponse.text(HttpStatus.NOT_FOUND, "File not found");
+        }
+        return response;
+    }
+
+    /**
+     * Evaluates If-None-Match, or If-Modified-Since when no entity tag was sent.
+     */
+    private boolean isNotModified(HttpRequest request, StaticFileCache.Entry entry, String etag) {
+        String ifNoneMatch = request.getHeaders().get("if-none-match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if ("*".equals(tag) || etag.equals(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeaders().get("if-modified-since");
+        if (ifModifiedSince == null) {
+            return false;
+        }
+        long since = HttpDates.parse(ifModifiedSince);
+        return since >= 0 && entry.lastModifiedMillis() / 1000 <= since / 1000;
+    }
+
+    private boolean isCompressible(StaticFileCache.Entry entry) {
+        return compressionEnabled
+                && entry.size() >= compressionMinBytes
+                && MimeTypes.isCompressible(entry.mimeType());
+    }
+
+    /**
+     * A Range request is only honoured if its If-Range validator (strong ETag or exact date) still matches.
+     */
+    private boolean ifRangeMatches(HttpRequest request, StaticFileCache.Entry entry) {
+        String ifRange = request.getHeaders().get("if-range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return entry.etag().equals(ifRange);
+        }
+        long date = HttpDates.parse(ifRange);
+        return date >= 0 && entry.lastModifiedMillis() / 1000 == date / 1000;
+    }
+
+    private HttpResponse servePartial(HttpResponse response, StaticFileCache.Entry entry, Path file,
+                                      List<ByteRange> ranges) {
+        if (ranges.isEmpty()) {
+            HttpResponse unsatisfiable = HttpResponse.text(HttpStatus.RANGE_NOT_SATISFIABLE,
+                    "Requested range not satisfiable");
+            unsatisfiable.setHeader("content-range", "bytes */" + entry.size());
+            return unsatisfiable;
+        }
+        response.setStatus(HttpStatus.PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.setHeader("content-range", range.toContentRange(entry.size()));
+            response.setBodySegments(List.of(bodySlice(entry, file, range)));
+            return response;
+        }
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+        List<BodySegment> segments = new ArrayList<>(ranges.size() * 2 + 1);
+        for (int i = 0; i < ranges.size(); i++) {
+            ByteRange range = ranges.get(i);
+            String partHeader = (i == 0 ? "" : "\r\n") + "--" + boundary + "\r\n"
+                    + "Content-Type: " + entry.mimeType() + "\r\n"
+                    + "Content-Range: " + range.toContentRange(entry.size()) + "\r\n\r\n";
+            segments.add(BodySegment.bytes(partHeader.getBytes(StandardCharsets.US_ASCII)));
+            segments.add(bodySlice(entry, file, range));
+        }
+        segments.add(BodySegment.bytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII)));
+        response.setHeader("content-type", "multipart/byteranges; boundary=" + boundary);
+        response.setBodySegments(segments);
         return response;
     }
 
+    private BodySegment bodySlice(StaticFileCache.Entry entry, Path file, ByteRange range) {
+        if (entry.isCached()) {
+            return BodySegment.bytes(entry.content(), (int) range.first(), (int) range.length());
+        }
+        return BodySegment.file(file, range.first(), range.length());
+    }
+
+    /**
+     * Maps a request path to a file under the document root without touching the filesystem: a
+     * {@link PathResolutionCache#found} placeholder for the caller to stat, or a final failure.
+     */
+    private PathResolutionCache.Resolution resolveStaticPath(String path) {
+        Path sanitized = sanitizePath(path);
+        if (sanitized == null) {
+            return PathResolutionCache.forbidden();
+        }
+        Path absolutePath = documentRoot.resolve(sanitized).normalize();
+        if (!absolutePath.startsWith(documentRoot)) {
+            return PathResolutionCache.notFound(null);
+        }
+        return PathResolutionCache.found(absolutePath, null);
+    }
+
     private Path sanitizePath(String rawPath) {
-        String path = stripQuery(rawPath);
-        path = path.replace('\\', '/');
+        String path = rawPath.replace('\\', '/');
         if (path.startsWith("/")) {
             path = path.substring(1);
         }
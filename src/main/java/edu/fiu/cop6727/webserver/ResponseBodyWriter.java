@@ -0,0 +1,17 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.IOException;
+
+/**
+ * Produces a response body incrementally, for content that is generated rather than held in memory. The
+ * server calls it once the head has been sent; it runs on a worker thread and may block while it produces
+ * data.
+ */
+@FunctionalInterface
+public interface ResponseBodyWriter {
+    /**
+     * Writes the body to {@code sink}. The server closes the sink when this returns; throwing aborts the
+     * response, and the client sees the connection close before the body ends.
+     */
+    void writeBody(ResponseSink sink) throws IOException;
+}
@@ -0,0 +1,102 @@
+package edu.fiu.cop6727.webserver;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that response heads (and small bodies) are serialized into before a single write.
+ * One instance is pooled per thread, so steady-state serialization allocates nothing.
+ */
+final class ResponseBuffer {
+    private static final int INITIAL_BYTES = 4 * 1024;
+    private static final int RETAINED_BYTES = 64 * 1024;
+    private static final ThreadLocal<ResponseBuffer> POOL = ThreadLocal.withInitial(ResponseBuffer::new);
+
+    private byte[] data = new byte[INITIAL_BYTES];
+    private int length;
+
+    private ResponseBuffer() {
+    }
+
+    /**
+     * Returns the calling thread's buffer, emptied. It must be released before the thread acquires it again.
+     */
+    static ResponseBuffer acquire() {
+        ResponseBuffer buffer = POOL.get();
+        buffer.length = 0;
+        return buffer;
+    }
+
+    /**
+     * Drops a buffer that grew for an unusually large response so it is not pinned by the thread.
+     */
+    void release() {
+        length = 0;
+        if (data.length > RETAINED_BYTES) {
+            data = new byte[INITIAL_BYTES];
+        }
+    }
+
+    byte[] array() {
+        return data;
+    }
+
+    int length() {
+        return length;
+    }
+
+    void put(byte[] bytes) {
+        put(bytes, 0, bytes.length);
+    }
+
+    void put(byte[] bytes, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(bytes, offset, data, length, count);
+        length += count;
+    }
+
+    void put(byte b) {
+        ensureCapacity(1);
+        data[length++] = b;
+    }
+
+    /**
+     * Appends {@code text} as US-ASCII, replacing other characters with {@code '?'}.
+     */
+    void putAscii(String text) {
+        int count = text.length();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            data[length++] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+    }
+
+    void putDecimal(long value) {
+        if (value < 0) {
+            putAscii(Long.toString(value));
+            return;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            data[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    void putCrlf() {
+        ensureCapacity(2);
+        data[length++] = '\r';
+        data[length++] = '\n';
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Destination of a streamed response body. Writes are collected in a small buffer that goes out as one
+ * chunk of the chunked transfer coding when it fills up or when {@link #flush()} is called, so memory stays
+ * bounded however large the body grows and the client sees the first bytes as soon as the handler flushes.
+ * Clients that cannot take chunked responses (HTTP/1.0) receive the raw bytes, delimited by closing the
+ * connection, and no trailers.
+ */
+public final class ResponseSink extends OutputStream {
+    static final int BUFFER_BYTES = 32 * 1024;
+    /** Room in front of the data for the chunk-size line: up to 8 hex digits and CRLF. */
+    private static final int HEADER_RESERVE = 10;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Where framed body bytes go: the socket itself in the blocking engine, a hand-off queue to the event
+     * loop in the nio engine.
+     */
+    interface Transport {
+        /**
+         * Sends {@code data[offset, offset + length)}; the array is reused once this returns.
+         *
+         * @param flush whether the bytes should reach the client now rather than wait for more
+         */
+        void send(byte[] data, int offset, int length, boolean flush) throws IOException;
+    }
+
+    private final Transport transport;
+    private final boolean chunked;
+    private final byte[] buffer = new byte[HEADER_RESERVE + BUFFER_BYTES + 2];
+    private int count;
+    private long bytesSent;
+    private Map<String, String> trailers;
+    private boolean closed;
+
+    ResponseSink(Transport transport, boolean chunked) {
+        this.transport = transport;
+        this.chunked = chunked;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == BUFFER_BYTES) {
+            emit(false);
+        }
+        buffer[HEADER_RESERVE + count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            if (count == BUFFER_BYTES) {
+                emit(false);
+            }
+            int copied = Math.min(length, BUFFER_BYTES - count);
+            System.arraycopy(data, offset, buffer, HEADER_RESERVE + count, copied);
+            count += copied;
+            offset += copied;
+            length -= copied;
+        }
+    }
+
+    /**
+     * Writes {@code text} encoded as UTF-8.
+     */
+    public void write(String text) throws IOException {
+        write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends everything written so far to the client now, as one chunk.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        emit(true);
+    }
+
+    /**
+     * Sets a trailer field sent after the last chunk, e.g. a checksum only known once the body is complete.
+     * Trailers are dropped for clients that cannot receive them; a {@code Trailer} response header announcing
+     * the names lets clients expect them.
+     */
+    public void setTrailer(String name, String value) {
+        if (containsLineBreak(name) || containsLineBreak(value)) {
+            throw new IllegalArgumentException("Trailer must not contain line breaks: " + name);
+        }
+        if (trailers == null) {
+            trailers = new LinkedHashMap<>();
+        }
+        trailers.put(name.toLowerCase(Locale.ROOT), value.trim());
+    }
+
+    /**
+     * Sends the remaining bytes and ends the body with the last chunk and any trailers.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        emit(false);
+        closed = true;
+        if (chunked) {
+            StringBuilder end = new StringBuilder("0\r\n");
+            if (trailers != null) {
+                for (Map.Entry<String, String> trailer : trailers.entrySet()) {
+                    end.append(trailer.getKey()).append(": ").append(trailer.getValue()).append("\r\n");
+                }
+            }
+            byte[] encoded = end.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+            transport.send(encoded, 0, encoded.length, true);
+            bytesSent += encoded.length;
+        } else {
+            transport.send(buffer, 0, 0, true);
+        }
+    }
+
+    /**
+     * Trailers set by the writer, for transports that frame them themselves; null if none were set.
+     */
+    Map<String, String> getTrailers() {
+        return trailers;
+    }
+
+    /**
+     * Bytes handed to the transport so far, framing included.
+     */
+    long getBytesSent() {
+        return bytesSent;
+    }
+
+    private void emit(boolean flush) throws IOException {
+        if (count == 0) {
+            if (flush) {
+                transport.send(buffer, 0, 0, true);
+            }
+            return;
+        }
+        int start = HEADER_RESERVE;
+        int end = HEADER_RESERVE + count;
+        if (chunked) {
+            buffer[--start] = '\n';
+            buffer[--start] = '\r';
+            for (int remaining = count; remaining > 0; remaining >>>= 4) {
+                buffer[--start] = HEX[remaining & 0xf];
+            }
+            buffer[end++] = '\r';
+            buffer[end++] = '\n';
+        }
+        transport.send(buffer, start, end - start, flush);
+        bytesSent += end - start;
+        count = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Response body already closed");
+        }
+    }
+
+    private static boolean containsLineBreak(String text) {
+        return text.indexOf('\r') >= 0 || text.indexOf('\n') >= 0;
+    }
+}
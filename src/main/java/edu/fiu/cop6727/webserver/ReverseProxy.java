@@ -0,0 +1,341 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Forwards the requests of one route to a group of upstream HTTP/1.1 servers. Each {@link Upstream} keeps a
+ * pool of keep-alive connections; a request goes to the next upstream in turn, or to the one with the fewest
+ * requests in flight. Upstreams that keep failing are ejected for a while, and if every upstream is ejected
+ * they are tried anyway rather than failing outright. A request the upstream never received, or an
+ * idempotent one without a body, moves on to another upstream when its first one fails.
+ * <p>
+ * Bodies are not buffered: the request body is copied to the upstream as the client sends it, and the
+ * response body is copied to the client by a {@link ResponseBodyWriter} while the upstream connection stays
+ * checked out. Only small bodies of declared length are read at once, which puts their connection back in
+ * the pool before the client has received them. Forwarding blocks on the upstream, so proxy routes report
+ * {@link RequestRouter#mayBlock} and run on worker threads in every engine.
+ */
+final class ReverseProxy {
+    static final String LABEL_PREFIX = "proxy:";
+    /** Methods forwarded. HEAD is not, because the engines always send the body of a response. */
+    static final List<String> METHODS = List.of("GET", "POST", "PUT", "PATCH", "DELETE", "OPTIONS");
+    private static final Set<String> IDEMPOTENT = Set.of("GET", "PUT", "DELETE", "OPTIONS");
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "proxy-connection", "te",
+            "trailer", "transfer-encoding", "upgrade", "http2-settings", "expect", "content-length");
+    private static final int BUFFERED_RESPONSE_BYTES = 64 * 1024;
+    private static final int COPY_BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
+    /** A response whose body is never sent, because its client went away first, frees its connection then. */
+    private static final long ABANDON_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final List<Upstream> upstreams = new ArrayList<>();
+    private final ServerConfig.LoadBalancing balancing;
+    private final ServerLogger logger;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ReverseProxy(List<InetSocketAddress> addresses, ServerConfig config, ServerLogger logger) {
+        for (InetSocketAddress address : addresses) {
+            upstreams.add(new Upstream(address, config, logger));
+        }
+        this.balancing = config.getProxyBalancing();
+        this.logger = logger;
+    }
+
+    /**
+     * Sends {@code request} upstream and returns the upstream's response, or {@code 502}/{@code 504} when no
+     * upstream answered.
+     */
+    HttpResponse forward(HttpRequest request) {
+        boolean replayable = !request.hasBody() && IDEMPOTENT.contains(request.getMethod());
+        boolean[] tried = new boolean[upstreams.size()];
+        IOException failure = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            int index = choose(tried);
+            if (index < 0) {
+                break;
+            }
+            tried[index] = true;
+            Upstream upstream = upstreams.get(index);
+            upstream.requestStarted();
+            Upstream.Connection connection;
+            try {
+                connection = upstream.acquire();
+            } catch (IOException e) {
+                // Nothing was sent, so any request can go elsewhere.
+                upstream.requestFinished();
+                upstream.recordFailure(e);
+                failure = e;
+                continue;
+            }
+            try {
+                return exchange(upstream, connection, request, replayable);
+            } catch (IOException e) {
+                upstream.requestFinished();
+                upstream.recordFailure(e);
+                failure = e;
+                if (!replayable || e instanceof SocketTimeoutException) {
+                    break;
+                }
+            }
+        }
+        if (failure == null) {
+            return HttpResponse.text(HttpStatus.BAD_GATEWAY, "No upstream available");
+        }
+        logger.warn("Proxying " + request.getMethod() + " " + request.getPath() + " failed: " + failure.getMessage());
+        return failure instanceof SocketTimeoutException
+                ? HttpResponse.text(HttpStatus.GATEWAY_TIMEOUT, "Upstream timed out")
+                : HttpResponse.text(HttpStatus.BAD_GATEWAY, "Upstream unavailable");
+    }
+
+    List<Upstream> upstreams() {
+        return upstreams;
+    }
+
+    void close() {
+        for (Upstream upstream : upstreams) {
+            upstream.close();
+        }
+    }
+
+    /**
+     * Index of the upstream for the next attempt, or -1 when every upstream was tried.
+     */
+    private int choose(boolean[] tried) {
+        long now = System.nanoTime();
+        int count = upstreams.size();
+        int start = Math.floorMod(next.getAndIncrement(), count);
+        int chosen = -1;
+        int ejected = -1;
+        for (int i = 0; i < count; i++) {
+            int index = (start + i) % count;
+            if (tried[index]) {
+                continue;
+            }
+            Upstream upstream = upstreams.get(index);
+            if (!upstream.isAvailable(now)) {
+                if (ejected < 0) {
+                    ejected = index;
+                }
+            } else if (balancing == ServerConfig.LoadBalancing.ROUND_ROBIN) {
+                return index;
+            } else if (chosen < 0 || upstream.inFlight() < upstreams.get(chosen).inFlight()) {
+                chosen = index;
+            }
+        }
+        return chosen >= 0 ? chosen : ejected;
+    }
+
+    /**
+     * Sends the request on {@code connection} and reads the response head. A pooled connection the upstream
+     * closed while it sat idle fails at once; a replayable request is then sent again on a new connection.
+     * On failure the connection is closed; on success it belongs to the response until its body is read.
+     */
+    private HttpResponse exchange(Upstream upstream, Upstream.Connection connection, HttpRequest request,
+                                  boolean replayable) throws IOException {
+        Upstream.ResponseHead head;
+        try {
+            writeRequest(upstream, connection.output(), request);
+            head = connection.readHead();
+        } catch (IOException e) {
+            connection.close();
+            if (!connection.isReused() || !replayable || e instanceof SocketTimeoutException) {
+                throw e;
+            }
+            connection = upstream.connect();
+            try {
+                writeRequest(upstream, connection.output(), request);
+                head = connection.readHead();
+            } catch (IOException retryFailure) {
+                connection.close();
+                throw retryFailure;
+            }
+        }
+        try {
+            return toResponse(upstream, connection, head);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private HttpResponse toResponse(Upstream upstream, Upstream.Connection connection, Upstream.ResponseHead head)
+            throws IOException {
+        upstream.recordSuccess();
+        if (head.status > 599) {
+            connection.close();
+            upstream.requestFinished();
+            return HttpResponse.text(HttpStatus.BAD_GATEWAY, "Invalid upstream status " + head.status);
+        }
+        HttpResponse response = HttpResponse.withStatusCode(head.status, head.reason);
+        HttpStatus status = response.getStatus();
+        Set<String> listed = connectionOptions(head.headers.get("connection"));
+        for (Map.Entry<String, String> field : head.headers.asMap().entrySet()) {
+            if (!HOP_BY_HOP.contains(field.getKey()) && !listed.contains(field.getKey())) {
+                response.setHeader(field.getKey(), field.getValue());
+                for (String value : head.headers.additionalValues(field.getKey())) {
+                    response.addHeader(field.getKey(), value);
+                }
+            }
+        }
+        if (status == HttpStatus.NO_CONTENT || status == HttpStatus.NOT_MODIFIED) {
+            connection.noBody();
+            finish(upstream, connection);
+            response.clearBody();
+            return response;
+        }
+        InputStream body = connection.body(head);
+        if (head.contentLength >= 0 && head.contentLength <= BUFFERED_RESPONSE_BYTES) {
+            byte[] data = body.readNBytes((int) head.contentLength);
+            body.read(); // marks the body complete
+            finish(upstream, connection);
+            response.setBody(data);
+            return response;
+        }
+        response.setStreamingBody(new Relay(upstream, connection, body));
+        if (head.contentLength >= 0) {
+            response.setHeader("content-length", String.valueOf(head.contentLength));
+        }
+        return response;
+    }
+
+    private static void finish(Upstream upstream, Upstream.Connection connection) {
+        upstream.release(connection);
+        upstream.requestFinished();
+    }
+
+    /**
+     * Writes the request head, without hop-by-hop fields, and copies the body in the framing it arrived in.
+     */
+    private static void writeRequest(Upstream upstream, OutputStream output, HttpRequest request)
+            throws IOException {
+        HttpHeaders headers = request.getHeaders();
+        StringBuilder head = new StringBuilder(512);
+        head.append(request.getMethod()).append(' ').append(request.getPath()).append(" HTTP/1.1\r\n");
+        String host = headers.get("host");
+        head.append("host: ").append(host != null ? host : upstream.authority()).append("\r\n");
+        Set<String> listed = connectionOptions(headers.get("connection"));
+        for (Map.Entry<String, String> field : headers.asMap().entrySet()) {
+            String name = field.getKey();
+            if (!"host".equals(name) && !HOP_BY_HOP.contains(name) && !listed.contains(name)) {
+                head.append(name).append(": ").append(field.getValue()).append("\r\n");
+            }
+        }
+        InputStream body = null;
+        boolean chunked = request.isChunked();
+        if (chunked) {
+            head.append("transfer-encoding: chunked\r\n");
+            body = request.getBodyStream();
+        } else if (request.getContentLength() > 0) {
+            head.append("content-length: ").append(request.getContentLength()).append("\r\n");
+            body = request.getBodyStream();
+        } else if (request.hasBody()) {
+            // A buffered body attached without a declared length.
+            byte[] buffered = request.getBody();
+            head.append("content-length: ").append(buffered.length).append("\r\n");
+            body = new ByteArrayInputStream(buffered);
+        }
+        head.append("\r\n");
+        output.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (body != null) {
+            copyBody(body, output, chunked);
+        }
+        output.flush();
+    }
+
+    private static void copyBody(InputStream body, OutputStream output, boolean chunked) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        int read;
+        while ((read = body.read(buffer, 0, buffer.length)) >= 0) {
+            if (read == 0) {
+                continue;
+            }
+            if (chunked) {
+                output.write((Integer.toHexString(read) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            output.write(buffer, 0, read);
+            if (chunked) {
+                output.write('\r');
+                output.write('\n');
+            }
+        }
+        if (chunked) {
+            output.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Field names listed in a Connection header, which apply to that hop only.
+     */
+    private static Set<String> connectionOptions(String connection) {
+        if (connection == null) {
+            return Set.of();
+        }
+        Set<String> options = new HashSet<>();
+        for (String option : connection.split(",")) {
+            options.add(option.trim().toLowerCase(Locale.ROOT));
+        }
+        return options;
+    }
+
+    /**
+     * Copies an upstream response body to the client, passing on each read as soon as the upstream has
+     * nothing more buffered, and gives the connection back once the body ends.
+     */
+    private static final class Relay implements ResponseBodyWriter {
+        private final Upstream upstream;
+        private final Upstream.Connection connection;
+        private final InputStream body;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final ScheduledFuture<?> abandonTimer;
+
+        Relay(Upstream upstream, Upstream.Connection connection, InputStream body) {
+            this.upstream = upstream;
+            this.connection = connection;
+            this.body = body;
+            this.abandonTimer = ServerTimer.schedule(this::abandon, ABANDON_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void writeBody(ResponseSink sink) throws IOException {
+            if (!claimed.compareAndSet(false, true)) {
+                throw new IOException("Upstream response was abandoned");
+            }
+            abandonTimer.cancel(false);
+            try {
+                byte[] buffer = new byte[COPY_BUFFER_BYTES];
+                int read;
+                while ((read = body.read(buffer, 0, buffer.length)) >= 0) {
+                    sink.write(buffer, 0, read);
+                    if (body.available() == 0) {
+                        sink.flush();
+                    }
+                }
+            } finally {
+                finish(upstream, connection);
+            }
+        }
+
+        private void abandon() {
+            if (claimed.compareAndSet(false, true)) {
+                connection.close();
+                upstream.requestFinished();
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package edu.fiu.cop6727.webserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Registry of {@link Handler}s by method and path pattern. Literal patterns such as {@code /health} are
+ * found with one hash lookup; patterns with {@code {name}} segments or a trailing {@code *} live in a trie
+ * keyed by path segment, so dispatch cost depends on the depth of the path rather than on how many routes
+ * are registered. When several patterns match, a literal segment beats a parameter, which beats {@code *}.
+ * Routes must be registered before the server starts.
+ */
+public final class RouteTable {
+    private static final String WILDCARD = "*";
+
+    private final Map<String, MethodRoutes> byMethod = new HashMap<>();
+
+    /**
+     * Registers {@code handler} for {@code pattern}, using the pattern itself as the metrics label.
+     */
+    public RouteTable add(String method, String pattern, Handler handler) {
+        return add(method, pattern, pattern, handler);
+    }
+
+    /**
+     * Registers {@code handler} for requests with {@code method} whose path matches {@code pattern}, e.g.
+     * {@code /health}, {@code /files/{name}} or {@code /assets/*}. {@code label} names the route in metrics
+     * and must come from a small fixed set.
+     */
+    public RouteTable add(String method, String pattern, String label, Handler handler) {
+        return add(method, pattern, label, null, handler);
+    }
+
+    /**
+     * Registers a route that receives request bodies according to {@code bodyPolicy}; null uses the server's
+     * default, a buffered body of at most {@code server.maxBodyBytes}.
+     */
+    public RouteTable add(String method, String pattern, String label, RequestBodyPolicy bodyPolicy,
+                          Handler handler) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route pattern must start with '/': " + pattern);
+        }
+        String normalizedMethod = method.toUpperCase(Locale.ROOT);
+        byMethod.computeIfAbsent(normalizedMethod, ignored -> new MethodRoutes())
+                .add(pattern, label, bodyPolicy, handler, normalizedMethod);
+        return this;
+    }
+
+    /**
+     * Finds the route for {@code path} (without query string), or {@link Match#NOT_FOUND}.
+     */
+    Match find(String method, String path) {
+        MethodRoutes routes = byMethod.get(method);
+        return routes == null ? Match.NOT_FOUND : routes.find(path);
+    }
+
+    /**
+     * Methods with a route for {@code path}, in the order used for an {@code Allow} header.
+     */
+    Set<String> allowedMethods(String path) {
+        Set<String> allowed = new TreeSet<>();
+        for (Map.Entry<String, MethodRoutes> entry : byMethod.entrySet()) {
+            if (entry.getValue().find(path).isFound()) {
+                allowed.add(entry.getKey());
+            }
+        }
+        return allowed;
+    }
+
+    static final class Route {
+        private final String pattern;
+        private final String label;
+        private final RequestBodyPolicy bodyPolicy;
+        private final Handler handler;
+        /** Names of the {@code {name}} segments in order, plus {@code "*"} for a trailing wildcard. */
+        private final String[] parameterNames;
+        private final Match exactMatch;
+
+        private Route(String pattern, String label, RequestBodyPolicy bodyPolicy, Handler handler,
+                      String[] parameterNames) {
+            this.pattern = pattern;
+            this.label = label;
+            this.bodyPolicy = bodyPolicy;
+            this.handler = handler;
+            this.parameterNames = parameterNames;
+            this.exactMatch = new Match(this, null);
+        }
+
+        String pattern() {
+            return pattern;
+        }
+
+        String label() {
+            return label;
+        }
+
+        /**
+         * The route's body policy, or null for the server default.
+         */
+        RequestBodyPolicy bodyPolicy() {
+            return bodyPolicy;
+        }
+
+        Handler handler() {
+            return handler;
+        }
+    }
+
+    /**
+     * A route together with the path parameter values it captured.
+     */
+    static final class Match {
+        static final Match NOT_FOUND = new Match(null, null);
+
+        private final Route route;
+        private final String[] values;
+
+        private Match(Route route, String[] values) {
+            this.route = route;
+            this.values = values;
+        }
+
+        boolean isFound() {
+            return route != null;
+        }
+
+        Route route() {
+            return route;
+        }
+
+        /**
+         * Captured parameters by name; built on demand so lookups that only need the route stay cheap.
+         */
+        Map<String, String> parameters() {
+            if (values == null) {
+                return Collections.emptyMap();
+            }
+            Map<String, String> parameters = new LinkedHashMap<>();
+            for (int i = 0; i < route.parameterNames.length; i++) {
+                parameters.put(route.parameterNames[i], values[i]);
+            }
+            return parameters;
+        }
+    }
+
+    private static final class MethodRoutes {
+        private final Map<String, Route> exact = new HashMap<>();
+        private final Node root = new Node();
+        private int maxParameters;
+        private boolean hasPatterns;
+
+        void add(String pattern, String label, RequestBodyPolicy bodyPolicy, Handler handler, String method) {
+            String[] segments = pattern.substring(1).split("/", -1);
+            List<String> names = new ArrayList<>();
+            Node node = root;
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (WILDCARD.equals(segment)) {
+                    if (i != segments.length - 1) {
+                        throw new IllegalArgumentException("'*' must be the last segment: " + pattern);
+                    }
+                    names.add(WILDCARD);
+                    Route route = newRoute(pattern, label, bodyPolicy, handler, names);
+                    if (node.wildcard != null) {
+                        throw duplicate(method, pattern, node.wildcard);
+                    }
+                    node.wildcard = route;
+                    return;
+                }
+                if (segment.startsWith("{") && segment.endsWith("}") && segment.length() > 2) {
+                    names.add(segment.substring(1, segment.length() - 1));
+                    if (node.parameter == null) {
+                        node.parameter = new Node();
+                    }
+                    node = node.parameter;
+                } else {
+                    node = node.children.computeIfAbsent(segment, ignored -> new Node());
+                }
+            }
+            if (node.route != null) {
+                throw duplicate(method, pattern, node.route);
+            }
+            Route route = newRoute(pattern, label, bodyPolicy, handler, names);
+            node.route = route;
+            if (names.isEmpty()) {
+                exact.put(pattern, route);
+            }
+        }
+
+        private Route newRoute(String pattern, String label, RequestBodyPolicy bodyPolicy, Handler handler,
+                               List<String> names) {
+            if (!names.isEmpty()) {
+                hasPatterns = true;
+                maxParameters = Math.max(maxParameters, names.size());
+            }
+            return new Route(pattern, label, bodyPolicy, handler, names.toArray(new String[0]));
+        }
+
+        Match find(String path) {
+            if (!path.startsWith("/")) {
+                return Match.NOT_FOUND;
+            }
+            Route route = exact.get(path);
+            if (route != null) {
+                return route.exactMatch;
+            }
+            if (!hasPatterns) {
+                return Match.NOT_FOUND;
+            }
+            String[] values = new String[maxParameters];
+            route = walk(root, path, 1, values, 0);
+            if (route == null) {
+                return Match.NOT_FOUND;
+            }
+            return route.parameterNames.length == 0 ? route.exactMatch : new Match(route, values);
+        }
+
+        /**
+         * Matches the segment of {@code path} starting at {@code start} against {@code node}'s children,
+         * backtracking from literal to parameter to wildcard.
+         */
+        private static Route walk(Node node, String path, int start, String[] values, int depth) {
+            if (start > path.length()) {
+                return node.route;
+            }
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            String segment = path.substring(start, end);
+            Node child = node.children.get(segment);
+            if (child != null) {
+                Route route = walk(child, path, end + 1, values, depth);
+                if (route != null) {
+                    return route;
+                }
+            }
+            if (node.parameter != null && !segment.isEmpty()) {
+                Route route = walk(node.parameter, path, end + 1, values, depth + 1);
+                if (route != null) {
+                    values[depth] = segment;
+                    return route;
+                }
+            }
+            if (node.wildcard != null) {
+                values[depth] = path.substring(start);
+                return node.wildcard;
+            }
+            return null;
+        }
+
+        private static IllegalArgumentException duplicate(String method, String pattern, Route existing) {
+            return new IllegalArgumentException("Duplicate route " + method + " " + pattern
+                    + " (conflicts with " + existing.pattern + ")");
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>(4);
+        private Node parameter;
+        private Route route;
+        private Route wildcard;
+    }
+}
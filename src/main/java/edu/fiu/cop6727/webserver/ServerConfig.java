@@ -2,10 +2,16 @@ package edu.fiu.cop6727.webserver;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 
@@ -17,12 +23,128 @@ public final class ServerConfig {
     private final Path documentRoot;
     private final int maxThreads;
     private final int socketTimeoutMillis;
+    private final int keepAliveTimeoutMillis;
+    private final int maxKeepAliveRequests;
+    private final Engine engine;
+    private final int eventLoopThreads;
+    private final WorkerMode workerMode;
+    private final int maxConcurrency;
+    private final long cacheMaxBytes;
+    private final long cacheMaxFileBytes;
+    private final int cacheRevalidateMillis;
+    private final int pathCacheMaxEntries;
+    private final boolean pathCacheWatch;
+    private final boolean warmupEnabled;
+    private final long warmupMaxBytes;
+    private final boolean warmupPrecompress;
+    private final boolean warmupBeforeListen;
+    private final long zeroCopyThresholdBytes;
+    private final boolean compressionEnabled;
+    private final long compressionMinBytes;
+    private final String accessLogTarget;
+    private final int accessLogCapacity;
+    private final AccessLogOverflow accessLogOverflow;
+    private final int queueCapacity;
+    private final OverloadPolicy overloadPolicy;
+    private final int retryAfterSeconds;
+    private final int queueTimeoutMillis;
+    private final boolean adaptiveLimitEnabled;
+    private final int adaptiveLimitMin;
+    private final int adaptiveLimitMax;
+    private final long maxBodyBytes;
+    private final long maxStreamBytes;
+    private final boolean h2cEnabled;
+    private final int h2MaxConcurrentStreams;
+    private final int acceptorThreads;
+    private final boolean reusePort;
+    private final int acceptBacklog;
+    private final boolean tcpNoDelay;
+    private final int receiveBufferBytes;
+    private final int sendBufferBytes;
+    private final int rateLimitPerSecond;
+    private final int rateLimitBurst;
+    private final int maxConnectionsPerClient;
+    private final Map<String, List<InetSocketAddress>> proxyRoutes;
+    private final LoadBalancing proxyBalancing;
+    private final int proxyMaxIdlePerUpstream;
+    private final int proxyIdleTimeoutMillis;
+    private final int proxyConnectTimeoutMillis;
+    private final int proxyReadTimeoutMillis;
+    private final int proxyMaxFails;
+    private final int proxyFailTimeoutMillis;
+    private final List<String> microCacheRoutes;
+    private final int microCacheTtlMillis;
+    private final int microCacheStaleMillis;
+    private final long microCacheMaxBytes;
+    private final List<String> microCacheVaryHeaders;
 
     public ServerConfig(int port, Path documentRoot, int maxThreads, int socketTimeoutMillis) {
-        this.port = port;
-        this.documentRoot = documentRoot.toAbsolutePath().normalize();
-        this.maxThreads = maxThreads;
-        this.socketTimeoutMillis = socketTimeoutMillis;
+        this(builder()
+                .port(port)
+                .documentRoot(documentRoot)
+                .maxThreads(maxThreads)
+                .socketTimeoutMillis(socketTimeoutMillis));
+    }
+
+    private ServerConfig(Builder builder) {
+        this.port = builder.port;
+        this.documentRoot = builder.documentRoot.toAbsolutePath().normalize();
+        this.maxThreads = builder.maxThreads;
+        this.socketTimeoutMillis = builder.socketTimeoutMillis;
+        this.keepAliveTimeoutMillis = builder.keepAliveTimeoutMillis;
+        this.maxKeepAliveRequests = builder.maxKeepAliveRequests;
+        this.engine = builder.engine;
+        this.eventLoopThreads = builder.eventLoopThreads;
+        this.workerMode = builder.workerMode;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.cacheMaxBytes = builder.cacheMaxBytes;
+        this.cacheMaxFileBytes = builder.cacheMaxFileBytes;
+        this.cacheRevalidateMillis = builder.cacheRevalidateMillis;
+        this.pathCacheMaxEntries = builder.pathCacheMaxEntries;
+        this.pathCacheWatch = builder.pathCacheWatch;
+        this.warmupEnabled = builder.warmupEnabled;
+        this.warmupMaxBytes = builder.warmupMaxBytes;
+        this.warmupPrecompress = builder.warmupPrecompress;
+        this.warmupBeforeListen = builder.warmupBeforeListen;
+        this.zeroCopyThresholdBytes = builder.zeroCopyThresholdBytes;
+        this.compressionEnabled = builder.compressionEnabled;
+        this.compressionMinBytes = builder.compressionMinBytes;
+        this.accessLogTarget = builder.accessLogTarget;
+        this.accessLogCapacity = builder.accessLogCapacity;
+        this.accessLogOverflow = builder.accessLogOverflow;
+        this.queueCapacity = builder.queueCapacity;
+        this.overloadPolicy = builder.overloadPolicy;
+        this.retryAfterSeconds = builder.retryAfterSeconds;
+        this.queueTimeoutMillis = builder.queueTimeoutMillis;
+        this.adaptiveLimitEnabled = builder.adaptiveLimitEnabled;
+        this.adaptiveLimitMin = builder.adaptiveLimitMin;
+        this.adaptiveLimitMax = builder.adaptiveLimitMax;
+        this.maxBodyBytes = builder.maxBodyBytes;
+        this.maxStreamBytes = builder.maxStreamBytes;
+        this.h2cEnabled = builder.h2cEnabled;
+        this.h2MaxConcurrentStreams = builder.h2MaxConcurrentStreams;
+        this.acceptorThreads = builder.acceptorThreads;
+        this.reusePort = builder.reusePort;
+        this.acceptBacklog = builder.acceptBacklog;
+        this.tcpNoDelay = builder.tcpNoDelay;
+        this.receiveBufferBytes = builder.receiveBufferBytes;
+        this.sendBufferBytes = builder.sendBufferBytes;
+        this.rateLimitPerSecond = builder.rateLimitPerSecond;
+        this.rateLimitBurst = builder.rateLimitBurst;
+        this.maxConnectionsPerClient = builder.maxConnectionsPerClient;
+        this.proxyRoutes = Collections.unmodifiableMap(new LinkedHashMap<>(builder.proxyRoutes));
+        this.proxyBalancing = builder.proxyBalancing;
+        this.proxyMaxIdlePerUpstream = builder.proxyMaxIdlePerUpstream;
+        this.proxyIdleTimeoutMillis = builder.proxyIdleTimeoutMillis;
+        this.proxyConnectTimeoutMillis = builder.proxyConnectTimeoutMillis;
+        this.proxyReadTimeoutMillis = builder.proxyReadTimeoutMillis;
+        this.proxyMaxFails = builder.proxyMaxFails;
+        this.proxyFailTimeoutMillis = builder.proxyFailTimeoutMillis;
+        this.microCacheRoutes = List.copyOf(builder.microCacheRoutes);
+        this.microCacheTtlMillis = builder.microCacheTtlMillis;
+        this.microCacheStaleMillis = builder.microCacheStaleMillis;
+        this.microCacheMaxBytes = builder.microCacheMaxBytes;
+        this.microCacheVaryHeaders = List.copyOf(builder.microCacheVaryHeaders);
     }
 
     public int getPort() {
@@ -41,6 +163,367 @@ public final class ServerConfig {
         return socketTimeoutMillis;
     }
 
+    /**
+     * How long an idle persistent connection is kept open while waiting for the next request.
+     */
+    public int getKeepAliveTimeoutMillis() {
+        return keepAliveTimeoutMillis;
+    }
+
+    /**
+     * Maximum number of requests served on one connection; values below 2 disable keep-alive.
+     */
+    public int getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Number of selector threads used by the {@link Engine#NIO} engine.
+     */
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public WorkerMode getWorkerMode() {
+        return workerMode;
+    }
+
+    /**
+     * Upper bound on handlers running at once in {@link WorkerMode#VIRTUAL} mode; replaces the pool size.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Memory budget of the static file cache; 0 disables caching.
+     */
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    /**
+     * Files larger than this are never cached.
+     */
+    public long getCacheMaxFileBytes() {
+        return cacheMaxFileBytes;
+    }
+
+    /**
+     * Minimum time between modification-time checks of a cached file.
+     */
+    public int getCacheRevalidateMillis() {
+        return cacheRevalidateMillis;
+    }
+
+    /**
+     * Request paths whose resolution (file and metadata, or not found / forbidden) is remembered; 0 disables.
+     */
+    public int getPathCacheMaxEntries() {
+        return pathCacheMaxEntries;
+    }
+
+    /**
+     * Whether the path cache watches the document root for changes; without it, entries expire after
+     * {@link #getCacheRevalidateMillis()}.
+     */
+    public boolean isPathCacheWatch() {
+        return pathCacheWatch;
+    }
+
+    /**
+     * Whether startup indexes the document root and preloads the caches from it.
+     */
+    public boolean isWarmupEnabled() {
+        return warmupEnabled;
+    }
+
+    /**
+     * Bytes of file contents (and compressed variants) preloaded at startup, smallest files first; also
+     * capped by the file cache budget.
+     */
+    public long getWarmupMaxBytes() {
+        return warmupMaxBytes;
+    }
+
+    /**
+     * Whether warm-up also builds the gzip variant of preloaded compressible files.
+     */
+    public boolean isWarmupPrecompress() {
+        return warmupPrecompress;
+    }
+
+    /**
+     * Whether the listener opens only after warm-up finishes, rather than while it runs in the background.
+     */
+    public boolean isWarmupBeforeListen() {
+        return warmupBeforeListen;
+    }
+
+    /**
+     * Uncached files at least this large are streamed from disk with transferTo instead of read into heap.
+     */
+    public long getZeroCopyThresholdBytes() {
+        return zeroCopyThresholdBytes;
+    }
+
+    /**
+     * Whether text-like static files are served gzip/deflate encoded to clients that accept it.
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * Files smaller than this are always sent uncompressed.
+     */
+    public long getCompressionMinBytes() {
+        return compressionMinBytes;
+    }
+
+    /**
+     * Where access log lines go: {@code stdout}, {@code off}, or a file path that is appended to.
+     */
+    public String getAccessLogTarget() {
+        return accessLogTarget;
+    }
+
+    /**
+     * Number of access records that can wait for the writer thread before the overflow policy applies.
+     */
+    public int getAccessLogCapacity() {
+        return accessLogCapacity;
+    }
+
+    public AccessLogOverflow getAccessLogOverflow() {
+        return accessLogOverflow;
+    }
+
+    /**
+     * Connections (blocking engine) or offloaded tasks that may wait for a worker before new ones are
+     * rejected; 0 or less means unbounded.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    /**
+     * Value of the {@code Retry-After} header sent with overload responses.
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * Work that waited in the queue longer than this is answered with 503 instead of processed; 0 disables.
+     */
+    public int getQueueTimeoutMillis() {
+        return queueTimeoutMillis;
+    }
+
+    /**
+     * Whether requests are shed once in-flight work exceeds a limit that adapts to observed latency.
+     */
+    public boolean isAdaptiveLimitEnabled() {
+        return adaptiveLimitEnabled;
+    }
+
+    public int getAdaptiveLimitMin() {
+        return adaptiveLimitMin;
+    }
+
+    public int getAdaptiveLimitMax() {
+        return adaptiveLimitMax;
+    }
+
+    /**
+     * Largest request body accepted by routes that do not set their own {@link RequestBodyPolicy}.
+     */
+    public long getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /**
+     * Largest body {@code /stream/{bytes}} generates; larger sizes are refused with {@code 400}.
+     */
+    public long getMaxStreamBytes() {
+        return maxStreamBytes;
+    }
+
+    /**
+     * Whether clients may switch a connection to cleartext HTTP/2, by prior knowledge or
+     * {@code Upgrade: h2c}.
+     */
+    public boolean isH2cEnabled() {
+        return h2cEnabled;
+    }
+
+    /**
+     * Streams an HTTP/2 client may have open at once on one connection.
+     */
+    public int getH2MaxConcurrentStreams() {
+        return h2MaxConcurrentStreams;
+    }
+
+    /**
+     * Threads accepting new connections. With the blocking engine each acceptor feeds its own worker group.
+     */
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    /**
+     * Whether multiple acceptors each bind their own listening socket with {@code SO_REUSEPORT}, letting the
+     * kernel spread incoming connections, instead of sharing one socket.
+     */
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * Length of the kernel queue of connections not yet accepted; 0 or less uses the JDK default.
+     */
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * {@code SO_RCVBUF} for accepted connections, set on the listener so it applies from the handshake;
+     * 0 or less keeps the OS default.
+     */
+    public int getReceiveBufferBytes() {
+        return receiveBufferBytes;
+    }
+
+    /**
+     * {@code SO_SNDBUF} for accepted connections; 0 or less keeps the OS default.
+     */
+    public int getSendBufferBytes() {
+        return sendBufferBytes;
+    }
+
+    /**
+     * Sustained requests per second allowed from one client address; 0 or less disables rate limiting.
+     */
+    public int getRateLimitPerSecond() {
+        return rateLimitPerSecond;
+    }
+
+    /**
+     * Requests a client address may send back to back before the sustained rate applies.
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    /**
+     * Open connections allowed from one client address; 0 or less means no cap.
+     */
+    public int getMaxConnectionsPerClient() {
+        return maxConnectionsPerClient;
+    }
+
+    /**
+     * Route patterns forwarded to upstream servers, each with its upstreams, in registration order.
+     */
+    public Map<String, List<InetSocketAddress>> getProxyRoutes() {
+        return proxyRoutes;
+    }
+
+    public LoadBalancing getProxyBalancing() {
+        return proxyBalancing;
+    }
+
+    /**
+     * Idle keep-alive connections kept open to each upstream.
+     */
+    public int getProxyMaxIdlePerUpstream() {
+        return proxyMaxIdlePerUpstream;
+    }
+
+    /**
+     * Pooled upstream connections idle for longer are closed rather than reused; keep this below the
+     * upstreams' own keep-alive timeout.
+     */
+    public int getProxyIdleTimeoutMillis() {
+        return proxyIdleTimeoutMillis;
+    }
+
+    public int getProxyConnectTimeoutMillis() {
+        return proxyConnectTimeoutMillis;
+    }
+
+    /**
+     * Longest wait for an upstream to send the response head or the next part of the body.
+     */
+    public int getProxyReadTimeoutMillis() {
+        return proxyReadTimeoutMillis;
+    }
+
+    /**
+     * Consecutive failures (connect errors, timeouts, broken responses) after which an upstream is ejected.
+     */
+    public int getProxyMaxFails() {
+        return proxyMaxFails;
+    }
+
+    /**
+     * How long an ejected upstream receives no requests.
+     */
+    public int getProxyFailTimeoutMillis() {
+        return proxyFailTimeoutMillis;
+    }
+
+    /**
+     * Route patterns, as registered in the {@link RouteTable}, whose GET responses are micro-cached; empty
+     * turns the micro-cache off.
+     */
+    public List<String> getMicroCacheRoutes() {
+        return microCacheRoutes;
+    }
+
+    /**
+     * How long a micro-cached response is served as fresh.
+     */
+    public int getMicroCacheTtlMillis() {
+        return microCacheTtlMillis;
+    }
+
+    /**
+     * How long after expiring a response may still be served while one request refreshes it.
+     */
+    public int getMicroCacheStaleMillis() {
+        return microCacheStaleMillis;
+    }
+
+    public long getMicroCacheMaxBytes() {
+        return microCacheMaxBytes;
+    }
+
+    /**
+     * Request header fields that are part of the cache key. Responses that vary on any other field are not
+     * cached.
+     */
+    public List<String> getMicroCacheVaryHeaders() {
+        return microCacheVaryHeaders;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
     public static ServerConfig fromArgs(String[] args) {
         Map<String, String> cliOptions = parseArgs(args);
 
@@ -71,12 +554,181 @@ public final class ServerConfig {
                 properties.getProperty("server.maxThreads", String.valueOf(defaultThreads))), defaultThreads);
         int socketTimeout = parseInt(cliOptions.getOrDefault("socketTimeout",
                 properties.getProperty("server.socketTimeoutMillis", "15000")), 15000);
+        int keepAliveTimeout = parseInt(cliOptions.getOrDefault("keepAliveTimeout",
+                properties.getProperty("server.keepAliveTimeoutMillis", "5000")), 5000);
+        int maxKeepAliveRequests = parseInt(cliOptions.getOrDefault("maxKeepAliveRequests",
+                properties.getProperty("server.maxKeepAliveRequests", "100")), 100);
+        Engine engine = Engine.parse(cliOptions.getOrDefault("engine",
+                properties.getProperty("server.engine", "blocking")));
+        int defaultEventLoops = Runtime.getRuntime().availableProcessors();
+        int eventLoopThreads = parseInt(cliOptions.getOrDefault("eventLoops",
+                properties.getProperty("server.eventLoopThreads", String.valueOf(defaultEventLoops))),
+                defaultEventLoops);
+        WorkerMode workerMode = WorkerMode.parse(cliOptions.getOrDefault("executor",
+                properties.getProperty("server.executor", "platform")));
+        int maxConcurrency = parseInt(cliOptions.getOrDefault("maxConcurrency",
+                properties.getProperty("server.maxConcurrency", "10000")), 10000);
+        long cacheMaxBytes = parseLong(cliOptions.getOrDefault("cacheMaxBytes",
+                properties.getProperty("server.cache.maxBytes", "67108864")), 64L * 1024 * 1024);
+        long cacheMaxFileBytes = parseLong(cliOptions.getOrDefault("cacheMaxFileBytes",
+                properties.getProperty("server.cache.maxFileBytes", "1048576")), 1024L * 1024);
+        int cacheRevalidateMillis = parseInt(cliOptions.getOrDefault("cacheRevalidate",
+                properties.getProperty("server.cache.revalidateMillis", "1000")), 1000);
+        int pathCacheMaxEntries = parseInt(cliOptions.getOrDefault("pathCacheEntries",
+                properties.getProperty("server.pathCache.maxEntries", "10000")), 10000);
+        boolean pathCacheWatch = Boolean.parseBoolean(cliOptions.getOrDefault("pathCacheWatch",
+                properties.getProperty("server.pathCache.watch", "true")));
+        boolean warmupEnabled = Boolean.parseBoolean(cliOptions.getOrDefault("warmup",
+                properties.getProperty("server.warmup.enabled", "false")));
+        long warmupMaxBytes = parseLong(cliOptions.getOrDefault("warmupMaxBytes",
+                properties.getProperty("server.warmup.maxBytes", "33554432")), 32L * 1024 * 1024);
+        boolean warmupPrecompress = Boolean.parseBoolean(cliOptions.getOrDefault("warmupPrecompress",
+                properties.getProperty("server.warmup.precompress", "true")));
+        boolean warmupBeforeListen = Boolean.parseBoolean(cliOptions.getOrDefault("warmupBeforeListen",
+                properties.getProperty("server.warmup.beforeListen", "true")));
+        long zeroCopyThreshold = parseLong(cliOptions.getOrDefault("zeroCopyThreshold",
+                properties.getProperty("server.zeroCopyThresholdBytes", "65536")), 64L * 1024);
+        boolean compressionEnabled = Boolean.parseBoolean(cliOptions.getOrDefault("compression",
+                properties.getProperty("server.compression.enabled", "true")));
+        long compressionMinBytes = parseLong(cliOptions.getOrDefault("compressionMinBytes",
+                properties.getProperty("server.compression.minBytes", "1024")), 1024);
+        String accessLogTarget = cliOptions.getOrDefault("accessLog",
+                properties.getProperty("server.accessLog.target", "stdout"));
+        int accessLogCapacity = parseInt(cliOptions.getOrDefault("accessLogBuffer",
+                properties.getProperty("server.accessLog.bufferRecords", "8192")), 8192);
+        AccessLogOverflow accessLogOverflow = AccessLogOverflow.parse(cliOptions.getOrDefault("accessLogOverflow",
+                properties.getProperty("server.accessLog.overflow", "drop")));
+        int queueCapacity = parseInt(cliOptions.getOrDefault("queueCapacity",
+                properties.getProperty("server.queueCapacity", "1024")), 1024);
+        OverloadPolicy overloadPolicy = OverloadPolicy.parse(cliOptions.getOrDefault("overloadPolicy",
+                properties.getProperty("server.overload.policy", "respond")));
+        int retryAfterSeconds = parseInt(cliOptions.getOrDefault("retryAfter",
+                properties.getProperty("server.overload.retryAfterSeconds", "1")), 1);
+        int queueTimeoutMillis = parseInt(cliOptions.getOrDefault("queueTimeout",
+                properties.getProperty("server.queueTimeoutMillis", "0")), 0);
+        boolean adaptiveLimitEnabled = Boolean.parseBoolean(cliOptions.getOrDefault("adaptiveLimit",
+                properties.getProperty("server.adaptiveLimit.enabled", "false")));
+        int adaptiveLimitMin = parseInt(cliOptions.getOrDefault("adaptiveLimitMin",
+                properties.getProperty("server.adaptiveLimit.min", "8")), 8);
+        int adaptiveLimitMax = parseInt(cliOptions.getOrDefault("adaptiveLimitMax",
+                properties.getProperty("server.adaptiveLimit.max", "1000")), 1000);
+        long maxBodyBytes = parseLong(cliOptions.getOrDefault("maxBodyBytes",
+                properties.getProperty("server.maxBodyBytes", "1048576")), 1024L * 1024);
+        long maxStreamBytes = parseLong(cliOptions.getOrDefault("maxStreamBytes",
+                properties.getProperty("server.maxStreamBytes", "1073741824")), 1024L * 1024 * 1024);
+        boolean h2cEnabled = Boolean.parseBoolean(cliOptions.getOrDefault("h2c",
+                properties.getProperty("server.h2c.enabled", "true")));
+        int h2MaxConcurrentStreams = parseInt(cliOptions.getOrDefault("h2MaxStreams",
+                properties.getProperty("server.h2c.maxConcurrentStreams", "100")), 100);
+        int acceptorThreads = parseInt(cliOptions.getOrDefault("acceptors",
+                properties.getProperty("server.acceptors", "1")), 1);
+        boolean reusePort = Boolean.parseBoolean(cliOptions.getOrDefault("reusePort",
+                properties.getProperty("server.socket.reusePort", "true")));
+        int acceptBacklog = parseInt(cliOptions.getOrDefault("backlog",
+                properties.getProperty("server.socket.backlog", "1024")), 1024);
+        boolean tcpNoDelay = Boolean.parseBoolean(cliOptions.getOrDefault("tcpNoDelay",
+                properties.getProperty("server.socket.tcpNoDelay", "true")));
+        int receiveBufferBytes = parseInt(cliOptions.getOrDefault("receiveBuffer",
+                properties.getProperty("server.socket.receiveBufferBytes", "0")), 0);
+        int sendBufferBytes = parseInt(cliOptions.getOrDefault("sendBuffer",
+                properties.getProperty("server.socket.sendBufferBytes", "0")), 0);
+        int rateLimitPerSecond = parseInt(cliOptions.getOrDefault("rateLimit",
+                properties.getProperty("server.rateLimit.requestsPerSecond", "0")), 0);
+        int rateLimitBurst = parseInt(cliOptions.getOrDefault("rateLimitBurst",
+                properties.getProperty("server.rateLimit.burst", "50")), 50);
+        int maxConnectionsPerClient = parseInt(cliOptions.getOrDefault("maxConnectionsPerClient",
+                properties.getProperty("server.rateLimit.maxConnectionsPerClient", "0")), 0);
+        Map<String, List<InetSocketAddress>> proxyRoutes = parseProxyRoutes(cliOptions.getOrDefault("proxy",
+                properties.getProperty("server.proxy.routes", "")));
+        LoadBalancing proxyBalancing = LoadBalancing.parse(cliOptions.getOrDefault("proxyBalance",
+                properties.getProperty("server.proxy.balance", "round-robin")));
+        int proxyMaxIdlePerUpstream = parseInt(cliOptions.getOrDefault("proxyMaxIdle",
+                properties.getProperty("server.proxy.maxIdlePerUpstream", "32")), 32);
+        int proxyIdleTimeoutMillis = parseInt(cliOptions.getOrDefault("proxyIdleTimeout",
+                properties.getProperty("server.proxy.idleTimeoutMillis", "4000")), 4000);
+        int proxyConnectTimeoutMillis = parseInt(cliOptions.getOrDefault("proxyConnectTimeout",
+                properties.getProperty("server.proxy.connectTimeoutMillis", "1000")), 1000);
+        int proxyReadTimeoutMillis = parseInt(cliOptions.getOrDefault("proxyReadTimeout",
+                properties.getProperty("server.proxy.readTimeoutMillis", "30000")), 30000);
+        int proxyMaxFails = parseInt(cliOptions.getOrDefault("proxyMaxFails",
+                properties.getProperty("server.proxy.maxFails", "3")), 3);
+        int proxyFailTimeoutMillis = parseInt(cliOptions.getOrDefault("proxyFailTimeout",
+                properties.getProperty("server.proxy.failTimeoutMillis", "10000")), 10000);
+        List<String> microCacheRoutes = parseList(cliOptions.getOrDefault("microCache",
+                properties.getProperty("server.microCache.routes", "")));
+        int microCacheTtlMillis = parseInt(cliOptions.getOrDefault("microCacheTtl",
+                properties.getProperty("server.microCache.ttlMillis", "1000")), 1000);
+        int microCacheStaleMillis = parseInt(cliOptions.getOrDefault("microCacheStale",
+                properties.getProperty("server.microCache.staleMillis", "10000")), 10000);
+        long microCacheMaxBytes = parseLong(cliOptions.getOrDefault("microCacheMaxBytes",
+                properties.getProperty("server.microCache.maxBytes", "16777216")), 16L * 1024 * 1024);
+        List<String> microCacheVaryHeaders = parseList(cliOptions.getOrDefault("microCacheVary",
+                properties.getProperty("server.microCache.varyHeaders", "accept-encoding")));
 
         if (!Files.exists(documentRoot)) {
             throw new IllegalArgumentException("Document root does not exist: " + documentRoot);
         }
 
-        return new ServerConfig(port, documentRoot, maxThreads, socketTimeout);
+        return builder()
+                .port(port)
+                .documentRoot(documentRoot)
+                .maxThreads(maxThreads)
+                .socketTimeoutMillis(socketTimeout)
+                .keepAliveTimeoutMillis(keepAliveTimeout)
+                .maxKeepAliveRequests(maxKeepAliveRequests)
+                .engine(engine)
+                .eventLoopThreads(eventLoopThreads)
+                .workerMode(workerMode)
+                .maxConcurrency(maxConcurrency)
+                .cacheMaxBytes(cacheMaxBytes)
+                .cacheMaxFileBytes(cacheMaxFileBytes)
+                .cacheRevalidateMillis(cacheRevalidateMillis)
+                .pathCacheMaxEntries(pathCacheMaxEntries)
+                .pathCacheWatch(pathCacheWatch)
+                .warmupEnabled(warmupEnabled)
+                .warmupMaxBytes(warmupMaxBytes)
+                .warmupPrecompress(warmupPrecompress)
+                .warmupBeforeListen(warmupBeforeListen)
+                .zeroCopyThresholdBytes(zeroCopyThreshold)
+                .compressionEnabled(compressionEnabled)
+                .compressionMinBytes(compressionMinBytes)
+                .accessLogTarget(accessLogTarget)
+                .accessLogCapacity(accessLogCapacity)
+                .accessLogOverflow(accessLogOverflow)
+                .queueCapacity(queueCapacity)
+                .overloadPolicy(overloadPolicy)
+                .retryAfterSeconds(retryAfterSeconds)
+                .queueTimeoutMillis(queueTimeoutMillis)
+                .adaptiveLimitEnabled(adaptiveLimitEnabled)
+                .adaptiveLimitMin(adaptiveLimitMin)
+                .adaptiveLimitMax(adaptiveLimitMax)
+                .maxBodyBytes(maxBodyBytes)
+                .maxStreamBytes(maxStreamBytes)
+                .h2cEnabled(h2cEnabled)
+                .h2MaxConcurrentStreams(h2MaxConcurrentStreams)
+                .acceptorThreads(acceptorThreads)
+                .reusePort(reusePort)
+                .acceptBacklog(acceptBacklog)
+                .tcpNoDelay(tcpNoDelay)
+                .receiveBufferBytes(receiveBufferBytes)
+                .sendBufferBytes(sendBufferBytes)
+                .rateLimitPerSecond(rateLimitPerSecond)
+                .rateLimitBurst(rateLimitBurst)
+                .maxConnectionsPerClient(maxConnectionsPerClient)
+                .proxyRoutes(proxyRoutes)
+                .proxyBalancing(proxyBalancing)
+                .proxyMaxIdlePerUpstream(proxyMaxIdlePerUpstream)
+                .proxyIdleTimeoutMillis(proxyIdleTimeoutMillis)
+                .proxyConnectTimeoutMillis(proxyConnectTimeoutMillis)
+                .proxyReadTimeoutMillis(proxyReadTimeoutMillis)
+                .proxyMaxFails(proxyMaxFails)
+                .proxyFailTimeoutMillis(proxyFailTimeoutMillis)
+                .microCacheRoutes(microCacheRoutes)
+                .microCacheTtlMillis(microCacheTtlMillis)
+                .microCacheStaleMillis(microCacheStaleMillis)
+                .microCacheMaxBytes(microCacheMaxBytes)
+                .microCacheVaryHeaders(microCacheVaryHeaders)
+                .build();
     }
 
     private static Map<String, String> parseArgs(String[] args) {
@@ -104,6 +756,66 @@ public final class ServerConfig {
         return parsed;
     }
 
+    /**
+     * Parses a comma-separated list, ignoring blank items.
+     */
+    private static List<String> parseList(String rawValue) {
+        List<String> items = new ArrayList<>();
+        for (String item : rawValue.split(",")) {
+            if (!item.isBlank()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Parses {@code /api/*=http://10.0.0.1:8080,http://10.0.0.2:8080;/auth/*=http://10.0.0.3:9000}.
+     */
+    static Map<String, List<InetSocketAddress>> parseProxyRoutes(String rawValue) {
+        Map<String, List<InetSocketAddress>> routes = new LinkedHashMap<>();
+        for (String rawRoute : rawValue.split(";")) {
+            if (rawRoute.isBlank()) {
+                continue;
+            }
+            int equals = rawRoute.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Proxy route must look like /path/*=http://host:port: " + rawRoute);
+            }
+            List<InetSocketAddress> upstreams = new ArrayList<>();
+            for (String upstream : rawRoute.substring(equals + 1).split(",")) {
+                if (!upstream.isBlank()) {
+                    upstreams.add(parseUpstream(upstream.trim()));
+                }
+            }
+            routes.put(rawRoute.substring(0, equals).trim(), upstreams);
+        }
+        return routes;
+    }
+
+    /**
+     * Parses {@code http://host:port}; the port defaults to 80. Upstreams are reached over cleartext HTTP/1.1.
+     */
+    private static InetSocketAddress parseUpstream(String rawValue) {
+        String authority = rawValue.startsWith("http://") ? rawValue.substring("http://".length()) : "";
+        if (authority.endsWith("/")) {
+            authority = authority.substring(0, authority.length() - 1);
+        }
+        if (authority.isEmpty() || authority.contains("/")) {
+            throw new IllegalArgumentException("Upstream must look like http://host:port: " + rawValue);
+        }
+        int colon = authority.lastIndexOf(':');
+        String host = colon < 0 || authority.endsWith("]") ? authority : authority.substring(0, colon);
+        int port = host.equals(authority) ? 80 : parseInt(authority.substring(colon + 1), -1);
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid upstream port: " + rawValue);
+        }
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
     private static int parseInt(String rawValue, int fallback) {
         try {
             return Integer.parseInt(rawValue);
@@ -111,4 +823,468 @@ public final class ServerConfig {
             return fallback;
         }
     }
+
+    private static long parseLong(String rawValue, long fallback) {
+        try {
+            return Long.parseLong(rawValue);
+        } catch (NumberFormatException ex) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Connection handling model: a worker thread per connection, or selector-driven event loops.
+     */
+    public enum Engine {
+        BLOCKING,
+        NIO;
+
+        static Engine parse(String rawValue) {
+            try {
+                return valueOf(rawValue.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown server engine: " + rawValue);
+            }
+        }
+    }
+
+    /**
+     * Threads that run connection handlers: a fixed platform pool, or one virtual thread per task.
+     */
+    public enum WorkerMode {
+        PLATFORM,
+        VIRTUAL;
+
+        static WorkerMode parse(String rawValue) {
+            try {
+                return valueOf(rawValue.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown executor mode: " + rawValue);
+            }
+        }
+    }
+
+    /**
+     * What a request thread does when the access log buffer is full: discard the record, or wait for room.
+     */
+    public enum AccessLogOverflow {
+        DROP,
+        BLOCK;
+
+        static AccessLogOverflow parse(String rawValue) {
+            try {
+                return valueOf(rawValue.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown access log overflow policy: " + rawValue);
+            }
+        }
+    }
+
+    /**
+     * How the accept thread turns away a connection the worker queue cannot take: answer {@code 503} with
+     * {@code Retry-After}, or just close the socket.
+     */
+    public enum OverloadPolicy {
+        RESPOND,
+        CLOSE;
+
+        static OverloadPolicy parse(String rawValue) {
+            try {
+                return valueOf(rawValue.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown overload policy: " + rawValue);
+            }
+        }
+    }
+
+    /**
+     * How a proxy route picks the upstream for a request.
+     */
+    public enum LoadBalancing {
+        ROUND_ROBIN,
+        LEAST_CONNECTIONS;
+
+        static LoadBalancing parse(String rawValue) {
+            try {
+                return valueOf(rawValue.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown load balancing method: " + rawValue);
+            }
+        }
+    }
+
+    /**
+     * Fluent builder used by {@link #fromArgs(String[])} and by embedders that configure the server in code.
+     */
+    public static final class Builder {
+        private int port = 8080;
+        private Path documentRoot = Paths.get("wwwroot");
+        private int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        private int socketTimeoutMillis = 15000;
+        private int keepAliveTimeoutMillis = 5000;
+        private int maxKeepAliveRequests = 100;
+        private Engine engine = Engine.BLOCKING;
+        private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+        private WorkerMode workerMode = WorkerMode.PLATFORM;
+        private int maxConcurrency = 10000;
+        private long cacheMaxBytes = 64L * 1024 * 1024;
+        private long cacheMaxFileBytes = 1024L * 1024;
+        private int cacheRevalidateMillis = 1000;
+        private int pathCacheMaxEntries = 10000;
+        private boolean pathCacheWatch = true;
+        private boolean warmupEnabled = false;
+        private long warmupMaxBytes = 32L * 1024 * 1024;
+        private boolean warmupPrecompress = true;
+        private boolean warmupBeforeListen = true;
+        private long zeroCopyThresholdBytes = 64L * 1024;
+        private boolean compressionEnabled = true;
+        private long compressionMinBytes = 1024;
+        private String accessLogTarget = "stdout";
+        private int accessLogCapacity = 8192;
+        private AccessLogOverflow accessLogOverflow = AccessLogOverflow.DROP;
+        private int queueCapacity = 1024;
+        private OverloadPolicy overloadPolicy = OverloadPolicy.RESPOND;
+        private int retryAfterSeconds = 1;
+        private int queueTimeoutMillis = 0;
+        private boolean adaptiveLimitEnabled = false;
+        private int adaptiveLimitMin = 8;
+        private int adaptiveLimitMax = 1000;
+        private long maxBodyBytes = 1024L * 1024;
+        private long maxStreamBytes = 1024L * 1024 * 1024;
+        private boolean h2cEnabled = true;
+        private int h2MaxConcurrentStreams = 100;
+        private int acceptorThreads = 1;
+        private boolean reusePort = true;
+        private int acceptBacklog = 1024;
+        private boolean tcpNoDelay = true;
+        private int receiveBufferBytes = 0;
+        private int sendBufferBytes = 0;
+        private int rateLimitPerSecond = 0;
+        private int rateLimitBurst = 50;
+        private int maxConnectionsPerClient = 0;
+        private final Map<String, List<InetSocketAddress>> proxyRoutes = new LinkedHashMap<>();
+        private LoadBalancing proxyBalancing = LoadBalancing.ROUND_ROBIN;
+        private int proxyMaxIdlePerUpstream = 32;
+        private int proxyIdleTimeoutMillis = 4000;
+        private int proxyConnectTimeoutMillis = 1000;
+        private int proxyReadTimeoutMillis = 30000;
+        private int proxyMaxFails = 3;
+        private int proxyFailTimeoutMillis = 10000;
+        private List<String> microCacheRoutes = List.of();
+        private int microCacheTtlMillis = 1000;
+        private int microCacheStaleMillis = 10000;
+        private long microCacheMaxBytes = 16L * 1024 * 1024;
+        private List<String> microCacheVaryHeaders = List.of("accept-encoding");
+
+        private Builder() {
+        }
+
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder documentRoot(Path documentRoot) {
+            this.documentRoot = documentRoot;
+            return this;
+        }
+
+        public Builder maxThreads(int maxThreads) {
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        public Builder socketTimeoutMillis(int socketTimeoutMillis) {
+            this.socketTimeoutMillis = socketTimeoutMillis;
+            return this;
+        }
+
+        public Builder keepAliveTimeoutMillis(int keepAliveTimeoutMillis) {
+            this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+            return this;
+        }
+
+        public Builder maxKeepAliveRequests(int maxKeepAliveRequests) {
+            this.maxKeepAliveRequests = maxKeepAliveRequests;
+            return this;
+        }
+
+        public Builder engine(Engine engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        public Builder eventLoopThreads(int eventLoopThreads) {
+            this.eventLoopThreads = eventLoopThreads;
+            return this;
+        }
+
+        public Builder workerMode(WorkerMode workerMode) {
+            this.workerMode = workerMode;
+            return this;
+        }
+
+        public Builder maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public Builder cacheMaxBytes(long cacheMaxBytes) {
+            this.cacheMaxBytes = cacheMaxBytes;
+            return this;
+        }
+
+        public Builder cacheMaxFileBytes(long cacheMaxFileBytes) {
+            this.cacheMaxFileBytes = cacheMaxFileBytes;
+            return this;
+        }
+
+        public Builder cacheRevalidateMillis(int cacheRevalidateMillis) {
+            this.cacheRevalidateMillis = cacheRevalidateMillis;
+            return this;
+        }
+
+        public Builder pathCacheMaxEntries(int pathCacheMaxEntries) {
+            this.pathCacheMaxEntries = pathCacheMaxEntries;
+            return this;
+        }
+
+        public Builder pathCacheWatch(boolean pathCacheWatch) {
+            this.pathCacheWatch = pathCacheWatch;
+            return this;
+        }
+
+        public Builder warmupEnabled(boolean warmupEnabled) {
+            this.warmupEnabled = warmupEnabled;
+            return this;
+        }
+
+        public Builder warmupMaxBytes(long warmupMaxBytes) {
+            this.warmupMaxBytes = warmupMaxBytes;
+            return this;
+        }
+
+        public Builder warmupPrecompress(boolean warmupPrecompress) {
+            this.warmupPrecompress = warmupPrecompress;
+            return this;
+        }
+
+        public Builder warmupBeforeListen(boolean warmupBeforeListen) {
+            this.warmupBeforeListen = warmupBeforeListen;
+            return this;
+        }
+
+        public Builder zeroCopyThresholdBytes(long zeroCopyThresholdBytes) {
+            this.zeroCopyThresholdBytes = zeroCopyThresholdBytes;
+            return this;
+        }
+
+        public Builder compressionEnabled(boolean compressionEnabled) {
+            this.compressionEnabled = compressionEnabled;
+            return this;
+        }
+
+        public Builder compressionMinBytes(long compressionMinBytes) {
+            this.compressionMinBytes = compressionMinBytes;
+            return this;
+        }
+
+        public Builder accessLogTarget(String accessLogTarget) {
+            this.accessLogTarget = accessLogTarget;
+            return this;
+        }
+
+        public Builder accessLogCapacity(int accessLogCapacity) {
+            this.accessLogCapacity = accessLogCapacity;
+            return this;
+        }
+
+        public Builder accessLogOverflow(AccessLogOverflow accessLogOverflow) {
+            this.accessLogOverflow = accessLogOverflow;
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder overloadPolicy(OverloadPolicy overloadPolicy) {
+            this.overloadPolicy = overloadPolicy;
+            return this;
+        }
+
+        public Builder retryAfterSeconds(int retryAfterSeconds) {
+            this.retryAfterSeconds = retryAfterSeconds;
+            return this;
+        }
+
+        public Builder queueTimeoutMillis(int queueTimeoutMillis) {
+            this.queueTimeoutMillis = queueTimeoutMillis;
+            return this;
+        }
+
+        public Builder adaptiveLimitEnabled(boolean adaptiveLimitEnabled) {
+            this.adaptiveLimitEnabled = adaptiveLimitEnabled;
+            return this;
+        }
+
+        public Builder adaptiveLimitMin(int adaptiveLimitMin) {
+            this.adaptiveLimitMin = adaptiveLimitMin;
+            return this;
+        }
+
+        public Builder adaptiveLimitMax(int adaptiveLimitMax) {
+            this.adaptiveLimitMax = adaptiveLimitMax;
+            return this;
+        }
+
+        public Builder maxBodyBytes(long maxBodyBytes) {
+            this.maxBodyBytes = maxBodyBytes;
+            return this;
+        }
+
+        public Builder maxStreamBytes(long maxStreamBytes) {
+            this.maxStreamBytes = maxStreamBytes;
+            return this;
+        }
+
+        public Builder h2cEnabled(boolean h2cEnabled) {
+            this.h2cEnabled = h2cEnabled;
+            return this;
+        }
+
+        public Builder h2MaxConcurrentStreams(int h2MaxConcurrentStreams) {
+            this.h2MaxConcurrentStreams = h2MaxConcurrentStreams;
+            return this;
+        }
+
+        public Builder acceptorThreads(int acceptorThreads) {
+            this.acceptorThreads = acceptorThreads;
+            return this;
+        }
+
+        public Builder reusePort(boolean reusePort) {
+            this.reusePort = reusePort;
+            return this;
+        }
+
+        public Builder acceptBacklog(int acceptBacklog) {
+            this.acceptBacklog = acceptBacklog;
+            return this;
+        }
+
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public Builder receiveBufferBytes(int receiveBufferBytes) {
+            this.receiveBufferBytes = receiveBufferBytes;
+            return this;
+        }
+
+        public Builder sendBufferBytes(int sendBufferBytes) {
+            this.sendBufferBytes = sendBufferBytes;
+            return this;
+        }
+
+        public Builder rateLimitPerSecond(int rateLimitPerSecond) {
+            this.rateLimitPerSecond = rateLimitPerSecond;
+            return this;
+        }
+
+        public Builder rateLimitBurst(int rateLimitBurst) {
+            this.rateLimitBurst = rateLimitBurst;
+            return this;
+        }
+
+        public Builder maxConnectionsPerClient(int maxConnectionsPerClient) {
+            this.maxConnectionsPerClient = maxConnectionsPerClient;
+            return this;
+        }
+
+        /**
+         * Forwards requests matching {@code pattern}, any method but HEAD, to {@code upstreams}.
+         */
+        public Builder proxyRoute(String pattern, List<InetSocketAddress> upstreams) {
+            if (upstreams.isEmpty()) {
+                throw new IllegalArgumentException("Proxy route needs at least one upstream: " + pattern);
+            }
+            this.proxyRoutes.put(pattern, List.copyOf(upstreams));
+            return this;
+        }
+
+        public Builder proxyRoutes(Map<String, List<InetSocketAddress>> proxyRoutes) {
+            proxyRoutes.forEach(this::proxyRoute);
+            return this;
+        }
+
+        public Builder proxyBalancing(LoadBalancing proxyBalancing) {
+            this.proxyBalancing = proxyBalancing;
+            return this;
+        }
+
+        public Builder proxyMaxIdlePerUpstream(int proxyMaxIdlePerUpstream) {
+            this.proxyMaxIdlePerUpstream = proxyMaxIdlePerUpstream;
+            return this;
+        }
+
+        public Builder proxyIdleTimeoutMillis(int proxyIdleTimeoutMillis) {
+            this.proxyIdleTimeoutMillis = proxyIdleTimeoutMillis;
+            return this;
+        }
+
+        public Builder proxyConnectTimeoutMillis(int proxyConnectTimeoutMillis) {
+            this.proxyConnectTimeoutMillis = proxyConnectTimeoutMillis;
+            return this;
+        }
+
+        public Builder proxyReadTimeoutMillis(int proxyReadTimeoutMillis) {
+            this.proxyReadTimeoutMillis = proxyReadTimeoutMillis;
+            return this;
+        }
+
+        public Builder proxyMaxFails(int proxyMaxFails) {
+            this.proxyMaxFails = proxyMaxFails;
+            return this;
+        }
+
+        public Builder proxyFailTimeoutMillis(int proxyFailTimeoutMillis) {
+            this.proxyFailTimeoutMillis = proxyFailTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Micro-caches GET responses of the routes registered with these patterns, e.g. {@code /slow}.
+         */
+        public Builder microCacheRoutes(List<String> microCacheRoutes) {
+            this.microCacheRoutes = List.copyOf(microCacheRoutes);
+            return this;
+        }
+
+        public Builder microCacheTtlMillis(int microCacheTtlMillis) {
+            this.microCacheTtlMillis = microCacheTtlMillis;
+            return this;
+        }
+
+        public Builder microCacheStaleMillis(int microCacheStaleMillis) {
+            this.microCacheStaleMillis = microCacheStaleMillis;
+            return this;
+        }
+
+        public Builder microCacheMaxBytes(long microCacheMaxBytes) {
+            this.microCacheMaxBytes = microCacheMaxBytes;
+            return this;
+        }
+
+        public Builder microCacheVaryHeaders(List<String> microCacheVaryHeaders) {
+            this.microCacheVaryHeaders = List.copyOf(microCacheVaryHeaders);
+            return this;
+        }
+
+        public ServerConfig build() {
+            return new ServerConfig(this);
+        }
+    }
 }
@@ -0,0 +1,139 @@
+package edu.fiu.cop6727.webserver;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Request, connection and resource metrics rendered in the Prometheus text exposition format at
+ * {@code /metrics}. Recording is a map lookup on a constant route label plus a few {@link LongAdder}
+ * increments; gauges owned by other components (worker pool, file cache, access log) are registered as
+ * suppliers and only read when scraped.
+ */
+final class ServerMetrics {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+    /** Exported histogram bounds: every octave from 64 microseconds to about 33 seconds. */
+    private static final int FIRST_BOUND_SHIFT = 6;
+    private static final int LAST_BOUND_SHIFT = 25;
+
+    private final Map<String, LatencyHistogram[]> requestLatency = new ConcurrentHashMap<>();
+    private final LongAdder responseBytes = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder openConnections = new LongAdder();
+    private final List<Sample> samples = new CopyOnWriteArrayList<>();
+
+    /**
+     * Records one completed request. {@code route} must come from a small fixed set, such as
+     * {@link RequestRouter#routeLabel}, to keep the number of series bounded.
+     */
+    void recordRequest(String route, int statusCode, long durationNanos, long bytes) {
+        LatencyHistogram[] byStatusClass = requestLatency.get(route);
+        if (byStatusClass == null) {
+            byStatusClass = requestLatency.computeIfAbsent(route, ignored -> newHistograms());
+        }
+        int statusClass = Math.min(Math.max(statusCode / 100 - 1, 0), STATUS_CLASSES.length - 1);
+        byStatusClass[statusClass].record(durationNanos / 1000);
+        responseBytes.add(bytes);
+    }
+
+    void connectionOpened() {
+        connectionsOpened.increment();
+        openConnections.increment();
+    }
+
+    void connectionClosed() {
+        openConnections.decrement();
+    }
+
+    /**
+     * Exposes a value owned elsewhere; {@code type} is {@code gauge} or {@code counter}.
+     */
+    void register(String name, String type, String help, LongSupplier value) {
+        samples.add(new Sample(name, type, help, value));
+    }
+
+    String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        writeHistograms(out);
+        writeSample(out, "http_server_response_bytes_total", "counter",
+                "Bytes written in responses, headers included.", responseBytes.sum());
+        writeSample(out, "http_server_connections_opened_total", "counter",
+                "Client connections accepted.", connectionsOpened.sum());
+        writeSample(out, "http_server_open_connections", "gauge",
+                "Client connections currently open.", openConnections.sum());
+        for (Sample sample : samples) {
+            writeSample(out, sample.name, sample.type, sample.help, sample.value.getAsLong());
+        }
+        return out.toString();
+    }
+
+    private void writeHistograms(StringBuilder out) {
+        String name = "http_server_request_duration_seconds";
+        out.append("# HELP ").append(name)
+                .append(" Time from a parsed request to its fully written response, by route and status class.\n");
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        requestLatency.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> {
+            LatencyHistogram[] byStatusClass = entry.getValue();
+            for (int i = 0; i < byStatusClass.length; i++) {
+                LatencyHistogram histogram = byStatusClass[i];
+                long count = histogram.count();
+                if (count == 0) {
+                    continue;
+                }
+                String labels = "route=\"" + escape(entry.getKey()) + "\",status=\"" + STATUS_CLASSES[i] + "\"";
+                for (int shift = FIRST_BOUND_SHIFT; shift <= LAST_BOUND_SHIFT; shift++) {
+                    long bound = 1L << shift;
+                    out.append(name).append("_bucket{").append(labels).append(",le=\"")
+                            .append(seconds(bound)).append("\"} ").append(histogram.countBelow(bound)).append('\n');
+                }
+                out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count)
+                        .append('\n');
+                out.append(name).append("_sum{").append(labels).append("} ")
+                        .append(seconds(histogram.sumMicros())).append('\n');
+                out.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+            }
+        });
+    }
+
+    private static void writeSample(StringBuilder out, String name, String type, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[STATUS_CLASSES.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    private static String seconds(long micros) {
+        return BigDecimal.valueOf(micros, 6).stripTrailingZeros().toPlainString();
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static final class Sample {
+        private final String name;
+        private final String type;
+        private final String help;
+        private final LongSupplier value;
+
+        private Sample(String name, String type, String help, LongSupplier value) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
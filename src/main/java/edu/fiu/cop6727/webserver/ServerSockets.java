@@ -0,0 +1,72 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens the listening sockets and applies the configured socket options to accepted connections. Several
+ * acceptors get one listener each, bound with {@code SO_REUSEPORT} so the kernel spreads new connections
+ * across them without a shared accept lock; where the option is unsupported (or turned off) they share a
+ * single listener.
+ */
+final class ServerSockets {
+    private ServerSockets() {
+    }
+
+    static List<ServerSocketChannel> openListeners(ServerConfig config, ServerLogger logger) throws IOException {
+        int acceptors = Math.max(1, config.getAcceptorThreads());
+        boolean reusePort = acceptors > 1 && config.isReusePort();
+        List<ServerSocketChannel> listeners = new ArrayList<>(acceptors);
+        try {
+            ServerSocketChannel first = ServerSocketChannel.open();
+            listeners.add(first);
+            if (reusePort && !first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                logger.warn("SO_REUSEPORT is not supported here; " + acceptors + " acceptors share one listener");
+                reusePort = false;
+            }
+            bind(first, config, config.getPort(), reusePort);
+            // The others join the first one's port, which matters when the configured port is 0 (ephemeral).
+            int port = ((InetSocketAddress) first.getLocalAddress()).getPort();
+            for (int i = 1; reusePort && i < acceptors; i++) {
+                ServerSocketChannel listener = ServerSocketChannel.open();
+                listeners.add(listener);
+                bind(listener, config, port, true);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (ServerSocketChannel listener : listeners) {
+                listener.close();
+            }
+            throw e;
+        }
+        return listeners;
+    }
+
+    /**
+     * Applies {@code TCP_NODELAY} and the send buffer size to a connection that was just accepted. The
+     * receive buffer is inherited from the listener.
+     */
+    static void configureAccepted(NetworkChannel channel, ServerConfig config) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, config.isTcpNoDelay());
+        if (config.getSendBufferBytes() > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSendBufferBytes());
+        }
+    }
+
+    private static void bind(ServerSocketChannel listener, ServerConfig config, int port, boolean reusePort)
+            throws IOException {
+        listener.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        if (reusePort) {
+            listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        if (config.getReceiveBufferBytes() > 0) {
+            // Must precede bind: the window scale offered in the handshake depends on it.
+            listener.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferBytes());
+        }
+        listener.bind(new InetSocketAddress(port), Math.max(0, config.getAcceptBacklog()));
+    }
+}
@@ -0,0 +1,59 @@
+package edu.fiu.cop6727.webserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide timer for asynchronous handlers. One daemon thread fires all delays, so a handler that waits
+ * returns a future instead of parking a worker thread; thousands of pending delays cost a heap entry each.
+ * Callbacks run on the timer thread and must be short.
+ */
+final class ServerTimer {
+    private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+
+    private ServerTimer() {
+    }
+
+    /**
+     * Completes with {@code result.get()} after {@code delay}.
+     */
+    static <T> CompletableFuture<T> delay(long delay, TimeUnit unit, Supplier<T> result) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        SCHEDULER.schedule(() -> {
+            try {
+                future.complete(result.get());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }, delay, unit);
+        return future;
+    }
+
+    /**
+     * Runs {@code task} after {@code delay} unless the returned future is cancelled first; cancelling removes
+     * it from the timer at once.
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return SCHEDULER.schedule(task, delay, unit);
+    }
+
+    /**
+     * Number of delays waiting to fire.
+     */
+    static int pendingCount() {
+        return SCHEDULER.getQueue().size();
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "server-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+}
@@ -0,0 +1,329 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent in-memory cache of static file contents keyed by normalized absolute path.
+ * <p>
+ * Entries carry the bytes together with the precomputed MIME type and Content-Length so a hit needs no
+ * filesystem access at all. Entries are revalidated against the file's size and modification time at most
+ * once per {@code revalidateMillis}. When the byte budget is exceeded the least recently used entries are
+ * evicted until the cache is back under 90% of its budget. Compressed variants of an entry are produced
+ * once on demand (or taken from a pre-compressed {@code .gz} sibling) and count towards the same budget.
+ */
+final class StaticFileCache {
+    private static final byte[] NO_GAIN = new byte[0];
+
+    private final long maxBytes;
+    private final long maxFileBytes;
+    private final long revalidateMillis;
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong accessClock = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    StaticFileCache(long maxBytes, long maxFileBytes, long revalidateMillis) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxFileBytes = Math.min(Math.max(0, maxFileBytes), this.maxBytes);
+        this.revalidateMillis = Math.max(0, revalidateMillis);
+    }
+
+    StaticFileCache(ServerConfig config) {
+        this(config.getCacheMaxBytes(), config.getCacheMaxFileBytes(), config.getCacheRevalidateMillis());
+    }
+
+    /**
+     * Returns the entry for a regular file, loading it on a miss, or null if the path does not exist or is a
+     * directory. Files above the per-file limit are returned with metadata only ({@link Entry#isCached()}
+     * is false) and their contents must be read by the caller.
+     */
+    Entry get(Path file) throws IOException {
+        Entry entry = entries.get(file);
+        long now = System.currentTimeMillis();
+        if (entry != null) {
+            if (now - entry.validatedAtMillis < revalidateMillis) {
+                entry.lastAccess = accessClock.incrementAndGet();
+                return entry;
+            }
+            BasicFileAttributes attributes = readAttributes(file);
+            if (attributes != null && entry.matches(attributes)) {
+                entry.validatedAtMillis = now;
+                entry.lastAccess = accessClock.incrementAndGet();
+                return entry;
+            }
+            invalidate(file);
+            if (attributes == null || attributes.isDirectory()) {
+                return null;
+            }
+            return load(file, attributes.size(), attributes.lastModifiedTime().toMillis(), now);
+        }
+        BasicFileAttributes attributes = readAttributes(file);
+        if (attributes == null || attributes.isDirectory()) {
+            return null;
+        }
+        return load(file, attributes.size(), attributes.lastModifiedTime().toMillis(), now);
+    }
+
+    /**
+     * Loads a regular file whose size and modification time are already known, as {@link #get} would on a
+     * miss. Returns null if it disappeared in the meantime.
+     */
+    Entry preload(Path file, long size, long lastModifiedMillis) throws IOException {
+        return load(file, size, lastModifiedMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * Files above this size are never held in memory.
+     */
+    long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    /**
+     * Strong validator derived from size and modification time, shared by cache entries and the
+     * {@link AssetManifest}.
+     */
+    static String etag(long size, long lastModifiedMillis) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModifiedMillis) + "\"";
+    }
+
+    void invalidate(Path file) {
+        Entry removed = entries.remove(file);
+        if (removed != null) {
+            release(removed);
+        }
+    }
+
+    /**
+     * Returns the body of {@code entry} in the given content coding, compressing it on first use, or null
+     * when the coding does not make the body smaller. Only valid for cached entries.
+     */
+    byte[] variant(Path file, Entry entry, String encoding) throws IOException {
+        byte[] variant = entry.variants.get(encoding);
+        if (variant == null) {
+            variant = ContentEncoding.GZIP.equals(encoding) ? readGzipSibling(file, entry) : null;
+            if (variant == null) {
+                variant = ContentEncoding.encode(entry.content, encoding);
+            }
+            if (variant.length >= entry.size) {
+                variant = NO_GAIN;
+            }
+            byte[] existing = entry.variants.putIfAbsent(encoding, variant);
+            if (existing != null) {
+                variant = existing;
+            } else if (charge(entry, variant.length) && totalBytes.get() > maxBytes) {
+                evict();
+            }
+        }
+        return variant == NO_GAIN ? null : variant;
+    }
+
+    /**
+     * Returns a pre-compressed {@code name.gz} next to {@code file} if it is at least as new as the file.
+     */
+    static Path gzipSibling(Path file, long lastModifiedMillis) throws IOException {
+        Path sibling = file.resolveSibling(file.getFileName() + ".gz");
+        BasicFileAttributes attributes = readAttributes(sibling);
+        if (attributes == null || !attributes.isRegularFile()
+                || attributes.lastModifiedTime().toMillis() < lastModifiedMillis) {
+            return null;
+        }
+        return sibling;
+    }
+
+    private static byte[] readGzipSibling(Path file, Entry entry) throws IOException {
+        Path sibling = gzipSibling(file, entry.lastModifiedMillis);
+        if (sibling == null) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(sibling);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private boolean charge(Entry entry, long bytes) {
+        synchronized (entry) {
+            if (entry.released) {
+                return false;
+            }
+            entry.footprint += bytes;
+        }
+        totalBytes.addAndGet(bytes);
+        return true;
+    }
+
+    private void release(Entry entry) {
+        long footprint;
+        synchronized (entry) {
+            entry.released = true;
+            footprint = entry.footprint;
+        }
+        totalBytes.addAndGet(-footprint);
+    }
+
+    long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private Entry load(Path file, long size, long lastModifiedMillis, long now) throws IOException {
+        String mimeType = MimeTypes.probe(file.toString());
+        if (size > maxFileBytes) {
+            return new Entry(null, mimeType, size, lastModifiedMillis, now);
+        }
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        // The file may have changed between the stat and the read; record what we actually hold.
+        Entry entry = new Entry(content, mimeType, content.length, lastModifiedMillis, now);
+        if (content.length > maxFileBytes) {
+            return entry;
+        }
+        entry.lastAccess = accessClock.incrementAndGet();
+        entry.footprint = entry.size;
+        totalBytes.addAndGet(entry.size);
+        Entry previous = entries.put(file, entry);
+        if (previous != null) {
+            release(previous);
+        }
+        if (totalBytes.get() > maxBytes) {
+            evict();
+        }
+        return entry;
+    }
+
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return; // another thread is already evicting
+        }
+        try {
+            long target = maxBytes - maxBytes / 10;
+            if (totalBytes.get() <= target) {
+                return;
+            }
+            List<Map.Entry<Path, Entry>> candidates = new ArrayList<>(entries.entrySet());
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.getValue().lastAccess));
+            for (Map.Entry<Path, Entry> candidate : candidates) {
+                if (totalBytes.get() <= target) {
+                    break;
+                }
+                if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                    release(candidate.getValue());
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path file) throws IOException {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Cached file contents and the header values derived from them.
+     */
+    static final class Entry {
+        private final byte[] content;
+        private final String mimeType;
+        private final long size;
+        private final String contentLength;
+        private final long lastModifiedMillis;
+        private final String lastModified;
+        private final String etag;
+        private final Map<String, byte[]> variants = new ConcurrentHashMap<>(2);
+        private volatile long validatedAtMillis;
+        private volatile long lastAccess;
+        private long footprint;
+        private boolean released;
+
+        private Entry(byte[] content, String mimeType, long size, long lastModifiedMillis, long validatedAtMillis) {
+            this.content = content;
+            this.mimeType = mimeType;
+            this.size = size;
+            this.contentLength = String.valueOf(size);
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.lastModified = HttpDates.format(lastModifiedMillis);
+            this.etag = StaticFileCache.etag(size, lastModifiedMillis);
+            this.validatedAtMillis = validatedAtMillis;
+        }
+
+        boolean isCached() {
+            return content != null;
+        }
+
+        /**
+         * Shared cached bytes; callers must not modify the array.
+         */
+        byte[] content() {
+            return content;
+        }
+
+        String mimeType() {
+            return mimeType;
+        }
+
+        long size() {
+            return size;
+        }
+
+        String contentLength() {
+            return contentLength;
+        }
+
+        long lastModifiedMillis() {
+            return lastModifiedMillis;
+        }
+
+        /**
+         * HTTP-date form of the modification time, for Last-Modified.
+         */
+        String lastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Validator derived from size and modification time. It changes whenever the cache would reload the
+         * file, so it is treated as strong.
+         */
+        String etag() {
+            return etag;
+        }
+
+        /**
+         * Entity tag of a content-coded variant; distinct from the identity tag as required for strong tags.
+         */
+        String etag(String encoding) {
+            return encoding == null ? etag : etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return !attributes.isDirectory()
+                    && attributes.size() == size
+                    && attributes.lastModifiedTime().toMillis() == lastModifiedMillis;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package edu.fiu.cop6727.webserver;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One upstream server of a {@link ReverseProxy}: a pool of idle keep-alive connections to it, the number of
+ * requests it is serving, and its passive health. The most recently used idle connection is reused first,
+ * and connections idle past the pool's timeout are closed instead of reused, since the upstream may already
+ * have dropped them. After {@code maxFails} consecutive failures the upstream is ejected for
+ * {@code failTimeout}; one success resets the count.
+ */
+final class Upstream {
+    private final InetSocketAddress address;
+    private final String authority;
+    private final int maxIdle;
+    private final long idleTimeoutNanos;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int maxFails;
+    private final long failTimeoutNanos;
+    private final ServerLogger logger;
+    private final Deque<Connection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder ejections = new LongAdder();
+    /** End of the current ejection, or 0 when the upstream is in rotation. */
+    private volatile long ejectedUntilNanos;
+    private volatile boolean closed;
+
+    Upstream(InetSocketAddress address, ServerConfig config, ServerLogger logger) {
+        this.address = address;
+        this.authority = address.getHostString() + ":" + address.getPort();
+        this.maxIdle = Math.max(0, config.getProxyMaxIdlePerUpstream());
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.getProxyIdleTimeoutMillis()));
+        this.connectTimeoutMillis = Math.max(0, config.getProxyConnectTimeoutMillis());
+        this.readTimeoutMillis = Math.max(0, config.getProxyReadTimeoutMillis());
+        this.maxFails = Math.max(1, config.getProxyMaxFails());
+        this.failTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.getProxyFailTimeoutMillis()));
+        this.logger = logger;
+    }
+
+    /**
+     * {@code host:port}, as sent in the Host header when the client sent none.
+     */
+    String authority() {
+        return authority;
+    }
+
+    /**
+     * A pooled connection if a fresh one is idle, otherwise a new one.
+     */
+    Connection acquire() throws IOException {
+        long now = System.nanoTime();
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (now - connection.idleSinceNanos < idleTimeoutNanos) {
+                return connection;
+            }
+            connection.close();
+        }
+        return connect();
+    }
+
+    /**
+     * Opens a new connection, bypassing the pool.
+     */
+    Connection connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), connectTimeoutMillis);
+            socket.setSoTimeout(readTimeoutMillis);
+            return new Connection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection whose last response was read completely and that the upstream keeps open; any
+     * other connection, or one the full pool has no room for, is closed.
+     */
+    void release(Connection connection) {
+        if (closed || !connection.isReusable()) {
+            connection.close();
+            return;
+        }
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            connection.close();
+            return;
+        }
+        connection.reused = true;
+        connection.idleSinceNanos = System.nanoTime();
+        idle.offerFirst(connection);
+    }
+
+    boolean isAvailable(long nowNanos) {
+        long until = ejectedUntilNanos;
+        return until == 0 || nowNanos - until >= 0;
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    void requestFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    void recordSuccess() {
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    /**
+     * Counts a failed exchange, ejecting the upstream when it reaches {@code maxFails} in a row.
+     */
+    void recordFailure(IOException failure) {
+        failures.increment();
+        if (consecutiveFailures.incrementAndGet() < maxFails) {
+            return;
+        }
+        consecutiveFailures.set(0);
+        long until = System.nanoTime() + failTimeoutNanos;
+        ejectedUntilNanos = until == 0 ? 1 : until;
+        ejections.increment();
+        closeIdle();
+        logger.warn("Ejecting upstream " + authority + " for " + TimeUnit.NANOSECONDS.toMillis(failTimeoutNanos)
+                + " ms after " + maxFails + " consecutive failures; last: " + failure.getMessage());
+    }
+
+    long getFailures() {
+        return failures.sum();
+    }
+
+    long getEjections() {
+        return ejections.sum();
+    }
+
+    int getIdleCount() {
+        return Math.max(0, idleCount.get());
+    }
+
+    void close() {
+        closed = true;
+        closeIdle();
+    }
+
+    private void closeIdle() {
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            connection.close();
+        }
+    }
+
+    /**
+     * One HTTP/1.1 connection to the upstream. It carries one exchange at a time: the caller writes a request,
+     * reads the response head, then reads the body from {@link #body} to the end before releasing it.
+     */
+    static final class Connection {
+        private static final int BUFFER_BYTES = 8 * 1024;
+
+        private final Socket socket;
+        private final InputStream input;
+        private final OutputStream output;
+        private byte[] buffer = new byte[BUFFER_BYTES];
+        private int position;
+        private int limit;
+        private boolean reused;
+        private long idleSinceNanos;
+        private boolean keepAlive;
+        private boolean bodyComplete;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.input = socket.getInputStream();
+            this.output = new BufferedOutputStream(socket.getOutputStream(), BUFFER_BYTES);
+        }
+
+        /**
+         * Whether the connection came from the pool, in which case the upstream may have closed it meanwhile.
+         */
+        boolean isReused() {
+            return reused;
+        }
+
+        OutputStream output() {
+            return output;
+        }
+
+        /**
+         * Reads the head of the final response, skipping interim {@code 1xx} responses.
+         */
+        ResponseHead readHead() throws IOException {
+            while (true) {
+                int end = headEnd();
+                while (end < 0) {
+                    if (limit == buffer.length) {
+                        if (position > 0) {
+                            compact();
+                        } else if (buffer.length < HttpRequestParser.MAX_HEADER_BYTES) {
+                            buffer = Arrays.copyOf(buffer, HttpRequestParser.MAX_HEADER_BYTES);
+                        } else {
+                            throw new IOException("Upstream response head too large");
+                        }
+                    }
+                    if (!fill()) {
+                        throw new EOFException("Upstream closed the connection before responding");
+                    }
+                    end = headEnd();
+                }
+                ResponseHead head = ResponseHead.parse(new String(buffer, position, end - position,
+                        StandardCharsets.ISO_8859_1));
+                position = end;
+                if (head.status >= 200) {
+                    keepAlive = head.keepAlive;
+                    bodyComplete = false;
+                    return head;
+                }
+            }
+        }
+
+        /**
+         * The body of the response whose head was just read, decoded from its framing. Reaching its end marks
+         * the exchange complete; a body delimited by closing the connection leaves the connection unusable.
+         */
+        InputStream body(ResponseHead head) throws IOException {
+            if (!head.chunked && head.contentLength < 0) {
+                keepAlive = false;
+                return new UntilClose();
+            }
+            try {
+                return new Framed(new RequestBodyDecoder(head.contentLength, head.chunked, Long.MAX_VALUE));
+            } catch (BadRequestException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Marks a response that has no body, such as {@code 204} or {@code 304}, as complete.
+         */
+        void noBody() {
+            bodyComplete = true;
+        }
+
+        boolean isReusable() {
+            return keepAlive && bodyComplete && position == limit && !socket.isClosed();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private int headEnd() {
+            for (int i = position + 3; i < limit; i++) {
+                if (buffer[i] == '\n' && buffer[i - 1] == '\r' && buffer[i - 2] == '\n' && buffer[i - 3] == '\r') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        private void compact() {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+
+        private boolean fill() throws IOException {
+            if (position == limit) {
+                position = 0;
+                limit = 0;
+            }
+            int read = input.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                return false;
+            }
+            limit += read;
+            return true;
+        }
+
+        /**
+         * Body delimited by Content-Length or the chunked coding, read through the connection's buffer.
+         */
+        private final class Framed extends InputStream {
+            private final RequestBodyDecoder decoder;
+
+            Framed(RequestBodyDecoder decoder) {
+                this.decoder = decoder;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] target, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                try {
+                    while (true) {
+                        position = decoder.skipFraming(buffer, position, limit);
+                        if (decoder.isComplete()) {
+                            bodyComplete = true;
+                            return -1;
+                        }
+                        int count = (int) Math.min(Math.min(decoder.available(), length), limit - position);
+                        if (count > 0) {
+                            System.arraycopy(buffer, position, target, offset, count);
+                            position += count;
+                            decoder.consume(count);
+                            return count;
+                        }
+                        if (!fill()) {
+                            throw new EOFException("Upstream closed the connection mid-body");
+                        }
+                    }
+                } catch (BadRequestException e) {
+                    throw new IOException("Malformed upstream body: " + e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(decoder.available(), limit - position);
+            }
+        }
+
+        /**
+         * Body of a response without length or chunking, which ends when the upstream closes the connection.
+         */
+        private final class UntilClose extends InputStream {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] target, int offset, int length) throws IOException {
+                if (position == limit && !fill()) {
+                    bodyComplete = true;
+                    return -1;
+                }
+                int count = Math.min(length, limit - position);
+                System.arraycopy(buffer, position, target, offset, count);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return limit - position;
+            }
+        }
+    }
+
+    /**
+     * Status and header fields of an upstream response. Repeated fields are folded into one comma-separated
+     * value, except {@code Set-Cookie}, whose values are kept apart.
+     */
+    static final class ResponseHead {
+        final int status;
+        /** Reason phrase, with anything but visible ASCII and spaces dropped. */
+        final String reason;
+        final HttpHeaders headers;
+        final boolean chunked;
+        /** Declared length, or -1 when the body is chunked or runs until the connection closes. */
+        final long contentLength;
+        final boolean keepAlive;
+
+        private ResponseHead(int status, String reason, HttpHeaders headers, boolean chunked, long contentLength,
+                             boolean keepAlive) {
+            this.status = status;
+            this.reason = reason;
+            this.headers = headers;
+            this.chunked = chunked;
+            this.contentLength = contentLength;
+            this.keepAlive = keepAlive;
+        }
+
+        static ResponseHead parse(String head) throws IOException {
+            String[] lines = head.split("\r\n");
+            String[] statusLine = lines[0].split(" ", 3);
+            if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/1.")) {
+                throw new IOException("Malformed upstream status line: " + lines[0]);
+            }
+            int status;
+            try {
+                status = Integer.parseInt(statusLine[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed upstream status line: " + lines[0]);
+            }
+            HttpHeaders headers = new HttpHeaders();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim();
+                String previous = headers.get(name);
+                if (previous == null) {
+                    headers.setNormalized(name, value);
+                } else if ("set-cookie".equals(name)) {
+                    headers.add(name, value); // RFC 6265 forbids folding cookies into one line
+                } else {
+                    headers.setNormalized(name, previous + ", " + value);
+                }
+            }
+            String transferEncoding = headers.get("transfer-encoding");
+            boolean chunked = transferEncoding != null
+                    && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked");
+            long contentLength = -1;
+            String declared = headers.get("content-length");
+            if (!chunked && declared != null) {
+                try {
+                    contentLength = Long.parseLong(declared);
+                } catch (NumberFormatException e) {
+                    contentLength = -1;
+                }
+                if (contentLength < 0) {
+                    throw new IOException("Malformed upstream Content-Length: " + declared);
+                }
+            }
+            String connection = headers.get("connection");
+            boolean keepAlive = "HTTP/1.1".equals(statusLine[0])
+                    && (connection == null || !connection.toLowerCase(Locale.ROOT).contains("close"));
+            String reason = statusLine.length > 2 ? statusLine[2].replaceAll("[^\\x20-\\x7e]", "") : "";
+            return new ResponseHead(status, reason, headers, chunked, contentLength, keepAlive);
+        }
+    }
+}
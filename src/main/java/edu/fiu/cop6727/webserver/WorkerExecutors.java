@@ -0,0 +1,281 @@
+package edu.fiu.cop6727.webserver;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executor that runs {@link ClientHandler}s and blocking handlers for the configured
+ * {@link ServerConfig.WorkerMode}. Both kinds queue at most {@link ServerConfig#getQueueCapacity()} tasks and
+ * throw {@link RejectedExecutionException} beyond that, so callers can shed load instead of queueing sockets
+ * until clients time out. Work of connections that were already admitted goes through {@link #resume}, which
+ * ignores the bound.
+ */
+final class WorkerExecutors {
+    private WorkerExecutors() {
+    }
+
+    static ExecutorService create(ServerConfig config, ServerLogger logger) {
+        return createGroups(config, logger, 1)[0];
+    }
+
+    /**
+     * Creates {@code groups} independent executors that split the configured threads (or concurrency limit)
+     * and queue capacity between them, so acceptors feeding different groups never contend on one queue.
+     */
+    static ExecutorService[] createGroups(ServerConfig config, ServerLogger logger, int groups) {
+        ExecutorService[] executors = new ExecutorService[groups];
+        int queueCapacity = share(config.getQueueCapacity(), groups);
+        if (config.getWorkerMode() == ServerConfig.WorkerMode.PLATFORM) {
+            int threads = share(Math.max(1, config.getMaxThreads()), groups);
+            for (int i = 0; i < groups; i++) {
+                executors[i] = new BoundedThreadPool(threads, queueCapacity);
+            }
+            return executors;
+        }
+        int maxConcurrency = share(Math.max(1, config.getMaxConcurrency()), groups);
+        ThreadFactory factory = virtualThreadFactory();
+        if (factory == null) {
+            // A platform thread per task would let a spike start maxConcurrency + queueCapacity OS threads,
+            // each parked on the semaphore while it waits. A pool of maxConcurrency threads queues instead.
+            logger.warn("Virtual threads need Java 21+ (running " + Runtime.version() + "); using a pool of up to "
+                    + effectiveTotal(Math.max(1, config.getMaxConcurrency()), groups) + " platform threads");
+            for (int i = 0; i < groups; i++) {
+                BoundedThreadPool pool = new BoundedThreadPool(maxConcurrency, queueCapacity);
+                pool.setKeepAliveTime(60, TimeUnit.SECONDS);
+                pool.allowCoreThreadTimeOut(true);
+                executors[i] = pool;
+            }
+            return executors;
+        }
+        for (int i = 0; i < groups; i++) {
+            executors[i] = new ConcurrencyLimitedExecutor(factory, maxConcurrency, queueCapacity);
+        }
+        return executors;
+    }
+
+    /**
+     * Whether this runtime has virtual threads (Java 21+); without them, virtual mode runs on a bounded pool
+     * of platform threads.
+     */
+    static boolean virtualThreadsAvailable() {
+        return virtualThreadFactory() != null;
+    }
+
+    /**
+     * Runs {@code task} for a connection that was already admitted, such as the continuation of a request
+     * whose asynchronous response just completed. Only rejected once the executor is shut down: turning it
+     * away for capacity would throw away finished work.
+     */
+    static void resume(ExecutorService executor, Runnable task) {
+        if (executor instanceof BoundedThreadPool pool) {
+            pool.resume(task);
+        } else if (executor instanceof ConcurrencyLimitedExecutor limited) {
+            limited.resume(task);
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Number of tasks currently running on an executor created by {@link #create}.
+     */
+    static long activeCount(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor pool) {
+            return pool.getActiveCount();
+        }
+        if (executor instanceof ConcurrencyLimitedExecutor limited) {
+            return limited.activeCount();
+        }
+        return 0;
+    }
+
+    /**
+     * Number of tasks waiting for a thread (platform mode) or for a concurrency permit (virtual mode).
+     */
+    static long queueDepth(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor pool) {
+            return pool.getQueue().size();
+        }
+        if (executor instanceof ConcurrencyLimitedExecutor limited) {
+            return limited.waitingCount();
+        }
+        return 0;
+    }
+
+    /**
+     * What {@code total} becomes once split over {@code groups}. Shares are rounded up so that no group is left
+     * without a thread, so this can exceed the configured value.
+     */
+    static int effectiveTotal(int total, int groups) {
+        return total <= 0 ? total : share(total, groups) * groups;
+    }
+
+    /**
+     * One group's part of {@code total}, rounded up; values of 0 or less (unbounded) are kept as they are.
+     */
+    private static int share(int total, int groups) {
+        return total <= 0 ? total : (total + groups - 1) / groups;
+    }
+
+    /**
+     * Looks up {@code Thread.ofVirtual().name("worker-", 0).factory()} reflectively so the server still
+     * compiles and runs on Java 17. Returns null when virtual threads are unavailable.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "worker-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Fixed pool whose queue only admits {@code queueCapacity} new tasks. The bound is checked on submission
+     * rather than built into the queue so that {@link #resume} can always enqueue.
+     */
+    static final class BoundedThreadPool extends ThreadPoolExecutor {
+        private final int queueCapacity;
+
+        BoundedThreadPool(int threads, int queueCapacity) {
+            super(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+            this.queueCapacity = queueCapacity > 0 ? queueCapacity : Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (getQueue().size() >= queueCapacity) {
+                throw new RejectedExecutionException("Worker queue is full");
+            }
+            super.execute(task);
+        }
+
+        void resume(Runnable task) {
+            super.execute(task);
+        }
+    }
+
+    /**
+     * Starts one thread per task and bounds how many tasks run at once with a semaphore. Submission never
+     * blocks: a task over the limit parks on its own (cheap, virtual) thread until a permit frees up, so
+     * neither the accept loop nor an NIO event loop is ever stalled by the limit. Once {@code queueCapacity}
+     * tasks are parked, further submissions are rejected.
+     */
+    static final class ConcurrencyLimitedExecutor extends AbstractExecutorService {
+        private final ExecutorService threadPerTask;
+        private final int maxConcurrency;
+        private final int queueCapacity;
+        private final Semaphore permits;
+        /** Tasks submitted that do not hold a permit yet. */
+        private final AtomicInteger waiting = new AtomicInteger();
+
+        ConcurrencyLimitedExecutor(ThreadFactory factory, int maxConcurrency, int queueCapacity) {
+            this.threadPerTask = newThreadPerTaskExecutor(factory);
+            this.maxConcurrency = Math.max(1, maxConcurrency);
+            this.queueCapacity = queueCapacity > 0 ? queueCapacity : Integer.MAX_VALUE;
+            this.permits = new Semaphore(this.maxConcurrency);
+        }
+
+        int activeCount() {
+            return maxConcurrency - permits.availablePermits();
+        }
+
+        int waitingCount() {
+            return permits.getQueueLength();
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            int waitingNow = waiting.incrementAndGet();
+            if (waitingNow - permits.availablePermits() > queueCapacity) {
+                waiting.decrementAndGet();
+                throw new RejectedExecutionException("Worker queue is full");
+            }
+            start(task);
+        }
+
+        void resume(Runnable task) {
+            waiting.incrementAndGet();
+            start(task);
+        }
+
+        private void start(Runnable task) {
+            try {
+                threadPerTask.execute(() -> runWithPermit(task));
+            } catch (RejectedExecutionException e) {
+                waiting.decrementAndGet();
+                throw e;
+            }
+        }
+
+        private void runWithPermit(Runnable task) {
+            boolean acquired = false;
+            try {
+                permits.acquire();
+                acquired = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiting.decrementAndGet();
+            }
+            if (!acquired) {
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            threadPerTask.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return threadPerTask.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return threadPerTask.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return threadPerTask.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return threadPerTask.awaitTermination(timeout, unit);
+        }
+
+        /**
+         * Only used with a virtual thread factory, so the method is always there; {@link #createGroups} never
+         * builds this executor on an older runtime.
+         */
+        private static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory) {
+            try {
+                Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return (ExecutorService) method.invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Thread-per-task executors need Java 21+", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package edu.fiu.cop6727.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class HttpRequestParserTest {
+    @Test
+    void parsesDeclaredLength() throws BadRequestException {
+        HttpRequest request = parse("POST /echo HTTP/1.1\r\nContent-Length: 12\r\n\r\n");
+
+        assertEquals(12, request.getContentLength());
+        assertTrue(request.hasBody());
+        assertFalse(request.isChunked());
+    }
+
+    @Test
+    void acceptsLargestLength() throws BadRequestException {
+        HttpRequest request = parse("POST /echo HTTP/1.1\r\nContent-Length: " + Long.MAX_VALUE + "\r\n\r\n");
+
+        assertEquals(Long.MAX_VALUE, request.getContentLength());
+    }
+
+    @Test
+    void rejectsLengthThatOverflowsLong() {
+        for (String length : new String[] {"9223372036854775808", "18446744073709551616", "99999999999999999999"}) {
+            BadRequestException e = assertThrows(BadRequestException.class,
+                    () -> parse("POST /echo HTTP/1.1\r\nContent-Length: " + length + "\r\n\r\n"), length);
+            assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, e.getStatus(), length);
+        }
+    }
+
+    @Test
+    void rejectsMalformedLength() {
+        for (String length : new String[] {"-1", "+5", "1 2", "0x10", ""}) {
+            BadRequestException e = assertThrows(BadRequestException.class,
+                    () -> parse("POST /echo HTTP/1.1\r\nContent-Length: " + length + "\r\n\r\n"), length);
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatus(), length);
+        }
+    }
+
+    @Test
+    void rejectsContentLengthWithTransferEncoding() {
+        assertThrows(BadRequestException.class, () -> parse(
+                "POST /echo HTTP/1.1\r\nContent-Length: 5\r\nTransfer-Encoding: chunked\r\n\r\n"));
+        assertThrows(BadRequestException.class, () -> parse(
+                "POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Length: 5\r\n\r\n"));
+    }
+
+    @Test
+    void acceptsChunkedAsFinalCoding() throws BadRequestException {
+        HttpRequest request = parse("POST /echo HTTP/1.1\r\nTransfer-Encoding: gzip, chunked\r\n\r\n");
+
+        assertTrue(request.isChunked());
+        assertEquals(-1, request.getContentLength());
+    }
+
+    @Test
+    void rejectsTransferEncodingNotEndingInChunked() {
+        for (String coding : new String[] {"gzip", "chunked, gzip", "identity"}) {
+            assertThrows(BadRequestException.class,
+                    () -> parse("POST /echo HTTP/1.1\r\nTransfer-Encoding: " + coding + "\r\n\r\n"), coding);
+        }
+    }
+
+    @Test
+    void leavesBodyForTheCaller() throws BadRequestException {
+        HttpRequestParser parser = new HttpRequestParser();
+        byte[] data = "POST /echo HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello".getBytes(StandardCharsets.US_ASCII);
+
+        int consumed = parser.parse(data, 0, data.length);
+
+        assertTrue(parser.isComplete());
+        assertEquals(data.length - 5, consumed);
+    }
+
+    private static HttpRequest parse(String head) throws BadRequestException {
+        HttpRequestParser parser = new HttpRequestParser();
+        byte[] data = head.getBytes(StandardCharsets.US_ASCII);
+        parser.parse(data, 0, data.length);
+        assertTrue(parser.isComplete());
+        return parser.takeRequest();
+    }
+}
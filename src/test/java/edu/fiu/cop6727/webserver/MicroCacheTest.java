@@ -0,0 +1,108 @@
+package edu.fiu.cop6727.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MicroCacheTest {
+    private static final int CLIENTS = 4;
+
+    @TempDir
+    Path documentRoot;
+
+    private RequestRouter router;
+    private final AtomicInteger handlerRuns = new AtomicInteger();
+
+    @AfterEach
+    void closeRouter() {
+        if (router != null) {
+            router.close();
+        }
+    }
+
+    @Test
+    void concurrentMissesDoNotShareSetCookieResponses() {
+        router = routerWith("/session", run -> {
+            HttpResponse response = HttpResponse.text(HttpStatus.OK, "personal");
+            response.setHeader("set-cookie", "session=" + run);
+            return response;
+        });
+
+        List<String> cookies = new ArrayList<>();
+        for (HttpResponse response : sendConcurrently("/session", null)) {
+            cookies.add(response.getHeader("set-cookie"));
+        }
+
+        assertEquals(CLIENTS, handlerRuns.get());
+        assertEquals(CLIENTS, new HashSet<>(cookies).size(), "each client needs its own session: " + cookies);
+    }
+
+    @Test
+    void concurrentMissesShareStorableResponse() {
+        router = routerWith("/shared", run -> HttpResponse.text(HttpStatus.OK, "shared"));
+
+        Set<String> bodies = new HashSet<>();
+        for (HttpResponse response : sendConcurrently("/shared", null)) {
+            bodies.add(new String(response.getBodyBytes()));
+        }
+
+        assertEquals(1, handlerRuns.get());
+        assertEquals(Set.of("shared"), bodies);
+    }
+
+    @Test
+    void requestsWithCookiesBypassTheCache() {
+        router = routerWith("/shared", run -> HttpResponse.text(HttpStatus.OK, "shared"));
+
+        for (HttpResponse response : sendConcurrently("/shared", "session=1")) {
+            assertNull(response.getHeader("age"));
+        }
+
+        assertEquals(CLIENTS, handlerRuns.get());
+    }
+
+    /**
+     * Router whose only micro-cached route answers with {@code responses} applied to the number of the handler
+     * run, after a short delay so that the requests sent in one go are all in flight together.
+     */
+    private RequestRouter routerWith(String pattern, IntFunction<HttpResponse> responses) {
+        ServerConfig config = ServerConfig.builder()
+                .documentRoot(documentRoot)
+                .microCacheRoutes(List.of(pattern))
+                .build();
+        RequestRouter created = new RequestRouter(config, new ServerLogger(), new ServerMetrics());
+        created.routes().add("GET", pattern, (request, parameters) -> {
+            int run = handlerRuns.incrementAndGet();
+            return ServerTimer.delay(100, TimeUnit.MILLISECONDS, () -> responses.apply(run));
+        });
+        return created;
+    }
+
+    private List<HttpResponse> sendConcurrently(String path, String cookie) {
+        List<CompletableFuture<HttpResponse>> pending = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            HttpHeaders headers = new HttpHeaders();
+            if (cookie != null) {
+                headers.set("cookie", cookie);
+            }
+            pending.add(router.routeAsync(new HttpRequest("GET", path, "HTTP/1.1", headers, new byte[0])));
+        }
+        List<HttpResponse> responses = new ArrayList<>();
+        for (CompletableFuture<HttpResponse> response : pending) {
+            responses.add(response.join());
+        }
+        return responses;
+    }
+}
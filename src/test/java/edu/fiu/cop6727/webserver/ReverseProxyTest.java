@@ -0,0 +1,120 @@
+package edu.fiu.cop6727.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReverseProxyTest {
+    @TempDir
+    Path documentRoot;
+
+    private ServerSocket upstream;
+    private Thread upstreamThread;
+    private RequestRouter router;
+
+    @AfterEach
+    void close() throws Exception {
+        if (router != null) {
+            router.close();
+        }
+        if (upstream != null) {
+            upstream.close();
+            upstreamThread.join(1000);
+        }
+    }
+
+    @Test
+    void keepsEachSetCookieOnItsOwnLine() throws Exception {
+        startUpstream("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nSet-Cookie: a=1; Path=/\r\n"
+                + "Set-Cookie: b=2; Expires=Wed, 21 Oct 2026 07:28:00 GMT\r\nVary: accept\r\nVary: cookie\r\n\r\nok");
+
+        HttpResponse response = proxy("/api/login");
+
+        assertEquals(List.of("a=1; Path=/", "b=2; Expires=Wed, 21 Oct 2026 07:28:00 GMT"),
+                response.getHeaders().getAll("set-cookie"));
+        assertEquals("accept, cookie", response.getHeader("vary"));
+        assertEquals(List.of("Set-Cookie: a=1; Path=/", "Set-Cookie: b=2; Expires=Wed, 21 Oct 2026 07:28:00 GMT"),
+                headLines(response, "Set-Cookie:"));
+    }
+
+    @Test
+    void relaysStatusWithoutConstant() throws Exception {
+        startUpstream("HTTP/1.1 451 Unavailable For Legal Reasons\r\nContent-Length: 0\r\n\r\n");
+
+        HttpResponse response = proxy("/api/blocked");
+
+        assertEquals(451, response.getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatus());
+        assertEquals(List.of("HTTP/1.1 451 Unavailable For Legal Reasons"), headLines(response, "HTTP/1.1"));
+    }
+
+    private HttpResponse proxy(String path) {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", upstream.getLocalPort());
+        ServerConfig config = ServerConfig.builder()
+                .documentRoot(documentRoot)
+                .proxyRoute("/api/*", List.of(address))
+                .build();
+        router = new RequestRouter(config, new ServerLogger(), new ServerMetrics());
+        HttpRequest request = new HttpRequest("GET", path, "HTTP/1.1", new HttpHeaders(), new byte[0]);
+        return router.routeAsync(request).join();
+    }
+
+    /**
+     * Answers every request on every connection with {@code response}, once its head has arrived.
+     */
+    private void startUpstream(String response) throws IOException {
+        upstream = new ServerSocket(0);
+        upstreamThread = new Thread(() -> {
+            while (!upstream.isClosed()) {
+                try (Socket socket = upstream.accept()) {
+                    InputStream input = socket.getInputStream();
+                    ByteArrayOutputStream head = new ByteArrayOutputStream();
+                    while (!head.toString(StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n")) {
+                        int b = input.read();
+                        if (b < 0) {
+                            break;
+                        }
+                        head.write(b);
+                    }
+                    OutputStream output = socket.getOutputStream();
+                    output.write(response.getBytes(StandardCharsets.ISO_8859_1));
+                    output.flush();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "test-upstream");
+        upstreamThread.setDaemon(true);
+        upstreamThread.start();
+    }
+
+    private static List<String> headLines(HttpResponse response, String prefix) {
+        ResponseBuffer buffer = ResponseBuffer.acquire();
+        try {
+            response.encodeInto(buffer);
+            String head = new String(buffer.array(), 0, buffer.length(), StandardCharsets.ISO_8859_1);
+            List<String> lines = new ArrayList<>();
+            for (String line : head.split("\r\n")) {
+                if (line.startsWith(prefix)) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        } finally {
+            buffer.release();
+        }
+    }
+}